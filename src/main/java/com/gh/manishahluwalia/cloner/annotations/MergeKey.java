@@ -0,0 +1,44 @@
+/*
+* Copyright 2014 Manish Ahluwalia
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+package com.gh.manishahluwalia.cloner.annotations;
+
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+import com.gh.manishahluwalia.cloner.impl.RecursiveReflexiveCloner;
+
+
+/**
+ * <p>
+ * Indicates that this field identifies the object, i.e. that the
+ * client's copy of an object and the server's one are copies of the
+ * same object if this field has equal values in both. Used by
+ * {@link RecursiveReflexiveCloner#deepCopyFieldsFromClient(Object, Object, Class)}
+ * to match up the elements of collections, and is otherwise ignored.
+ * </p><p>
+ * At most one field of a class, including the fields it inherits, may
+ * be annotated so. The field's value must have proper equals() and
+ * hashCode() methods, and should not be modified once set.
+ * </p>
+ */
+@Retention(RetentionPolicy.RUNTIME)
+@Target(value = { ElementType.FIELD })
+public @interface MergeKey
+{
+}
@@ -0,0 +1,40 @@
+/*
+* Copyright 2014 Manish Ahluwalia
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+package com.gh.manishahluwalia.cloner.impl;
+
+/**
+ * How {@link RecursiveReflexiveCloner#shallowCopyChangedFieldsFromClient(Object, Object, Class, ChangeDetection)}
+ * tells whether the value of a field sent by the client differs from the one on the server.
+ * <p>
+ * Whatever the mode, values of immutable types, such as primitives, their wrappers and strings,
+ * are compared with equals(), and values of types with a comparator registered with
+ * {@link RecursiveReflexiveCloner#setChangeComparator(Class, java.util.Comparator)} are compared
+ * with it.
+ * </p>
+ */
+public enum ChangeDetection
+{
+    /**
+     * A value is changed unless it is the very same object. Best for references to other
+     * entities, which the client sends back as copies only if it replaced them.
+     */
+    IDENTITY,
+
+    /**
+     * A value is changed unless it equals the one on the server.
+     */
+    EQUALS;
+}
@@ -0,0 +1,336 @@
+/*
+* Copyright 2014 Manish Ahluwalia
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+package com.gh.manishahluwalia.cloner.impl;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Set;
+
+import com.gh.manishahluwalia.cloner.annotations.Projection;
+import com.gh.manishahluwalia.cloner.impl.RecursiveReflexiveCloner.FieldAccessorClonerWrapper;
+
+/**
+ * <p>
+ * One run of {@link RecursiveReflexiveCloner#deepCopyFieldsFromClient(Object, Object, Class)}.
+ * Keeps the pairs of objects still to be merged on a work list rather than recursing, so that
+ * the depth of the graph doesn't matter, and remembers which server object each client object
+ * was merged into, so that every client object is merged only once and references to it end
+ * up referring to its server counterpart.
+ * </p><p>
+ * Client objects that match none of the server's are adopted, i.e. end up in the server's
+ * graph as they are. Once all matches are merged, they are walked as if merged into
+ * themselves, so that their references to matched client objects are redirected too.
+ * </p><p>
+ * Collections are merged with a hash join on the keys of their elements, see {@link RecursiveReflexiveCloner#getMergeKey(Object)},
+ * so a merge takes time linear in the size of the graphs.
+ * </p><p>
+ * Not thread-safe, and used once only.
+ * </p>
+ */
+final class ClientMerge
+{
+    private final RecursiveReflexiveCloner cloner;
+    private final int projectionId;
+    /* Client object -> the server object it is merged into */
+    private final IdentityTable<Object> counterparts = new IdentityTable<Object>();
+    /* Pairs of server and client objects still to be merged */
+    private final ArrayList<Object> pending = new ArrayList<Object>();
+    /* Client objects and collections adopted, to be walked once pending is empty */
+    private final ArrayList<Object> adopted = new ArrayList<Object>();
+    /* Pairs of server sets and the elements to add to them once everything is merged */
+    private final ArrayList<Object> deferred = new ArrayList<Object>();
+
+    ClientMerge (RecursiveReflexiveCloner cloner, Class<? extends Projection> projection)
+    {
+        this.cloner = cloner;
+        this.projectionId = cloner.getProjectionId(projection);
+    }
+
+    void merge (Object server, Object client)
+    {
+        enqueue(server, client);
+        while (!pending.isEmpty() || !adopted.isEmpty())
+        {
+            if (pending.isEmpty())
+            {
+                walkAdopted(adopted.remove(adopted.size() - 1));
+                continue;
+            }
+            client = pending.remove(pending.size() - 1);
+            server = pending.remove(pending.size() - 1);
+            for (FieldAccessorClonerWrapper accessor : cloner.getCopyingAccessors(client.getClass()))
+            {
+                if (!accessor.isCopiedFromClient(projectionId))
+                {
+                    continue;
+                }
+                try
+                {
+                    Object old = accessor.get(server);
+                    Object value = mergeValue(old, accessor.get(client));
+                    if (value != old)
+                    {
+                        accessor.set(server, value);
+                    }
+                }
+                catch (Exception e)
+                {
+                    throw new CloningError("Can't merge " + accessor.getName() + " of " + server.getClass().getName(), e);
+                }
+            }
+        }
+        addDeferred();
+    }
+
+    /**
+     * Adds the elements that may have changed while merging to their sets, now that they
+     * won't change any more, so that the sets hash them as they are.
+     */
+    @SuppressWarnings("unchecked")
+    private void addDeferred ()
+    {
+        for (int i = 0; i < deferred.size(); i += 2)
+        {
+            ((Collection<Object>)deferred.get(i)).addAll((List<Object>)deferred.get(i + 1));
+        }
+    }
+
+    private void enqueue (Object server, Object client)
+    {
+        if (null == counterparts.putIfAbsent(client, server))
+        {
+            pending.add(server);
+            pending.add(client);
+        }
+    }
+
+    /**
+     * Makes value, a client object or collection, part of the server's graph.
+     * @return value
+     */
+    private Object adopt (Object value)
+    {
+        if (value instanceof Collection || cloner.typeIsRecursivelyCloned(value.getClass()))
+        {
+            adopted.add(value);
+        }
+        return value;
+    }
+
+    @SuppressWarnings("unchecked")
+    private void walkAdopted (Object value)
+    {
+        if (!(value instanceof Collection))
+        {
+            enqueue(value, value);
+        }
+        else if (null == counterparts.putIfAbsent(value, value))
+        {
+            mergeCollection((Collection<Object>)value, (Collection<Object>)value);
+        }
+    }
+
+    /**
+     * @return What the server's value, old, is to be replaced with given the client's value.
+     *   This is old itself, to be merged into later, if it is a copy of the same object, or a
+     *   collection, into which the client's collection has just been merged.
+     */
+    @SuppressWarnings("unchecked")
+    private Object mergeValue (Object old, Object value)
+    {
+        if (null == value)
+        {
+            return null;
+        }
+        Object counterpart = counterparts.get(value);
+        if (null != counterpart)
+        {
+            return counterpart;
+        }
+        /* The server's collections may well be of other classes, e.g. an ORM's own */
+        if (value instanceof Collection && old instanceof Collection && (value instanceof Set) == (old instanceof Set))
+        {
+            mergeCollection((Collection<Object>)old, (Collection<Object>)value);
+            return old;
+        }
+        if (null == old || old.getClass() != value.getClass())
+        {
+            return adopt(value);
+        }
+        if (cloner.typeIsRecursivelyCloned(value.getClass()))
+        {
+            FieldAccessorClonerWrapper keyAccessor = cloner.getKeyAccessor(value.getClass());
+            if (null != keyAccessor)
+            {
+                Object key = keyAccessor.get(value);
+                if (null == key || !key.equals(keyAccessor.get(old)))
+                {
+                    return adopt(value);
+                }
+            }
+            enqueue(old, value);
+            return old;
+        }
+        return adopt(value);
+    }
+
+    /**
+     * <p>
+     * Makes the server's collection hold the client's elements, in the client's order if it
+     * is ordered. Elements of both with equal keys are merged: the server's element stays,
+     * and the client's is merged into it. The other elements of the server are removed, and
+     * the other elements of the client added as they are. Elements that share a key are
+     * matched in the order they come in.
+     * </p><p>
+     * Elements of a set that may yet change are taken out of it, and only added back once
+     * the whole graph is merged, as their hash codes may depend on what changes.
+     * </p>
+     */
+    private void mergeCollection (Collection<Object> server, Collection<Object> client)
+    {
+        HashMap<Object, List<Object>> byKey = new HashMap<Object, List<Object>>();
+        for (Object element : server)
+        {
+            Object key = cloner.getMergeKey(element);
+            if (null != key)
+            {
+                List<Object> bucket = byKey.get(key);
+                if (null == bucket)
+                {
+                    bucket = new LinkedList<Object>();
+                    byKey.put(key, bucket);
+                }
+                bucket.add(element);
+            }
+        }
+
+        ArrayList<Object> merged = new ArrayList<Object>(client.size());
+        for (Object element : client)
+        {
+            Object counterpart = null == element ? null : counterparts.get(element);
+            if (null == counterpart && null != element)
+            {
+                Object key = cloner.getMergeKey(element);
+                Object match = null == key ? null : removeMatch(byKey.get(key), element.getClass());
+                if (null != match)
+                {
+                    if (!cloner.typeIsImmutable(match.getClass()))
+                    {
+                        enqueue(match, element);
+                    }
+                    counterpart = match;
+                }
+                else
+                {
+                    counterpart = adopt(element);
+                }
+            }
+            merged.add(counterpart);
+        }
+
+        if (server instanceof Set)
+        {
+            IdentityTable<Object> kept = new IdentityTable<Object>();
+            List<Object> later = new ArrayList<Object>();
+            for (Object element : merged)
+            {
+                if (mayChange(element))
+                {
+                    later.add(element);
+                }
+                else
+                {
+                    kept.put(element, element);
+                }
+            }
+            for (Iterator<Object> i = server.iterator(); i.hasNext();)
+            {
+                Object element = i.next();
+                if (null == kept.get(element))
+                {
+                    i.remove();
+                }
+            }
+            for (Object element : merged)
+            {
+                if (!mayChange(element))
+                {
+                    server.add(element);
+                }
+            }
+            if (!later.isEmpty())
+            {
+                deferred.add(server);
+                deferred.add(later);
+            }
+        }
+        else if (!isSameSequence(server, merged))
+        {
+            server.clear();
+            server.addAll(merged);
+        }
+    }
+
+    /**
+     * @return The first element of bucket of the given class, taken out of it, if any
+     */
+    private static Object removeMatch (List<Object> bucket, Class<?> clazz)
+    {
+        if (null == bucket)
+        {
+            return null;
+        }
+        for (Iterator<Object> i = bucket.iterator(); i.hasNext();)
+        {
+            Object element = i.next();
+            if (element.getClass() == clazz)
+            {
+                i.remove();
+                return element;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return true if merging may yet change element, or what its fields refer to
+     */
+    private boolean mayChange (Object element)
+    {
+        return null != element && (element instanceof Collection || cloner.typeIsRecursivelyCloned(element.getClass()));
+    }
+
+    private boolean isSameSequence (Collection<Object> collection, List<Object> elements)
+    {
+        if (collection.size() != elements.size())
+        {
+            return false;
+        }
+        Iterator<Object> i = collection.iterator();
+        for (Object element : elements)
+        {
+            if (i.next() != element)
+            {
+                return false;
+            }
+        }
+        return true;
+    }
+}
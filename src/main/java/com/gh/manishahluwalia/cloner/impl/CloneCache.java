@@ -0,0 +1,129 @@
+/*
+* Copyright 2014 Manish Ahluwalia
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+package com.gh.manishahluwalia.cloner.impl;
+
+import java.util.EnumMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+import com.gh.manishahluwalia.cloner.annotations.Projection;
+
+/**
+ * <p>
+ * The copies for GWT-RPC made so far, so that objects that have not changed since need not be
+ * copied again. See {@link RecursiveReflexiveCloner#setCloneCache(CloneCache)}.
+ * </p><p>
+ * Copies are kept per projection and {@link DontCarePolicy}, for as long as the object they were
+ * made of is reachable: objects are only weakly referred to. The same copy is handed out over and
+ * over again, so copies must not be modified.
+ * </p><p>
+ * The cache can't tell that an object has been modified. Whoever modifies an object that may
+ * have been copied must then call {@link #invalidate(Object)} on it, e.g. on a list that was
+ * added to rather than on the object holding the list. That drops the copies of the object and
+ * of every object that reached it. The next copy of any of those copies them again,
+ * but still reuses the copies of the objects below them that were not invalidated.
+ * </p><p>
+ * Thread-safe. Copies made through the cache are made one at a time, but handing out a copy
+ * that is already known only takes a lookup, which doesn't wait for the copies being made.
+ * </p>
+ */
+public final class CloneCache
+{
+    /* Stands for the null projection, as the tables can't have null keys */
+    private static final Object NO_PROJECTION = new Object();
+
+    /* Has a map for every policy, so that it is never modified once constructed */
+    private final EnumMap<DontCarePolicy, ConcurrentHashMap<Object, CloneTable>> tables = new EnumMap<DontCarePolicy, ConcurrentHashMap<Object, CloneTable>>(DontCarePolicy.class);
+
+    public CloneCache ()
+    {
+        for (DontCarePolicy dontCarePolicy : DontCarePolicy.values())
+        {
+            tables.put(dontCarePolicy, new ConcurrentHashMap<Object, CloneTable>());
+        }
+    }
+
+    /**
+     * Drops the copies of the given object, and of every object that reached it when copied,
+     * for every projection. To be called once the object has been modified.
+     */
+    public synchronized void invalidate (Object object)
+    {
+        if (null == object)
+        {
+            return;
+        }
+        for (ConcurrentHashMap<Object, CloneTable> byProjection : tables.values())
+        {
+            for (CloneTable table : byProjection.values())
+            {
+                table.invalidate(object);
+            }
+        }
+    }
+
+    /**
+     * Drops every copy.
+     */
+    public synchronized void clear ()
+    {
+        for (ConcurrentHashMap<Object, CloneTable> byProjection : tables.values())
+        {
+            for (CloneTable table : byProjection.values())
+            {
+                table.clear();
+            }
+        }
+    }
+
+    /**
+     * @return How many objects the cache knows of, for every projection, including those
+     *   that were handed over as they are.
+     */
+    public synchronized int size ()
+    {
+        int size = 0;
+        for (ConcurrentHashMap<Object, CloneTable> byProjection : tables.values())
+        {
+            for (CloneTable table : byProjection.values())
+            {
+                size += table.size();
+            }
+        }
+        return size;
+    }
+
+    /**
+     * @return The table of the given policy and projection. May be called at any time, but
+     *   only {@link CloneTable#get(Object)} may be called on the table without holding the
+     *   lock of this cache.
+     */
+    CloneTable getTable (DontCarePolicy dontCarePolicy, Class<? extends Projection> projection)
+    {
+        ConcurrentHashMap<Object, CloneTable> byProjection = tables.get(dontCarePolicy);
+        Object key = null == projection ? NO_PROJECTION : projection;
+        CloneTable table = byProjection.get(key);
+        if (null == table)
+        {
+            CloneTable created = new CloneTable();
+            table = byProjection.putIfAbsent(key, created);
+            if (null == table)
+            {
+                table = created;
+            }
+        }
+        return table;
+    }
+}
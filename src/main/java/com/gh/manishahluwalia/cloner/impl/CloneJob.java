@@ -0,0 +1,180 @@
+/*
+* Copyright 2014 Manish Ahluwalia
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+package com.gh.manishahluwalia.cloner.impl;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * <p>
+ * A deep clone made a step at a time, so that cloning a huge graph need not hold up a thread
+ * for as long as the whole clone takes. Each step clones at most a given number of objects, or
+ * for at most a given time, and the next one picks up where it left off. See
+ * {@link RecursiveReflexiveCloner#startDeepClone(Object, Class)}.
+ * </p><p>
+ * The objects being cloned must not be modified until the job is done, or the clone may mix
+ * their states before and after. The clone itself must not be used until then either, since
+ * parts of it are still missing.
+ * </p><p>
+ * Not thread-safe, but successive steps may be taken by different threads.
+ * </p>
+ * @param <T> The type of the object cloned
+ */
+public final class CloneJob<T>
+{
+    private IterativeTraversal traversal;
+
+    private boolean done;
+
+    private T clone;
+
+    /* How many objects were cloned, once the traversal is let go of */
+    private int clonedCount;
+
+    CloneJob (IterativeTraversal traversal)
+    {
+        this.traversal = traversal;
+        if (0 == traversal.getPendingCount())
+        {
+            finish();
+        }
+    }
+
+    /**
+     * Clones at most maxObjects more objects.
+     * @return true if the clone is done
+     * @throws CloningError An object is not clonable for some reason. The job is then cancelled.
+     */
+    public boolean step (int maxObjects)
+    {
+        return step(maxObjects, Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Clones for about the given time at most. The time is checked every few dozen objects, so
+     * a step may overrun it by as long as it takes to clone those.
+     * @return true if the clone is done
+     * @throws CloningError An object is not clonable for some reason. The job is then cancelled.
+     */
+    public boolean step (long time, TimeUnit unit)
+    {
+        return step(Integer.MAX_VALUE, time, unit);
+    }
+
+    /**
+     * Clones at most maxObjects more objects, and for about the given time at most.
+     * @return true if the clone is done
+     * @throws CloningError An object is not clonable for some reason. The job is then cancelled.
+     * @throws IllegalStateException The job was cancelled
+     */
+    public boolean step (int maxObjects, long time, TimeUnit unit)
+    {
+        if (done)
+        {
+            return true;
+        }
+        if (null == traversal)
+        {
+            throw new IllegalStateException("The job was cancelled");
+        }
+        long maxNanos = Long.MAX_VALUE == time ? Long.MAX_VALUE : unit.toNanos(time);
+        boolean finished;
+        try
+        {
+            finished = traversal.advance(maxObjects, maxNanos);
+        }
+        catch (RuntimeException e)
+        {
+            cancel();
+            throw e;
+        }
+        if (finished)
+        {
+            finish();
+        }
+        return finished;
+    }
+
+    /**
+     * Clones whatever is left to clone in one go.
+     * @return The clone
+     */
+    public T finishNow ()
+    {
+        step(Integer.MAX_VALUE, Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+        return clone;
+    }
+
+    public boolean isDone ()
+    {
+        return done;
+    }
+
+    /**
+     * @return The clone
+     * @throws IllegalStateException The job is not done
+     */
+    public T getClone ()
+    {
+        if (!done)
+        {
+            throw new IllegalStateException("The clone is not done");
+        }
+        return clone;
+    }
+
+    /**
+     * @return How many objects have been cloned so far, not counting leaves such as strings
+     *   and dates, which refer to nothing else
+     */
+    public int getClonedCount ()
+    {
+        return null == traversal ? clonedCount : traversal.getClonedCount();
+    }
+
+    /**
+     * @return How many of the objects cloned so far still have fields or elements left to
+     *   clone. This is the depth the clone is at, not how much is left to clone, which can't
+     *   be known without walking the rest of the graph.
+     */
+    public int getPendingCount ()
+    {
+        return null == traversal ? 0 : traversal.getPendingCount();
+    }
+
+    /**
+     * Gives up on the clone, letting go of everything held for it. Further steps are not
+     * allowed. Does nothing to a job that is done.
+     */
+    public void cancel ()
+    {
+        if (!done && null != traversal)
+        {
+            clonedCount = traversal.getClonedCount();
+            traversal.finish();
+            traversal = null;
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private void finish ()
+    {
+        clone = (T)traversal.getClone();
+        clonedCount = traversal.getClonedCount();
+        traversal.finish();
+        traversal = null;
+        done = true;
+    }
+}
@@ -0,0 +1,138 @@
+/*
+* Copyright 2014 Manish Ahluwalia
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+package com.gh.manishahluwalia.cloner.impl;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import com.gh.manishahluwalia.cloner.annotations.Projection;
+import com.gh.manishahluwalia.cloner.impl.RecursiveReflexiveCloner.FieldAccessorClonerWrapper;
+
+/**
+ * <p>
+ * What to do with each field of a {@link com.gh.manishahluwalia.cloner.annotations.ReflexivelyClonable}
+ * type for one projection, worked out once from the annotations, so that checking and cloning an
+ * object involves no lookups of the projection.
+ * </p><p>
+ * Fields that are not cloned are left out of the clone altogether: they would be left as
+ * the no-argument constructor set them anyway, so there is no need to even look at what they hold.
+ * </p><p>
+ * Every accessor comes with its position among all the cloning accessors of the type, which is
+ * where the reads of a check are recorded. See {@link CloningContext.RecordedReads}.
+ * </p>
+ */
+final class ClonePlan
+{
+    final Class<? extends Projection> projection;
+
+    /* Fields that must not be cloned: a check only needs to know whether they are null */
+    final FieldAccessorClonerWrapper[] notCloned;
+    final int[] notClonedIndexes;
+
+    /* All other fields, whose values a check must look into */
+    final FieldAccessorClonerWrapper[] checked;
+    final int[] checkedIndexes;
+
+    /* Fields to clone, followed by the fields the DontCarePolicy decides about */
+    final FieldAccessorClonerWrapper[] cloned;
+    final int[] clonedIndexes;
+    private final int dontCareStart;
+
+    ClonePlan (Class<? extends Projection> projection, List<FieldAccessorClonerWrapper> cloningAccessors)
+    {
+        this.projection = projection;
+
+        List<FieldAccessorClonerWrapper> notCloned = new ArrayList<FieldAccessorClonerWrapper>();
+        List<Integer> notClonedIndexes = new ArrayList<Integer>();
+        List<FieldAccessorClonerWrapper> checked = new ArrayList<FieldAccessorClonerWrapper>();
+        List<Integer> checkedIndexes = new ArrayList<Integer>();
+        List<FieldAccessorClonerWrapper> cloned = new ArrayList<FieldAccessorClonerWrapper>();
+        List<Integer> clonedIndexes = new ArrayList<Integer>();
+        List<FieldAccessorClonerWrapper> dontCare = new ArrayList<FieldAccessorClonerWrapper>();
+        List<Integer> dontCareIndexes = new ArrayList<Integer>();
+
+        int index = 0;
+        for (FieldAccessorClonerWrapper accessor : cloningAccessors)
+        {
+            switch (accessor.getCloningDisposition(projection))
+            {
+                case DONT_CLONE:
+                    notCloned.add(accessor);
+                    notClonedIndexes.add(index);
+                    break;
+                case CLONE:
+                    checked.add(accessor);
+                    checkedIndexes.add(index);
+                    cloned.add(accessor);
+                    clonedIndexes.add(index);
+                    break;
+                default:
+                    checked.add(accessor);
+                    checkedIndexes.add(index);
+                    dontCare.add(accessor);
+                    dontCareIndexes.add(index);
+                    break;
+            }
+            index++;
+        }
+        this.dontCareStart = cloned.size();
+        cloned.addAll(dontCare);
+        clonedIndexes.addAll(dontCareIndexes);
+
+        this.notCloned = notCloned.toArray(new FieldAccessorClonerWrapper[notCloned.size()]);
+        this.notClonedIndexes = toArray(notClonedIndexes);
+        this.checked = checked.toArray(new FieldAccessorClonerWrapper[checked.size()]);
+        this.checkedIndexes = toArray(checkedIndexes);
+        this.cloned = cloned.toArray(new FieldAccessorClonerWrapper[cloned.size()]);
+        this.clonedIndexes = toArray(clonedIndexes);
+    }
+
+    /**
+     * @return How many of the {@link #cloned} fields come first, with a {@link CloningDisposition#CLONE}
+     *   disposition
+     */
+    int getCloneCount ()
+    {
+        return dontCareStart;
+    }
+
+    /**
+     * @return How many of the {@link #cloned} fields a clone fills in under the policy
+     */
+    int getClonedCount (DontCarePolicy dontCarePolicy)
+    {
+        return DontCarePolicy.DROP == dontCarePolicy ? dontCareStart : cloned.length;
+    }
+
+    /**
+     * @return From which of the {@link #cloned} fields on values may be shared rather
+     *   than cloned under the policy
+     */
+    int getSharedStart (DontCarePolicy dontCarePolicy)
+    {
+        return DontCarePolicy.SHARE == dontCarePolicy ? dontCareStart : cloned.length;
+    }
+
+    private static int[] toArray (List<Integer> list)
+    {
+        int[] array = new int[list.size()];
+        for (int i = 0; i < array.length; i++)
+        {
+            array[i] = list.get(i);
+        }
+        return array;
+    }
+}
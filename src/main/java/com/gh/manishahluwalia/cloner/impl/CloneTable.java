@@ -0,0 +1,266 @@
+/*
+* Copyright 2014 Manish Ahluwalia
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+package com.gh.manishahluwalia.cloner.impl;
+
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+
+/**
+ * <p>
+ * The copies kept by a {@link CloneCache} for one projection and policy: a map from objects,
+ * compared by identity and only weakly referred to, to their copies. An object that needed no
+ * copy is mapped to itself.
+ * </p><p>
+ * Each object also knows which objects referred to it when they were copied, its parents, so that
+ * {@link #invalidate(Object)} can drop the copies of an object and of everything that reaches it.
+ * Objects handed over as they are by a copy are mapped to nothing, but still know their parents.
+ * </p><p>
+ * Entries whose object has been garbage collected are purged as the table is modified. Not
+ * thread-safe, except that {@link #get(Object)} may be called while another thread modifies
+ * the table. It may then miss an object, but never returns another object's copy, nor a copy
+ * that is not done yet, as copies are only put once done.
+ * </p>
+ */
+final class CloneTable
+{
+    /* Must be a power of 2 */
+    private static final int INITIAL_CAPACITY = 64;
+
+    /* Stands for the object itself, which the entry must not refer to strongly */
+    private static final Object SAME = new Object();
+
+    private static final class Entry extends WeakReference<Object>
+    {
+        final int hash;
+
+        volatile Entry next;
+
+        /* The copy, SAME, or null if the object is only known for its parents */
+        volatile Object copy;
+
+        /* The entries of the parents, or null if there are none */
+        ArrayList<Entry> parents;
+
+        /* Set once the entry is out of the table */
+        boolean removed;
+
+        Entry (Object object, int hash, Entry next, ReferenceQueue<Object> queue)
+        {
+            super(object, queue);
+            this.hash = hash;
+            this.next = next;
+        }
+    }
+
+    private final ReferenceQueue<Object> queue = new ReferenceQueue<Object>();
+
+    /* Only ever replaced once filled, for the sake of concurrent gets */
+    private volatile Entry[] table = new Entry[INITIAL_CAPACITY];
+
+    private int size;
+
+    /**
+     * @return The copy of object, object itself if it needed none, or null if it is not known
+     */
+    Object get (Object object)
+    {
+        Entry entry = find(object);
+        Object copy = null == entry ? null : entry.copy;
+        if (null == copy)
+        {
+            return null;
+        }
+        return SAME == copy ? object : copy;
+    }
+
+    void put (Object object, Object copy)
+    {
+        expungeStaleEntries();
+        getOrAdd(object).copy = object == copy ? SAME : copy;
+    }
+
+    /**
+     * Records that child was reached from parent while parent was copied.
+     */
+    void addParent (Object child, Object parent)
+    {
+        expungeStaleEntries();
+        Entry parentEntry = getOrAdd(parent);
+        Entry entry = getOrAdd(child);
+        if (null == entry.parents)
+        {
+            entry.parents = new ArrayList<Entry>(2);
+        }
+        ArrayList<Entry> parents = entry.parents;
+        for (int i = parents.size() - 1; i >= 0; i--)
+        {
+            Entry known = parents.get(i);
+            if (parentEntry == known)
+            {
+                return;
+            }
+            if (known.removed)
+            {
+                parents.remove(i);
+            }
+        }
+        parents.add(parentEntry);
+    }
+
+    /**
+     * Forgets object and every object it was reached from, and so on.
+     */
+    void invalidate (Object object)
+    {
+        expungeStaleEntries();
+        Entry first = find(object);
+        if (null == first)
+        {
+            return;
+        }
+        ArrayList<Entry> pending = new ArrayList<Entry>();
+        pending.add(first);
+        while (!pending.isEmpty())
+        {
+            Entry entry = pending.remove(pending.size() - 1);
+            if (entry.removed)
+            {
+                continue;
+            }
+            ArrayList<Entry> parents = entry.parents;
+            remove(entry);
+            if (null != parents)
+            {
+                pending.addAll(parents);
+            }
+        }
+    }
+
+    int size ()
+    {
+        expungeStaleEntries();
+        return size;
+    }
+
+    void clear ()
+    {
+        while (null != queue.poll())
+        {
+            /* The entries are dropped with the table */
+        }
+        for (Entry head : table)
+        {
+            for (Entry entry = head; null != entry; entry = entry.next)
+            {
+                entry.removed = true;
+                entry.copy = null;
+                entry.parents = null;
+            }
+        }
+        table = new Entry[INITIAL_CAPACITY];
+        size = 0;
+    }
+
+    private Entry find (Object object)
+    {
+        int hash = System.identityHashCode(object);
+        Entry[] table = this.table;
+        for (Entry entry = table[hash & (table.length - 1)]; null != entry; entry = entry.next)
+        {
+            if (hash == entry.hash && object == entry.get())
+            {
+                return entry;
+            }
+        }
+        return null;
+    }
+
+    private Entry getOrAdd (Object object)
+    {
+        Entry entry = find(object);
+        if (null == entry)
+        {
+            if (size >= table.length * 3 / 4)
+            {
+                grow();
+            }
+            int hash = System.identityHashCode(object);
+            int i = hash & (table.length - 1);
+            entry = new Entry(object, hash, table[i], queue);
+            table[i] = entry;
+            size++;
+        }
+        return entry;
+    }
+
+    private void remove (Entry removed)
+    {
+        int i = removed.hash & (table.length - 1);
+        Entry previous = null;
+        for (Entry entry = table[i]; null != entry; previous = entry, entry = entry.next)
+        {
+            if (removed == entry)
+            {
+                if (null == previous)
+                {
+                    table[i] = entry.next;
+                }
+                else
+                {
+                    previous.next = entry.next;
+                }
+                size--;
+                break;
+            }
+        }
+        removed.removed = true;
+        removed.copy = null;
+        removed.parents = null;
+    }
+
+    private void expungeStaleEntries ()
+    {
+        for (Object stale = queue.poll(); null != stale; stale = queue.poll())
+        {
+            Entry entry = (Entry)stale;
+            if (!entry.removed)
+            {
+                remove(entry);
+            }
+        }
+    }
+
+    private void grow ()
+    {
+        Entry[] old = table;
+        Entry[] grown = new Entry[2 * old.length];
+        int mask = grown.length - 1;
+        for (Entry head : old)
+        {
+            Entry entry = head;
+            while (null != entry)
+            {
+                Entry next = entry.next;
+                int i = entry.hash & mask;
+                entry.next = grown[i];
+                grown[i] = entry;
+                entry = next;
+            }
+        }
+        table = grown;
+    }
+}
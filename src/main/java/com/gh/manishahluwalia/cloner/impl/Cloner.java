@@ -15,20 +15,125 @@
 */
 package com.gh.manishahluwalia.cloner.impl;
 
-import java.util.Map;
 import java.util.Set;
 
 import com.gh.manishahluwalia.cloner.annotations.Projection;
 
 abstract class Cloner
 {
-    public abstract boolean cloneNeededForGwt (Object object, Class<? extends Projection> projection, Set<Object> alreadyChecked);
+    public abstract boolean cloneNeededForGwt (Object object, Class<? extends Projection> projection, CloningContext context);
 
-    public abstract Object deepClone (Object source, Class<? extends Projection> projection, Map<Object, Object> alreadyXlated);
+    public abstract Object deepClone (Object source, Class<? extends Projection> projection, CloningContext context);
+
+    /**
+     * What can be told of {@link #cloneNeededForGwt(Object, Class, CloningContext)} for
+     * the projection without looking at the object. Must be quick, as it is asked for
+     * every object checked.
+     */
+    public GwtVerdict getGwtVerdict (Class<? extends Projection> projection)
+    {
+        return GwtVerdict.MAYBE;
+    }
+
+    /**
+     * Same as {@link #cloneNeededForGwt(Object, Class, CloningContext)}, but doesn't look at
+     * the object at all if {@link #getGwtVerdict(Class)} has the answer, unless the check is
+     * made for a session, see {@link CloningContext#hasSession()}.
+     */
+    public final boolean checkForGwt (Object object, Class<? extends Projection> projection, CloningContext context)
+    {
+        if (context.isReplaced(object))
+        {
+            return true;
+        }
+        if (context.hasSession())
+        {
+            return cloneNeededForGwt(object, projection, context);
+        }
+        switch (getGwtVerdict(projection))
+        {
+            case NEVER:
+                return false;
+            case ALWAYS:
+                return true;
+            default:
+                return cloneNeededForGwt(object, projection, context);
+        }
+    }
+
+    /**
+     * Whether {@link #cloneNeededForGwt(Object, Class, CloningContext)} and {@link #deepClone(Object, Class, CloningContext)}
+     * call back into other cloners. If so, {@link #checkFrame(Object, Class, CloningContext)} and
+     * {@link #cloneFrame(Object, Class, CloningContext)} must be overridden too, for use by
+     * {@link IterativeTraversal}.
+     */
+    public boolean isRecursive ()
+    {
+        return false;
+    }
+
+    /**
+     * Whether no object handled by this cloner can reach itself through what gets cloned,
+     * whatever the runtime types of the objects involved. Only decided from declared types,
+     * so a false answer just means that a cycle could not be ruled out.
+     */
+    public boolean isAcyclic ()
+    {
+        return !isRecursive();
+    }
+
+    /**
+     * Marks object as checked in the context and returns a frame that hands out its
+     * children that need to be checked. Returns null if the object was already checked.
+     */
+    public TraversalFrame checkFrame (Object object, Class<? extends Projection> projection, CloningContext context)
+    {
+        throw new CloningError("Method checkFrame() not overridden in " + this.getClass().getName());
+    }
+
+    /**
+     * Creates the (empty) clone of source, records it in the context and returns a frame
+     * that fills it in. Must not be called for a source already cloned in this context.
+     */
+    public TraversalFrame cloneFrame (Object source, Class<? extends Projection> projection, CloningContext context)
+    {
+        throw new CloningError("Method cloneFrame() not overridden in " + this.getClass().getName());
+    }
+
+    /**
+     * Like {@link #deepClone(Object, Class, CloningContext)}, but may fill in reuse, an object left
+     * over from an earlier clone, rather than a new object, if it has the right shape. Only called
+     * for cloners that are not recursive. Ignores reuse, unless overridden.
+     */
+    public Object deepCloneInto (Object source, Object reuse, Class<? extends Projection> projection, CloningContext context)
+    {
+        return deepClone(source, projection, context);
+    }
+
+    /**
+     * Like {@link #cloneFrame(Object, Class, CloningContext)}, but may fill in reuse, an object
+     * left over from an earlier clone, rather than a new object, if it has the right shape. The
+     * frame must then hand out, via {@link TraversalFrame#reusableChild()}, what reuse held where
+     * the clone of each child goes. Ignores reuse, unless overridden.
+     */
+    public TraversalFrame cloneFrameInto (Object source, Object reuse, Class<? extends Projection> projection, CloningContext context)
+    {
+        return cloneFrame(source, projection, context);
+    }
 
     public void copyFromClient (Object serverDestinationObject, Object clientSourceObject, Class<? extends Projection> projection)
     {
         throw new CloningError("Method copyFromClient() not overridden in " + this.getClass().getName());
     }
 
+    /**
+     * Like {@link #copyFromClient(Object, Object, Class)}, but only copies the fields whose values
+     * have changed, as per detection.
+     * @return The names of the fields copied
+     */
+    public Set<String> copyChangedFromClient (Object serverDestinationObject, Object clientSourceObject, Class<? extends Projection> projection, ChangeDetection detection)
+    {
+        throw new CloningError("Method copyChangedFromClient() not overridden in " + this.getClass().getName());
+    }
+
 }
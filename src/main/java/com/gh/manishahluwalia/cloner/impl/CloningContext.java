@@ -0,0 +1,433 @@
+/*
+* Copyright 2014 Manish Ahluwalia
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+package com.gh.manishahluwalia.cloner.impl;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * <p>
+ * The state of one call into {@link RecursiveReflexiveCloner}, handed down to every
+ * {@link Cloner} involved. It tracks, by identity, which objects have been checked
+ * by cloneNeededForGwt() and what each object has been cloned to by deepClone().
+ * </p><p>
+ * Both are kept in a single table, so a check followed by a clone of the same graph
+ * reuses the entries of the check: an object that was checked is simply not cloned yet.
+ * </p><p>
+ * If asked to, the context also records what the getters of each checked
+ * object returned, so that a subsequent clone need not invoke them again. See {@link GwtCopyMode#SINGLE_PASS}.
+ * </p><p>
+ * Finally, it carries the {@link DontCarePolicy} of the call, and whether the call is
+ * a copy for GWT-RPC.
+ * </p><p>
+ * The caller may vouch for the graph being a tree, in which case nothing needs to be tracked,
+ * see {@link RecursiveReflexiveCloner#deepCloneTree(Object, Class)}. The context then remembers nothing.
+ * </p><p>
+ * A context can be reused for call after call, see {@link #acquire(DontCarePolicy, boolean, boolean, boolean)}.
+ * </p><p>
+ * A context may check on behalf of a {@link CloningSession}, whose copies it then takes
+ * into account, see {@link #setSession(CloningContext)}. A context may also copy through a
+ * {@link CloneCache}, whose copies it then reuses and adds to, see {@link #setCache(CloneTable)}.
+ * </p><p>
+ * Contexts are not thread-safe, except for the ones made by {@link #newConcurrent(DontCarePolicy, boolean)}.
+ * </p>
+ */
+final class CloningContext
+{
+    /**
+     * The values read from the getters of a checked object, by the position of the
+     * accessor among its cloning accessors. The check may have stopped early, so
+     * some values may not be known.
+     */
+    static final class RecordedReads
+    {
+        private static final Object NOT_READ = new Object();
+
+        final Object[] values;
+
+        RecordedReads (int size)
+        {
+            values = new Object[size];
+            Arrays.fill(values, NOT_READ);
+        }
+
+        void record (int index, Object value)
+        {
+            values[index] = value;
+        }
+
+        boolean isRead (int index)
+        {
+            return NOT_READ != values[index];
+        }
+    }
+
+    /* Marks an object as checked, with no recorded reads */
+    private static final Object CHECKED = new Object();
+
+    /* The most objects a released context keeps room for, so that one large call
+     * doesn't leave a large table behind for as long as the context is pooled.
+     */
+    private static final int MAX_KEPT_CAPACITY = 1 << 16;
+
+    private DontCarePolicy dontCarePolicy;
+
+    private boolean forGwt;
+
+    private boolean recordingReads;
+
+    private boolean trackingIdentities;
+
+    private boolean inUse;
+
+    /* The context of the session this one checks for, if any */
+    private CloningContext session;
+
+    /* The copies of the cache this one copies through, if any */
+    private CloneTable cache;
+
+    /* Pairs of sources and clones to put in the cache once the call is done */
+    private final ArrayList<Object> uncached = new ArrayList<Object>();
+
+    private final IdentityTable<Object> visited = new IdentityTable<Object>();
+
+    /* The context of the checks of values this one may share, see getSharingChecks() */
+    private CloningContext sharingChecks;
+
+    /* The clones of a concurrent context, in which case visited is not used */
+    private final ConcurrentIdentityTable<Object> concurrentClones;
+
+    /**
+     * @param forGwt true for a copy for GWT-RPC
+     * @param recordingReads true if the getters of checked objects should be recorded
+     * @param trackingIdentities false if the graph is known to be a tree, so that no object
+     *   can be visited twice and there is no need to remember which ones were
+     */
+    CloningContext (DontCarePolicy dontCarePolicy, boolean forGwt, boolean recordingReads, boolean trackingIdentities)
+    {
+        this.dontCarePolicy = dontCarePolicy;
+        this.forGwt = forGwt;
+        this.recordingReads = recordingReads;
+        this.trackingIdentities = trackingIdentities;
+        this.concurrentClones = null;
+    }
+
+    private CloningContext (DontCarePolicy dontCarePolicy, boolean forGwt, ConcurrentIdentityTable<Object> concurrentClones)
+    {
+        this.dontCarePolicy = dontCarePolicy;
+        this.forGwt = forGwt;
+        this.trackingIdentities = true;
+        this.concurrentClones = concurrentClones;
+    }
+
+    /**
+     * @return A context for a check or a deep clone made by several threads at once, see
+     *   {@link ParallelTraversal}. Reads can't be recorded in it. Of several threads marking
+     *   the same object as checked, exactly one is told it was not checked yet, and of several
+     *   clones put for the same object, only the first one is kept.
+     */
+    static CloningContext newConcurrent (DontCarePolicy dontCarePolicy, boolean forGwt)
+    {
+        return new CloningContext(dontCarePolicy, forGwt, new ConcurrentIdentityTable<Object>());
+    }
+
+    /**
+     * Prepares a reusable context for a new call, unless it is already in use by another call.
+     * @return false if the context is in use, and another one must be used instead
+     */
+    boolean acquire (DontCarePolicy dontCarePolicy, boolean forGwt, boolean recordingReads, boolean trackingIdentities)
+    {
+        if (inUse)
+        {
+            return false;
+        }
+        inUse = true;
+        this.dontCarePolicy = dontCarePolicy;
+        this.forGwt = forGwt;
+        this.recordingReads = recordingReads;
+        this.trackingIdentities = trackingIdentities;
+        return true;
+    }
+
+    /**
+     * Forgets everything about the call a context was acquired for, so that it can be acquired again.
+     * The memory of the context is kept, up to a point, and the objects of the call are no longer
+     * referred to. Does nothing to a context that was not acquired, which is simply left to the
+     * garbage collector.
+     */
+    void release ()
+    {
+        if (inUse)
+        {
+            visited.clear(MAX_KEPT_CAPACITY);
+            session = null;
+            cache = null;
+            uncached.clear();
+            sharingChecks = null;
+            inUse = false;
+        }
+    }
+
+    /**
+     * Forgets every object seen so far, keeping the memory, so that the context can be
+     * used for another, unrelated graph of the same call.
+     */
+    void clear ()
+    {
+        visited.clear();
+        forgetSharingChecks();
+    }
+
+    /**
+     * @return The context in which to check whether a value can be shared by the copy made
+     *   with this context, see {@link CloningDisposition#DONT_CARE}. It is the same for every
+     *   value of the copy, so that the objects found to need no copy are not checked again,
+     *   unless the copy is made by several threads at once.
+     */
+    CloningContext getSharingChecks ()
+    {
+        if (null != sharingChecks)
+        {
+            return sharingChecks;
+        }
+        CloningContext checks = new CloningContext(dontCarePolicy, true, false, true);
+        checks.setSession(session);
+        if (null == concurrentClones)
+        {
+            sharingChecks = checks;
+        }
+        return checks;
+    }
+
+    /**
+     * To be called once a check made in {@link #getSharingChecks()} finds a copy is needed.
+     * The objects it had marked as checked were not all found to need no copy, so later checks
+     * must not skip them.
+     */
+    void forgetSharingChecks ()
+    {
+        if (null != sharingChecks)
+        {
+            sharingChecks.clear();
+        }
+    }
+
+    /**
+     * Makes the checks made with this context take into account the copies made by earlier
+     * calls of a session, whose context is given, see {@link #isReplaced(Object)}.
+     */
+    void setSession (CloningContext session)
+    {
+        this.session = session;
+    }
+
+    CloningContext getSession ()
+    {
+        return session;
+    }
+
+    /**
+     * @return true if the checks made with this context are made for a session, or a cache.
+     *   They must then look at every object rather than go by the {@link GwtVerdict} of its
+     *   type, as any object may have been copied by an earlier call, and anything that
+     *   reaches it must then be copied too.
+     */
+    boolean hasSession ()
+    {
+        return null != session;
+    }
+
+    /**
+     * Makes the clones of this context come from, and go to, the given copies of a cache.
+     * The graph must then be traversed iteratively, so that {@link #recordChild(Object, Object)}
+     * is told about every object reached. The clones only go to the cache once done, see
+     * {@link #cacheClones()}.
+     */
+    void setCache (CloneTable cache)
+    {
+        this.cache = cache;
+    }
+
+    /**
+     * @return true if this context, or the session it checks for, copies through a cache
+     */
+    boolean isCaching ()
+    {
+        return null != cache || (null != session && this != session && session.isCaching());
+    }
+
+    /**
+     * Tells the cache of this context, or of the session it checks for, if any, that child
+     * was reached from parent, which is being cloned or checked, so that changes to child also
+     * invalidate the copy of parent, or parent itself if it needed none.
+     */
+    void recordChild (Object parent, Object child)
+    {
+        if (null != cache)
+        {
+            cache.addParent(child, parent);
+        }
+        else if (null != session && this != session)
+        {
+            session.recordChild(parent, child);
+        }
+    }
+
+    /**
+     * Puts the clones made so far in the cache of this context, where other threads may
+     * find them, so they must be done.
+     */
+    void cacheClones ()
+    {
+        for (int i = 0; i < uncached.size(); i += 2)
+        {
+            cache.put(uncached.get(i), uncached.get(i + 1));
+        }
+        uncached.clear();
+    }
+
+    /**
+     * @return true if an earlier call of the session of this context copied the object. Anything
+     *   that reaches it then needs a copy too, so that it refers to that copy rather than to
+     *   the original.
+     */
+    boolean isReplaced (Object object)
+    {
+        if (null == session)
+        {
+            return false;
+        }
+        Object clone = session.getClone(object);
+        return null != clone && clone != object;
+    }
+
+    DontCarePolicy getDontCarePolicy ()
+    {
+        return dontCarePolicy;
+    }
+
+    /**
+     * @return true if this is a copy for GWT-RPC, false if this is a deep clone
+     */
+    boolean isForGwt ()
+    {
+        return forGwt;
+    }
+
+    /**
+     * @return true if the getters of checked objects should be recorded
+     */
+    boolean isRecordingReads ()
+    {
+        return recordingReads;
+    }
+
+    /**
+     * @return false if the graph is known to be a tree, and objects are not remembered
+     */
+    boolean isTrackingIdentities ()
+    {
+        return trackingIdentities;
+    }
+
+    /**
+     * Marks an object as checked.
+     * @return false if the object was already checked or cloned
+     */
+    boolean markChecked (Object object)
+    {
+        return markChecked(object, CHECKED);
+    }
+
+    /**
+     * Like {@link #markChecked(Object)}, also keeping the reads that are about to
+     * be made from the object's getters, if reads is not null.
+     */
+    boolean markChecked (Object object, RecordedReads reads)
+    {
+        return markChecked(object, null == reads ? CHECKED : reads);
+    }
+
+    private boolean markChecked (Object object, Object mark)
+    {
+        if (!trackingIdentities)
+        {
+            return true;
+        }
+        if (null != concurrentClones)
+        {
+            return null == concurrentClones.putIfAbsent(object, mark);
+        }
+        return null == visited.putIfAbsent(object, mark);
+    }
+
+    /**
+     * @return The reads recorded while checking source, or null if there are none
+     */
+    RecordedReads getRecordedReads (Object source)
+    {
+        Object value = visited.get(source);
+        if (value instanceof RecordedReads)
+        {
+            return (RecordedReads)value;
+        }
+        return null;
+    }
+
+    /**
+     * @return The clone made of source, or null if it has not been cloned yet
+     */
+    Object getClone (Object source)
+    {
+        if (!trackingIdentities)
+        {
+            return null;
+        }
+        if (null != concurrentClones)
+        {
+            return concurrentClones.get(source);
+        }
+        Object value = visited.get(source);
+        if (CHECKED == value || value instanceof RecordedReads)
+        {
+            return null;
+        }
+        if (null == value && null != cache)
+        {
+            return cache.get(source);
+        }
+        return value;
+    }
+
+    void putClone (Object source, Object clone)
+    {
+        if (!trackingIdentities)
+        {
+            return;
+        }
+        if (null != concurrentClones)
+        {
+            concurrentClones.putIfAbsent(source, clone);
+            return;
+        }
+        visited.put(source, clone);
+        if (null != cache)
+        {
+            uncached.add(source);
+            uncached.add(clone);
+        }
+    }
+}
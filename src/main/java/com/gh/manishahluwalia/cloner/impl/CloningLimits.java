@@ -0,0 +1,89 @@
+/*
+* Copyright 2014 Manish Ahluwalia
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+package com.gh.manishahluwalia.cloner.impl;
+
+/**
+ * <p>
+ * Bounds on how much of a graph a single clone copies, so that a runaway association can't
+ * make it copy far more than expected. See
+ * {@link RecursiveReflexiveCloner#deepCloneBounded(Object, Class, CloningLimits, java.util.Collection)}.
+ * </p><p>
+ * An object is within bounds if it is at most {@link #getMaxDepth()} references away from
+ * the root along the path the clone reaches it by, if fewer than {@link #getMaxObjects()}
+ * objects have been cloned before it, and, for a collection or an array, if it holds at most
+ * {@link #getMaxCollectionSize()} elements. Objects that are shared rather than cloned, such as
+ * strings, are not counted. Objects out of bounds are dealt with as per {@link #getPolicy()}.
+ * </p><p>
+ * Immutable.
+ * </p>
+ */
+public final class CloningLimits
+{
+    /**
+     * For a limit that is not to be enforced
+     */
+    public static final int UNLIMITED = Integer.MAX_VALUE;
+
+    private final int maxDepth;
+
+    private final int maxObjects;
+
+    private final int maxCollectionSize;
+
+    private final LimitPolicy policy;
+
+    /**
+     * @param maxDepth How many references away from the root objects may be, 0 for the root only
+     * @param maxObjects How many objects may be cloned, at least 1
+     * @param maxCollectionSize How many elements collections and arrays may hold
+     * @param policy What to do with objects out of bounds
+     */
+    public CloningLimits (int maxDepth, int maxObjects, int maxCollectionSize, LimitPolicy policy)
+    {
+        if (maxDepth < 0 || maxObjects < 1 || maxCollectionSize < 0)
+        {
+            throw new IllegalArgumentException("Invalid limits: depth " + maxDepth + ", objects " + maxObjects + ", collection size " + maxCollectionSize);
+        }
+        if (null == policy)
+        {
+            throw new NullPointerException("policy cannot be null");
+        }
+        this.maxDepth = maxDepth;
+        this.maxObjects = maxObjects;
+        this.maxCollectionSize = maxCollectionSize;
+        this.policy = policy;
+    }
+
+    public int getMaxDepth ()
+    {
+        return maxDepth;
+    }
+
+    public int getMaxObjects ()
+    {
+        return maxObjects;
+    }
+
+    public int getMaxCollectionSize ()
+    {
+        return maxCollectionSize;
+    }
+
+    public LimitPolicy getPolicy ()
+    {
+        return policy;
+    }
+}
@@ -0,0 +1,162 @@
+/*
+* Copyright 2014 Manish Ahluwalia
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+package com.gh.manishahluwalia.cloner.impl;
+
+import java.io.Closeable;
+import java.util.HashMap;
+
+import com.gh.manishahluwalia.cloner.annotations.Projection;
+
+/**
+ * <p>
+ * A series of calls into a {@link RecursiveReflexiveCloner} that preserve identities
+ * across one another: an object reached by several calls of a session is cloned only by
+ * the first of them, and the later ones refer to that same clone. Cloning the same object
+ * again is then a mere lookup. See {@link RecursiveReflexiveCloner#openSession()}.
+ * </p><p>
+ * Deep clones and copies for GWT-RPC are tracked separately, and so are the projections,
+ * since each of them makes different clones of the same objects. The objects given to a
+ * session must not be modified while it is open, or the clones handed out by later calls
+ * may no longer be faithful.
+ * </p><p>
+ * A session remembers every object it has seen until it is {@link #reset()} or closed.
+ * Not thread-safe.
+ * </p>
+ */
+public final class CloningSession implements Closeable
+{
+    private final RecursiveReflexiveCloner cloner;
+
+    private final DontCarePolicy dontCarePolicy;
+
+    /* The contexts of the calls made so far, by projection */
+    private final HashMap<Class<? extends Projection>, CloningContext> cloneContexts = new HashMap<Class<? extends Projection>, CloningContext>();
+
+    private final HashMap<Class<? extends Projection>, CloningContext> copyContexts = new HashMap<Class<? extends Projection>, CloningContext>();
+
+    private boolean closed;
+
+    CloningSession (RecursiveReflexiveCloner cloner, DontCarePolicy dontCarePolicy)
+    {
+        this.cloner = cloner;
+        this.dontCarePolicy = dontCarePolicy;
+    }
+
+    /**
+     * Like {@link #deepClone(Object, Class)}, with a null projection.
+     */
+    public <T> T deepClone (T source)
+    {
+        return deepClone(source, null);
+    }
+
+    /**
+     * Like {@link RecursiveReflexiveCloner#deepClone(Object, Class)}, except that objects
+     * cloned by an earlier call of this session with the same projection are not cloned
+     * again: their earlier clones are used instead.
+     * @throws IllegalStateException The session is closed
+     */
+    public <T> T deepClone (T source, Class<? extends Projection> projection)
+    {
+        CloningContext context = getContext(cloneContexts, projection, false);
+        if (null == source)
+        {
+            return null;
+        }
+        @SuppressWarnings("unchecked")
+        T clone = (T)cloner.deepClone(source, projection, context);
+        return clone;
+    }
+
+    /**
+     * Like {@link #copyForGwtRpcIfNeeded(Object, Class)}, with a null projection.
+     */
+    public <T> T copyForGwtRpcIfNeeded (T source)
+    {
+        return copyForGwtRpcIfNeeded(source, null);
+    }
+
+    /**
+     * <p>
+     * Like {@link RecursiveReflexiveCloner#copyForGwtRpcIfNeeded(Object, Class)}, except that
+     * objects copied by an earlier call of this session with the same projection are not copied
+     * again: their earlier copies are used instead. An object that refers to such a copied
+     * object therefore needs a copy too, even if it needed none on its own.
+     * </p><p>
+     * Copies are never partial, and checks are made as in {@link GwtCopyMode#CHECK_THEN_CLONE},
+     * unless the cloner checks in parallel.
+     * </p>
+     * @throws IllegalStateException The session is closed
+     */
+    public <T> T copyForGwtRpcIfNeeded (T source, Class<? extends Projection> projection)
+    {
+        CloningContext context = getContext(copyContexts, projection, true);
+        if (null == source)
+        {
+            return null;
+        }
+        @SuppressWarnings("unchecked")
+        T copy = (T)cloner.copyForGwtRpcIfNeeded(source, projection, context);
+        return copy;
+    }
+
+    /**
+     * Forgets every object seen so far, so that the next calls clone everything anew.
+     * @throws IllegalStateException The session is closed
+     */
+    public void reset ()
+    {
+        checkOpen();
+        cloneContexts.clear();
+        copyContexts.clear();
+    }
+
+    /**
+     * Forgets every object seen so far. The session can't be used any more. Closing
+     * a closed session does nothing.
+     */
+    public void close ()
+    {
+        closed = true;
+        cloneContexts.clear();
+        copyContexts.clear();
+    }
+
+    private CloningContext getContext (HashMap<Class<? extends Projection>, CloningContext> contexts, Class<? extends Projection> projection, boolean forGwt)
+    {
+        checkOpen();
+        CloningContext context = contexts.get(projection);
+        if (null == context)
+        {
+            context = new CloningContext(dontCarePolicy, forGwt, false, true);
+            if (forGwt)
+            {
+                /* So that a copy does not share with its original an object copied by an earlier call */
+                context.setSession(context);
+            }
+            contexts.put(projection, context);
+        }
+        return context;
+    }
+
+    private void checkOpen ()
+    {
+        if (closed)
+        {
+            throw new IllegalStateException("The session is closed");
+        }
+    }
+}
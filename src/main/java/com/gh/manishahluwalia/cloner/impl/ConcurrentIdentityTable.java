@@ -0,0 +1,74 @@
+/*
+* Copyright 2014 Manish Ahluwalia
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+package com.gh.manishahluwalia.cloner.impl;
+
+/**
+ * <p>
+ * A thread-safe {@link IdentityTable}, for cloning with several threads at once.
+ * </p><p>
+ * Keys are spread over a fixed number of stripes by the low bits of
+ * {@link System#identityHashCode(Object)}, and each stripe is an {@link IdentityTable}
+ * guarded by its own lock, so threads only contend when they hit the same stripe.
+ * The low bits are used because the tables of the stripes pick slots by the high bits.
+ * </p>
+ */
+final class ConcurrentIdentityTable<V>
+{
+    /* Must be a power of 2 */
+    private static final int STRIPES = 64;
+
+    private final Object[] stripes = new Object[STRIPES];
+
+    ConcurrentIdentityTable ()
+    {
+        for (int i = 0; i < STRIPES; i++)
+        {
+            stripes[i] = new IdentityTable<V>();
+        }
+    }
+
+    /**
+     * @return The value key is mapped to, or null if it isn't mapped
+     */
+    V get (Object key)
+    {
+        IdentityTable<V> stripe = stripe(key);
+        synchronized (stripe)
+        {
+            return stripe.get(key);
+        }
+    }
+
+    /**
+     * Maps key to value, unless it is already mapped. Of several threads mapping
+     * the same key at once, exactly one succeeds.
+     * @return The value key was already mapped to, or null if it is now mapped to value
+     */
+    V putIfAbsent (Object key, V value)
+    {
+        IdentityTable<V> stripe = stripe(key);
+        synchronized (stripe)
+        {
+            return stripe.putIfAbsent(key, value);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private IdentityTable<V> stripe (Object key)
+    {
+        return (IdentityTable<V>)stripes[System.identityHashCode(key) & (STRIPES - 1)];
+    }
+}
@@ -0,0 +1,181 @@
+/*
+* Copyright 2014 Manish Ahluwalia
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+package com.gh.manishahluwalia.cloner.impl;
+
+import java.lang.reflect.Array;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * One run of {@link RecursiveReflexiveCloner#applyDelta(Object, GraphDelta)}. Finds all the
+ * objects the edits designate first, and only then makes the edits, so that the paths are
+ * all followed through the graph as it was when the delta was computed.
+ */
+final class DeltaApplication
+{
+    private final RecursiveReflexiveCloner cloner;
+    private final Object previous;
+    private final GraphDelta delta;
+    /* Path -> the object there, and snapshots of the lists and key indexes of the sets on the way */
+    private final IdentityTable<Object> resolved = new IdentityTable<Object>();
+    private final IdentityTable<List<Object>> lists = new IdentityTable<List<Object>>();
+    private final IdentityTable<HashMap<Object, Object>> sets = new IdentityTable<HashMap<Object, Object>>();
+
+    DeltaApplication (RecursiveReflexiveCloner cloner, Object previous, GraphDelta delta)
+    {
+        this.cloner = cloner;
+        this.previous = previous;
+        this.delta = delta;
+    }
+
+    @SuppressWarnings("unchecked")
+    void apply ()
+    {
+        List<GraphDelta.Edit> edits = delta.getEdits();
+        Object[] targets = new Object[edits.size()];
+        Object[][] values = new Object[edits.size()][];
+        Object[][] removed = new Object[edits.size()][];
+        for (int e = 0; e < targets.length; e++)
+        {
+            GraphDelta.Edit edit = edits.get(e);
+            targets[e] = resolve(edit.target);
+            values[e] = new Object[edit.values.length];
+            for (int i = 0; i < values[e].length; i++)
+            {
+                Object value = edit.values[i];
+                values[e][i] = value instanceof GraphDelta.Ref ? resolve(((GraphDelta.Ref)value).path) : value;
+            }
+            if (GraphDelta.Kind.SET == edit.kind)
+            {
+                removed[e] = new Object[edit.removedKeys.length];
+                for (int i = 0; i < removed[e].length; i++)
+                {
+                    removed[e][i] = getSetIndex((Set<Object>)targets[e]).get(edit.removedKeys[i]);
+                }
+            }
+        }
+
+        for (int e = 0; e < targets.length; e++)
+        {
+            GraphDelta.Edit edit = edits.get(e);
+            Object target = targets[e];
+            try
+            {
+                switch (edit.kind)
+                {
+                    case FIELD:
+                        cloner.getCloningAccessor(target.getClass(), edit.field).set(target, values[e][0]);
+                        break;
+                    case ELEMENT:
+                        if (target instanceof List)
+                        {
+                            ((List<Object>)target).set(edit.index, values[e][0]);
+                        }
+                        else
+                        {
+                            Array.set(target, edit.index, values[e][0]);
+                        }
+                        break;
+                    case SPLICE:
+                        List<Object> list = (List<Object>)target;
+                        list.subList(edit.index, edit.index + edit.count).clear();
+                        list.addAll(edit.index, Arrays.asList(values[e]));
+                        break;
+                    default:
+                        Set<Object> set = (Set<Object>)target;
+                        for (Object element : removed[e])
+                        {
+                            set.remove(element);
+                        }
+                        set.addAll(Arrays.asList(values[e]));
+                        break;
+                }
+            }
+            catch (CloningError x)
+            {
+                throw x;
+            }
+            catch (Exception x)
+            {
+                throw new CloningError("Can't apply " + edit, x);
+            }
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private Object resolve (GraphDelta.Path path)
+    {
+        if (null == path.parent)
+        {
+            return -1 == path.root ? previous : delta.getRoot(path.root);
+        }
+        Object object = resolved.get(path);
+        if (null != object)
+        {
+            return object;
+        }
+        Object parent = resolve(path.parent);
+        if (null == parent)
+        {
+            throw new CloningError("Nothing at " + path.parent + " to apply the delta to");
+        }
+        if (null != path.field)
+        {
+            object = cloner.getCloningAccessor(parent.getClass(), path.field).get(parent);
+        }
+        else if (path.isKey())
+        {
+            object = getSetIndex((Set<Object>)parent).get(path.key);
+        }
+        else if (parent instanceof List)
+        {
+            List<Object> list = lists.get(parent);
+            if (null == list)
+            {
+                list = new ArrayList<Object>((List<Object>)parent);
+                lists.put(parent, list);
+            }
+            object = list.get(path.index);
+        }
+        else
+        {
+            object = Array.get(parent, path.index);
+        }
+        if (null != object)
+        {
+            resolved.put(path, object);
+        }
+        return object;
+    }
+
+    private HashMap<Object, Object> getSetIndex (Set<Object> set)
+    {
+        HashMap<Object, Object> index = sets.get(set);
+        if (null == index)
+        {
+            index = new HashMap<Object, Object>();
+            for (Object element : set)
+            {
+                index.put(cloner.getMergeKey(element), element);
+            }
+            sets.put(set, index);
+        }
+        return index;
+    }
+}
@@ -0,0 +1,549 @@
+/*
+* Copyright 2014 Manish Ahluwalia
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+package com.gh.manishahluwalia.cloner.impl;
+
+import java.lang.reflect.Array;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.ListIterator;
+import java.util.Set;
+
+import com.gh.manishahluwalia.cloner.annotations.MergeKey;
+import com.gh.manishahluwalia.cloner.annotations.Projection;
+import com.gh.manishahluwalia.cloner.impl.RecursiveReflexiveCloner.FieldAccessorClonerWrapper;
+
+/**
+ * <p>
+ * One run of {@link RecursiveReflexiveCloner#computeDelta(Object, Object, Class)}. Walks the
+ * earlier clone and the current graph in parallel, pairing up the objects of the graph with
+ * their clones, and keeping the pairs still to be compared on a work list rather than
+ * recursing. A current object is paired with the object in the same place in the earlier
+ * clone if it is of the same class and, if that class has a {@link MergeKey} field, has the
+ * same key. Elements of collections are paired by key, as by {@link ClientMerge}.
+ * </p><p>
+ * The objects that are not paired are only cloned once the walk is done, into a context that
+ * maps the paired objects to their clones, so that the new clones refer to the objects of the
+ * earlier clone wherever the current graph refers to their originals. Those references are
+ * then cut and turned into edits, so that the delta holds no object of the earlier clone.
+ * </p><p>
+ * Not thread-safe, and used once only.
+ * </p>
+ */
+final class DeltaComputation
+{
+    /* What compare() returns for a value that has not changed */
+    private static final Object UNCHANGED = new Object();
+
+    private final RecursiveReflexiveCloner cloner;
+    private final Class<? extends Projection> projection;
+    private final DontCarePolicy dontCarePolicy;
+    /* Maps the current objects paired to their clones, and then clones the others */
+    private final CloningContext context;
+    /* Current object -> its clone in the earlier clone, and back */
+    private final IdentityTable<Object> counterparts = new IdentityTable<Object>();
+    private final IdentityTable<Object> originals = new IdentityTable<Object>();
+    /* Object of the earlier clone -> the path it was first reached by */
+    private final IdentityTable<GraphDelta.Path> paths = new IdentityTable<GraphDelta.Path>();
+    /* Collection of the earlier clone -> the current collection compared with it */
+    private final IdentityTable<Object> compared = new IdentityTable<Object>();
+    /* Triples of earlier object, current object and path still to be compared */
+    private final ArrayList<Object> pending = new ArrayList<Object>();
+    private final List<GraphDelta.Edit> edits = new ArrayList<GraphDelta.Edit>();
+    private final List<Object> roots = new ArrayList<Object>();
+
+    DeltaComputation (RecursiveReflexiveCloner cloner, Class<? extends Projection> projection, DontCarePolicy dontCarePolicy)
+    {
+        this.cloner = cloner;
+        this.projection = projection;
+        this.dontCarePolicy = dontCarePolicy;
+        this.context = new CloningContext(dontCarePolicy, false, false, true);
+    }
+
+    GraphDelta compute (Object previous, Object current)
+    {
+        pair(previous, current, GraphDelta.Path.ROOT);
+        while (!pending.isEmpty())
+        {
+            GraphDelta.Path path = (GraphDelta.Path)pending.remove(pending.size() - 1);
+            current = pending.remove(pending.size() - 1);
+            previous = pending.remove(pending.size() - 1);
+            ClonePlan plan = cloner.getPlan(current.getClass(), projection);
+            int count = plan.getClonedCount(dontCarePolicy);
+            for (int i = 0; i < count; i++)
+            {
+                FieldAccessorClonerWrapper accessor = plan.cloned[i];
+                try
+                {
+                    Object value = compare(accessor.get(previous), accessor.get(current), path.field(accessor.getName()));
+                    if (UNCHANGED != value)
+                    {
+                        edits.add(new GraphDelta.Edit(GraphDelta.Kind.FIELD, path, accessor.getName(), -1, 0, new Object[] { value }, null));
+                    }
+                }
+                catch (CloningError e)
+                {
+                    throw e;
+                }
+                catch (Exception e)
+                {
+                    throw new CloningError("Can't compare " + accessor.getName() + " of " + current.getClass().getName(), e);
+                }
+            }
+        }
+        cloneNewValues();
+        return new GraphDelta(edits, roots);
+    }
+
+    /**
+     * @return false if previous was already paired with another object
+     */
+    private boolean pair (Object previous, Object current, GraphDelta.Path path)
+    {
+        if (null != originals.putIfAbsent(previous, current))
+        {
+            return false;
+        }
+        counterparts.put(current, previous);
+        context.putClone(current, previous);
+        if (null == paths.get(previous))
+        {
+            paths.put(previous, path);
+        }
+        pending.add(previous);
+        pending.add(current);
+        pending.add(path);
+        return true;
+    }
+
+    /**
+     * @return {@link #UNCHANGED} if the earlier clone's value, old, stands for value, the
+     *   current one, else what the earlier clone is to hold instead: a {@link GraphDelta.Ref},
+     *   or a current object, to be cloned once the walk is done
+     */
+    @SuppressWarnings("unchecked")
+    private Object compare (Object old, Object value, GraphDelta.Path path)
+    {
+        if (null == value)
+        {
+            return null == old ? UNCHANGED : null;
+        }
+        Object counterpart = counterparts.get(value);
+        if (null != counterpart)
+        {
+            return counterpart == old ? UNCHANGED : new GraphDelta.Ref(paths.get(counterpart));
+        }
+        Class<?> clazz = value.getClass();
+        if (cloner.typeIsImmutable(clazz) || Date.class == clazz)
+        {
+            return value.equals(old) ? UNCHANGED : value;
+        }
+        if (null == old)
+        {
+            return value;
+        }
+        if (value instanceof Set && old instanceof Set)
+        {
+            return compareSet((Set<Object>)old, (Set<Object>)value, path) ? UNCHANGED : value;
+        }
+        if (value instanceof List && old instanceof List)
+        {
+            return compareList((List<Object>)old, (List<Object>)value, path) ? UNCHANGED : value;
+        }
+        if (old.getClass() != clazz)
+        {
+            return value;
+        }
+        if (clazz.isArray())
+        {
+            return arrayEquals(old, value) ? UNCHANGED : value;
+        }
+        if (cloner.typeIsRecursivelyCloned(clazz) && isSameKey(old, value) && pair(old, value, path))
+        {
+            return UNCHANGED;
+        }
+        return value;
+    }
+
+    private boolean isSameKey (Object old, Object value)
+    {
+        if (null == cloner.getKeyAccessor(value.getClass()))
+        {
+            return true;
+        }
+        Object key = cloner.getMergeKey(value);
+        return null != key && key.equals(cloner.getMergeKey(old));
+    }
+
+    /**
+     * Arrays of anything but immutable values are not looked into, and are cloned anew if
+     * their elements are not the very same.
+     */
+    private boolean arrayEquals (Object old, Object value)
+    {
+        int length = Array.getLength(value);
+        if (Array.getLength(old) != length)
+        {
+            return false;
+        }
+        for (int i = 0; i < length; i++)
+        {
+            Object a = Array.get(old, i);
+            Object b = Array.get(value, i);
+            if (a == b)
+            {
+                continue;
+            }
+            if (null == a || null == b || !(cloner.typeIsImmutable(b.getClass()) || Date.class == b.getClass()) || !b.equals(a))
+            {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Adds the edit that turns old into value, if any, trimming the elements that are the
+     * same at either end.
+     * @return false if it can't be done, because two elements of old have the same key, or
+     *   because old was compared with another list already
+     */
+    private boolean compareList (List<Object> old, List<Object> value, GraphDelta.Path path)
+    {
+        ArrayList<Object> before = new ArrayList<Object>(old);
+        HashMap<Object, Integer> byKey = new HashMap<Object, Integer>();
+        for (int j = 0; j < before.size(); j++)
+        {
+            Object key = cloner.getMergeKey(before.get(j));
+            if (null != key && null != byKey.put(key, j))
+            {
+                return false;
+            }
+        }
+        Object comparedWith = compared.putIfAbsent(old, value);
+        if (null != comparedWith)
+        {
+            return comparedWith == value;
+        }
+
+        /* Where in before each element of value is, or -1 */
+        int[] sources = new int[value.size()];
+        Object[] after = new Object[value.size()];
+        int i = 0;
+        for (Object element : value)
+        {
+            int source = -1;
+            Object counterpart = null == element ? null : counterparts.get(element);
+            Object at = i < before.size() ? before.get(i) : null;
+            if (null == element || null != counterpart)
+            {
+                if (counterpart == at && i < before.size())
+                {
+                    source = i;
+                }
+                else if (null != counterpart)
+                {
+                    after[i] = new GraphDelta.Ref(paths.get(counterpart));
+                }
+            }
+            else
+            {
+                Object key = cloner.getMergeKey(element);
+                if (null != key)
+                {
+                    Integer j = byKey.remove(key);
+                    if (null != j && isSameElement(before.get(j), element, path.index(j)))
+                    {
+                        source = j;
+                    }
+                }
+                else if (null != at && null == cloner.getMergeKey(at) && isSameElement(at, element, path.index(i)))
+                {
+                    source = i;
+                }
+                if (-1 == source)
+                {
+                    after[i] = element;
+                }
+            }
+            sources[i] = source;
+            i++;
+        }
+
+        int prefix = 0;
+        int shortest = Math.min(before.size(), after.length);
+        while (prefix < shortest && prefix == sources[prefix])
+        {
+            prefix++;
+        }
+        if (prefix == before.size() && prefix == after.length)
+        {
+            return true;
+        }
+        int suffix = 0;
+        while (suffix < shortest - prefix && before.size() - 1 - suffix == sources[after.length - 1 - suffix])
+        {
+            suffix++;
+        }
+        Object[] values = new Object[after.length - prefix - suffix];
+        for (int k = 0; k < values.length; k++)
+        {
+            int source = sources[prefix + k];
+            values[k] = -1 == source ? after[prefix + k] : new GraphDelta.Ref(path.index(source));
+        }
+        edits.add(new GraphDelta.Edit(GraphDelta.Kind.SPLICE, path, null, prefix, before.size() - prefix - suffix, values, null));
+        return true;
+    }
+
+    /**
+     * @return true if current, an element with the same key as old, stands for old
+     */
+    private boolean isSameElement (Object old, Object current, GraphDelta.Path path)
+    {
+        if (old.getClass() != current.getClass())
+        {
+            return false;
+        }
+        return cloner.typeIsImmutable(current.getClass()) || pair(old, current, path);
+    }
+
+    /**
+     * Adds the edit that turns old into value, if any.
+     * @return false if it can't be done, because an element of either set has no key, or
+     *   shares its key with another element of the same set, or because old was compared with
+     *   another set already
+     */
+    private boolean compareSet (Set<Object> old, Set<Object> value, GraphDelta.Path path)
+    {
+        HashMap<Object, Object> byKey = new HashMap<Object, Object>();
+        for (Object element : old)
+        {
+            Object key = cloner.getMergeKey(element);
+            if ((null == key && null != element) || byKey.containsKey(key))
+            {
+                return false;
+            }
+            byKey.put(key, element);
+        }
+        HashSet<Object> keys = new HashSet<Object>();
+        for (Object element : value)
+        {
+            Object key = cloner.getMergeKey(element);
+            if ((null == key && null != element) || !keys.add(key))
+            {
+                return false;
+            }
+        }
+        Object comparedWith = compared.putIfAbsent(old, value);
+        if (null != comparedWith)
+        {
+            return comparedWith == value;
+        }
+
+        List<Object> added = new ArrayList<Object>();
+        HashMap<Object, Object> removed = byKey;
+        for (Object element : value)
+        {
+            Object key = cloner.getMergeKey(element);
+            boolean present = removed.containsKey(key);
+            Object match = removed.remove(key);
+            Object counterpart = null == element ? null : counterparts.get(element);
+            if (present && (null == element || match == counterpart || (null == counterpart && isSameElement(match, element, path.key(key)))))
+            {
+                continue;
+            }
+            if (present)
+            {
+                removed.put(key, match);
+            }
+            added.add(null == counterpart ? element : new GraphDelta.Ref(paths.get(counterpart)));
+        }
+        if (!added.isEmpty() || !removed.isEmpty())
+        {
+            edits.add(new GraphDelta.Edit(GraphDelta.Kind.SET, path, null, -1, 0, added.toArray(), removed.keySet().toArray()));
+        }
+        return true;
+    }
+
+    /**
+     * Replaces the current objects in the edits with their clones, and cuts the references
+     * of those to the earlier clone.
+     */
+    private void cloneNewValues ()
+    {
+        int count = edits.size();
+        IdentityTable<Object> visited = new IdentityTable<Object>();
+        for (int e = 0; e < count; e++)
+        {
+            Object[] values = edits.get(e).values;
+            for (int i = 0; i < values.length; i++)
+            {
+                Object value = values[i];
+                if (null == value || value instanceof GraphDelta.Ref)
+                {
+                    continue;
+                }
+                value = cloner.deepClone(value, projection, context);
+                GraphDelta.Path path = paths.get(value);
+                if (null != path)
+                {
+                    /* Paired after this edit was made */
+                    values[i] = new GraphDelta.Ref(path);
+                    continue;
+                }
+                values[i] = value;
+                if (null == visited.putIfAbsent(value, value))
+                {
+                    cutReferences(value, visited);
+                }
+            }
+        }
+    }
+
+    /**
+     * Walks a new clone, replacing its references to objects of the earlier clone by edits
+     * that make them.
+     */
+    @SuppressWarnings("unchecked")
+    private void cutReferences (Object root, IdentityTable<Object> visited)
+    {
+        int rootIndex = roots.size();
+        int edited = edits.size();
+        ArrayList<Object> walk = new ArrayList<Object>();
+        walk.add(root);
+        walk.add(GraphDelta.Path.root(rootIndex));
+        while (!walk.isEmpty())
+        {
+            GraphDelta.Path path = (GraphDelta.Path)walk.remove(walk.size() - 1);
+            Object object = walk.remove(walk.size() - 1);
+            Class<?> clazz = object.getClass();
+            if (cloner.typeIsRecursivelyCloned(clazz))
+            {
+                ClonePlan plan = cloner.getPlan(clazz, projection);
+                int count = plan.getClonedCount(dontCarePolicy);
+                for (int i = 0; i < count; i++)
+                {
+                    FieldAccessorClonerWrapper accessor = plan.cloned[i];
+                    Object value = accessor.get(object);
+                    GraphDelta.Path target = null == value ? null : paths.get(value);
+                    if (null != target)
+                    {
+                        accessor.set(object, null);
+                        link(GraphDelta.Kind.FIELD, path, accessor.getName(), -1, target);
+                    }
+                    else
+                    {
+                        visit(value, null == path ? null : path.field(accessor.getName()), visited, walk);
+                    }
+                }
+            }
+            else if (object instanceof List)
+            {
+                ListIterator<Object> i = ((List<Object>)object).listIterator();
+                while (i.hasNext())
+                {
+                    int index = i.nextIndex();
+                    Object element = i.next();
+                    GraphDelta.Path target = null == element ? null : paths.get(element);
+                    if (null != target)
+                    {
+                        i.set(null);
+                        link(GraphDelta.Kind.ELEMENT, path, null, index, target);
+                    }
+                    else
+                    {
+                        visit(element, null == path ? null : path.index(index), visited, walk);
+                    }
+                }
+            }
+            else if (object instanceof Set)
+            {
+                List<Object> refs = new ArrayList<Object>();
+                for (Iterator<Object> i = ((Set<Object>)object).iterator(); i.hasNext();)
+                {
+                    Object element = i.next();
+                    GraphDelta.Path target = null == element ? null : paths.get(element);
+                    if (null != target)
+                    {
+                        i.remove();
+                        refs.add(new GraphDelta.Ref(target));
+                    }
+                    else
+                    {
+                        Object key = cloner.getMergeKey(element);
+                        visit(element, null == path || null == key ? null : path.key(key), visited, walk);
+                    }
+                }
+                if (!refs.isEmpty())
+                {
+                    checkPath(path);
+                    edits.add(new GraphDelta.Edit(GraphDelta.Kind.SET, path, null, -1, 0, refs.toArray(), new Object[0]));
+                }
+            }
+            else if (clazz.isArray() && !clazz.getComponentType().isPrimitive())
+            {
+                for (int i = 0; i < Array.getLength(object); i++)
+                {
+                    Object element = Array.get(object, i);
+                    GraphDelta.Path target = null == element ? null : paths.get(element);
+                    if (null != target)
+                    {
+                        Array.set(object, i, null);
+                        link(GraphDelta.Kind.ELEMENT, path, null, i, target);
+                    }
+                    else
+                    {
+                        visit(element, null == path ? null : path.index(i), visited, walk);
+                    }
+                }
+            }
+        }
+        if (edits.size() > edited)
+        {
+            roots.add(root);
+        }
+    }
+
+    private void link (GraphDelta.Kind kind, GraphDelta.Path path, String field, int index, GraphDelta.Path target)
+    {
+        checkPath(path);
+        edits.add(new GraphDelta.Edit(kind, path, field, index, 0, new Object[] { new GraphDelta.Ref(target) }, null));
+    }
+
+    /**
+     * @throws CloningError path is null, i.e. the object is in a set, but has no key
+     */
+    private void checkPath (GraphDelta.Path path)
+    {
+        if (null == path)
+        {
+            throw new CloningError("An object without a key in a set refers to an object already sent, so the delta can't designate it");
+        }
+    }
+
+    private void visit (Object object, GraphDelta.Path path, IdentityTable<Object> visited, ArrayList<Object> walk)
+    {
+        if (null == object || cloner.typeIsImmutable(object.getClass()) || null != visited.putIfAbsent(object, object))
+        {
+            return;
+        }
+        walk.add(object);
+        walk.add(path);
+    }
+}
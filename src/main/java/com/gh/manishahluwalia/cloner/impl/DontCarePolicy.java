@@ -0,0 +1,47 @@
+/*
+* Copyright 2014 Manish Ahluwalia
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+package com.gh.manishahluwalia.cloner.impl;
+
+import com.gh.manishahluwalia.cloner.annotations.Clone;
+import com.gh.manishahluwalia.cloner.annotations.Projection;
+
+/**
+ * What a clone made by {@link RecursiveReflexiveCloner} holds in a field whose
+ * disposition for the projection used is {@link CloningDisposition#DONT_CARE}, i.e. a
+ * field that is neither cloned nor left out by the annotations. See
+ * {@link RecursiveReflexiveCloner#setDontCarePolicy(DontCarePolicy)}.
+ */
+public enum DontCarePolicy
+{
+    /**
+     * The clone refers to the very same value as the original. The cheapest policy, but the
+     * clone is then not independent of the original graph, so it is best suited to read-only
+     * use on the server. A copy for GWT only shares values that need no copy themselves, and
+     * copies the others.
+     */
+    SHARE,
+
+    /**
+     * The field is left at its default value in the clone. Makes for the smallest GWT payloads.
+     */
+    DROP,
+
+    /**
+     * The value is deep cloned, as if the field was annotated with {@link Clone} for
+     * the {@link Projection} used.
+     */
+    COPY;
+}
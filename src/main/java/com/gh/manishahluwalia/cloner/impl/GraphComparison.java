@@ -0,0 +1,285 @@
+/*
+* Copyright 2014 Manish Ahluwalia
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+package com.gh.manishahluwalia.cloner.impl;
+
+import java.lang.reflect.Array;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Set;
+
+import com.gh.manishahluwalia.cloner.annotations.Projection;
+import com.gh.manishahluwalia.cloner.impl.RecursiveReflexiveCloner.FieldAccessorClonerWrapper;
+
+/**
+ * <p>
+ * One run of {@link RecursiveReflexiveCloner#deepEquals(Object, Object, Class)}. Walks both
+ * graphs in parallel, keeping the pairs still to be compared on a work list rather than
+ * recursing, and stops at the first difference.
+ * </p><p>
+ * Every object of one graph is paired with at most one object of the other, and the other
+ * way round, so cycles are compared once, and graphs that share objects differently differ.
+ * </p><p>
+ * Not thread-safe, and used once only.
+ * </p>
+ */
+final class GraphComparison
+{
+    private final RecursiveReflexiveCloner cloner;
+    private final IdentityTable<Object> forward = new IdentityTable<Object>();
+    private final IdentityTable<Object> backward = new IdentityTable<Object>();
+    /* Pairs of objects still to be compared */
+    private final ArrayList<Object> pending = new ArrayList<Object>();
+    private final PlanCache plans;
+    /* For the local hashes of set elements without keys */
+    private final GraphHash hashes;
+
+    GraphComparison (RecursiveReflexiveCloner cloner, Class<? extends Projection> projection)
+    {
+        this.cloner = cloner;
+        this.plans = new PlanCache(cloner, projection);
+        this.hashes = new GraphHash(cloner, projection);
+    }
+
+    @SuppressWarnings("unchecked")
+    boolean compare (Object a, Object b)
+    {
+        if (!same(a, b))
+        {
+            return false;
+        }
+        while (!pending.isEmpty())
+        {
+            b = pending.remove(pending.size() - 1);
+            a = pending.remove(pending.size() - 1);
+            boolean same;
+            try
+            {
+                if (a instanceof Set)
+                {
+                    same = sameElements((Set<Object>)a, (Set<Object>)b);
+                }
+                else if (a instanceof Collection)
+                {
+                    same = sameElements((Collection<Object>)a, (Collection<Object>)b);
+                }
+                else if (a.getClass().isArray())
+                {
+                    same = sameElements(a, b);
+                }
+                else
+                {
+                    same = sameFields(a, b);
+                }
+            }
+            catch (CloningError e)
+            {
+                throw e;
+            }
+            catch (Exception e)
+            {
+                throw new CloningError("Can't compare " + a.getClass().getName(), e);
+            }
+            if (!same)
+            {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Compares leaf values right away, and pairs up the others, to be compared later.
+     * @return false if a and b differ
+     */
+    private boolean same (Object a, Object b)
+    {
+        if (null == a || null == b)
+        {
+            return a == b;
+        }
+        Class<?> clazz = a.getClass();
+        if (cloner.isLeaf(clazz))
+        {
+            return clazz == b.getClass() && a.equals(b);
+        }
+        if (a instanceof Collection)
+        {
+            /* Clones of collections are of other classes than the originals */
+            if (!(b instanceof Collection) || (a instanceof List) != (b instanceof List) || (a instanceof Set) != (b instanceof Set)
+                    || ((Collection<?>)a).size() != ((Collection<?>)b).size())
+            {
+                return false;
+            }
+            if (!(a instanceof List || a instanceof Set) && clazz != b.getClass())
+            {
+                return false;
+            }
+        }
+        else if (clazz != b.getClass())
+        {
+            return false;
+        }
+        else if (!clazz.isArray() && !cloner.typeIsRecursivelyCloned(clazz))
+        {
+            return a.equals(b);
+        }
+        Object paired = forward.putIfAbsent(a, b);
+        if (null != paired)
+        {
+            return paired == b;
+        }
+        if (null != backward.putIfAbsent(b, a))
+        {
+            return false;
+        }
+        pending.add(a);
+        pending.add(b);
+        return true;
+    }
+
+    private boolean sameFields (Object a, Object b)
+    {
+        ClonePlan plan = plans.get(a.getClass());
+        int count = plan.getCloneCount();
+        for (int i = 0; i < count; i++)
+        {
+            FieldAccessorClonerWrapper accessor = plan.cloned[i];
+            if (!same(accessor.get(a), accessor.get(b)))
+            {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private boolean sameElements (Collection<Object> a, Collection<Object> b)
+    {
+        Iterator<Object> i = b.iterator();
+        for (Object element : a)
+        {
+            if (!same(element, i.next()))
+            {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private boolean sameElements (Object a, Object b)
+    {
+        int length = Array.getLength(a);
+        if (Array.getLength(b) != length)
+        {
+            return false;
+        }
+        for (int i = 0; i < length; i++)
+        {
+            if (!same(Array.get(a, i), Array.get(b, i)))
+            {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Matches up the elements by key, see {@link RecursiveReflexiveCloner#getMergeKey(Object)}.
+     * Elements without a key are matched with the first unmatched element of the same
+     * {@link GraphHash#localHash(Object)}, and so are elements that share their key with others,
+     * so sets holding several such elements that only differ further down may be found to
+     * differ when they don't.
+     */
+    private boolean sameElements (Set<Object> a, Set<Object> b)
+    {
+        HashMap<Object, List<Object>> byKey = new HashMap<Object, List<Object>>();
+        HashMap<Object, List<Object>> byHash = null;
+        for (Object element : b)
+        {
+            Object key = cloner.getMergeKey(element);
+            if (null != key || null == element)
+            {
+                addToBucket(byKey, key, element);
+                continue;
+            }
+            if (null == byHash)
+            {
+                byHash = new HashMap<Object, List<Object>>();
+            }
+            addToBucket(byHash, hashes.localHash(element), element);
+        }
+        for (Object element : a)
+        {
+            Object key = cloner.getMergeKey(element);
+            List<Object> bucket;
+            if (null != key || null == element)
+            {
+                bucket = byKey.get(key);
+            }
+            else
+            {
+                bucket = null == byHash ? null : byHash.get(hashes.localHash(element));
+            }
+            if (null == bucket || bucket.isEmpty())
+            {
+                return false;
+            }
+            if (!same(element, removeMatch(element, bucket)))
+            {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static void addToBucket (HashMap<Object, List<Object>> buckets, Object key, Object element)
+    {
+        List<Object> bucket = buckets.get(key);
+        if (null == bucket)
+        {
+            bucket = new LinkedList<Object>();
+            buckets.put(key, bucket);
+        }
+        bucket.add(element);
+    }
+
+    /**
+     * @return The element of the bucket that element is paired with already, if any, else the
+     *   first of the same local hash, else the first, taken out of the bucket
+     */
+    private Object removeMatch (Object element, List<Object> bucket)
+    {
+        if (1 == bucket.size() || null == element)
+        {
+            return bucket.remove(0);
+        }
+        Object paired = forward.get(element);
+        int hash = null == paired ? hashes.localHash(element) : 0;
+        for (Iterator<Object> i = bucket.iterator(); i.hasNext();)
+        {
+            Object candidate = i.next();
+            if (null != paired ? paired == candidate : null != candidate && hash == hashes.localHash(candidate))
+            {
+                i.remove();
+                return candidate;
+            }
+        }
+        return bucket.remove(0);
+    }
+}
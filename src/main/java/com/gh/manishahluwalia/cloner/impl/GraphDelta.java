@@ -0,0 +1,237 @@
+/*
+* Copyright 2014 Manish Ahluwalia
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+package com.gh.manishahluwalia.cloner.impl;
+
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import com.gh.manishahluwalia.cloner.annotations.MergeKey;
+
+/**
+ * <p>
+ * The difference between an earlier clone of an object graph and the graph as it is now, as
+ * worked out by {@link RecursiveReflexiveCloner#computeDelta(Object, Object, Class)}: the edits
+ * that turn the earlier clone into a clone of the graph as it is now. Applied with
+ * {@link RecursiveReflexiveCloner#applyDelta(Object, GraphDelta)}.
+ * </p><p>
+ * Objects of the earlier clone are designated by their path from its root: the names of the
+ * fields, the indexes in lists and arrays, and the keys in sets (their {@link MergeKey} fields,
+ * or the elements themselves if immutable) leading to them. Only objects that the earlier clone
+ * did not hold are held by the delta, as clones, so it is much smaller than a new clone of
+ * the whole graph when little has changed, and can be serialized to wherever the earlier clone
+ * was sent.
+ * </p><p>
+ * Immutable, but the objects it holds become part of the graph it is applied to, so it is to
+ * be applied once only.
+ * </p>
+ */
+public final class GraphDelta implements Serializable
+{
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * Where an object is: the root of the earlier clone, an object held by the delta, or
+     * a field, element or key of another object.
+     */
+    static final class Path implements Serializable
+    {
+        private static final long serialVersionUID = 1L;
+
+        static final Path ROOT = new Path(null, -1, null, -1, null);
+
+        /* Null for a root */
+        final Path parent;
+        /* For a root: -1 for the earlier clone, else the index of an object held by the delta */
+        final int root;
+        /* Exactly one of these 3 is set for a path that has a parent */
+        final String field;
+        final int index;
+        final Object key;
+
+        private Path (Path parent, int root, String field, int index, Object key)
+        {
+            this.parent = parent;
+            this.root = root;
+            this.field = field;
+            this.index = index;
+            this.key = key;
+        }
+
+        static Path root (int root)
+        {
+            return new Path(null, root, null, -1, null);
+        }
+
+        Path field (String field)
+        {
+            return new Path(this, -1, field, -1, null);
+        }
+
+        Path index (int index)
+        {
+            return new Path(this, -1, null, index, null);
+        }
+
+        Path key (Object key)
+        {
+            return new Path(this, -1, null, -1, key);
+        }
+
+        boolean isKey ()
+        {
+            return null != parent && null == field && -1 == index;
+        }
+
+        @Override
+        public String toString ()
+        {
+            if (null == parent)
+            {
+                return -1 == root ? "" : "#" + root;
+            }
+            if (null != field)
+            {
+                return parent + "." + field;
+            }
+            if (-1 != index)
+            {
+                return parent + "[" + index + "]";
+            }
+            return parent + "{" + key + "}";
+        }
+    }
+
+    /**
+     * A value that is an object of the earlier clone, as opposed to a value held by the delta
+     */
+    static final class Ref implements Serializable
+    {
+        private static final long serialVersionUID = 1L;
+
+        final Path path;
+
+        Ref (Path path)
+        {
+            this.path = path;
+        }
+
+        @Override
+        public String toString ()
+        {
+            return "@" + path;
+        }
+    }
+
+    static enum Kind
+    {
+        /* Sets field of the object at target to values[0] */
+        FIELD,
+        /* Sets element index of the array or list at target to values[0] */
+        ELEMENT,
+        /* Replaces count elements of the list at target, from index on, with values */
+        SPLICE,
+        /* Removes the elements with the keys removedKeys from the set at target, and adds values */
+        SET
+    }
+
+    /**
+     * One edit. Values are {@link Ref}s, or else held by the delta.
+     */
+    static final class Edit implements Serializable
+    {
+        private static final long serialVersionUID = 1L;
+
+        final Kind kind;
+        final Path target;
+        final String field;
+        final int index;
+        final int count;
+        final Object[] values;
+        final Object[] removedKeys;
+
+        Edit (Kind kind, Path target, String field, int index, int count, Object[] values, Object[] removedKeys)
+        {
+            this.kind = kind;
+            this.target = target;
+            this.field = field;
+            this.index = index;
+            this.count = count;
+            this.values = values;
+            this.removedKeys = removedKeys;
+        }
+
+        @Override
+        public String toString ()
+        {
+            switch (kind)
+            {
+                case FIELD:
+                    return target + "." + field + " = " + values[0];
+                case ELEMENT:
+                    return target + "[" + index + "] = " + values[0];
+                case SPLICE:
+                    return target + "[" + index + ".." + (index + count) + ") = " + Arrays.toString(values);
+                default:
+                    return target + " - " + Arrays.toString(removedKeys) + " + " + Arrays.toString(values);
+            }
+        }
+    }
+
+    private final List<Edit> edits;
+
+    /* The objects held that edits reach into, see Path.root */
+    private final List<Object> roots;
+
+    GraphDelta (List<Edit> edits, List<Object> roots)
+    {
+        this.edits = edits;
+        this.roots = roots;
+    }
+
+    List<Edit> getEdits ()
+    {
+        return Collections.unmodifiableList(edits);
+    }
+
+    Object getRoot (int root)
+    {
+        return roots.get(root);
+    }
+
+    /**
+     * @return true if the graph has not changed
+     */
+    public boolean isEmpty ()
+    {
+        return edits.isEmpty();
+    }
+
+    /**
+     * @return How many edits there are
+     */
+    public int size ()
+    {
+        return edits.size();
+    }
+
+    @Override
+    public String toString ()
+    {
+        return edits.toString();
+    }
+}
@@ -0,0 +1,188 @@
+/*
+* Copyright 2014 Manish Ahluwalia
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+package com.gh.manishahluwalia.cloner.impl;
+
+import java.lang.reflect.Array;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Set;
+
+import com.gh.manishahluwalia.cloner.annotations.Projection;
+
+/**
+ * One run of {@link RecursiveReflexiveCloner#deepHash(Object, Class)}: sums up the
+ * {@link #localHash(Object)} of every object reachable from
+ * the root through the fields compared by {@link RecursiveReflexiveCloner#deepEquals(Object, Object, Class)}.
+ * The sum does not depend on the order the objects are reached in, so the hash doesn't
+ * depend on the order sets iterate their elements in, nor, with it, on identity hash codes.
+ */
+final class GraphHash
+{
+    private final RecursiveReflexiveCloner cloner;
+    private final IdentityTable<Object> visited = new IdentityTable<Object>();
+    private final ArrayList<Object> pending = new ArrayList<Object>();
+    private final PlanCache plans;
+
+    GraphHash (RecursiveReflexiveCloner cloner, Class<? extends Projection> projection)
+    {
+        this.cloner = cloner;
+        this.plans = new PlanCache(cloner, projection);
+    }
+
+    int hash (Object root)
+    {
+        if (null == root || cloner.isLeaf(root.getClass()))
+        {
+            return valueHash(root);
+        }
+        int hash = 0;
+        visit(root);
+        while (!pending.isEmpty())
+        {
+            Object object = pending.remove(pending.size() - 1);
+            hash += mix(localHash(object));
+            Class<?> clazz = object.getClass();
+            if (object instanceof Collection)
+            {
+                for (Object element : (Collection<?>)object)
+                {
+                    visit(element);
+                }
+            }
+            else if (clazz.isArray())
+            {
+                for (int i = 0; i < Array.getLength(object); i++)
+                {
+                    visit(Array.get(object, i));
+                }
+            }
+            else if (cloner.typeIsRecursivelyCloned(clazz))
+            {
+                ClonePlan plan = plans.get(clazz);
+                int count = plan.getCloneCount();
+                for (int i = 0; i < count; i++)
+                {
+                    visit(plan.cloned[i].get(object));
+                }
+            }
+        }
+        return hash;
+    }
+
+    private void visit (Object object)
+    {
+        if (null != object && !cloner.isLeaf(object.getClass()) && null == visited.putIfAbsent(object, object))
+        {
+            pending.add(object);
+        }
+    }
+
+    /**
+     * @return A hash of a leaf value, or of what a field or element referring to anything else
+     *   says about it, that is the same from one run to the next
+     */
+    int valueHash (Object value)
+    {
+        if (null == value)
+        {
+            return 0;
+        }
+        Class<?> clazz = value.getClass();
+        if (clazz.isEnum())
+        {
+            return 31 * clazz.getName().hashCode() + ((Enum<?>)value).name().hashCode();
+        }
+        if (cloner.isLeaf(clazz))
+        {
+            return value.hashCode();
+        }
+        if (value instanceof Collection)
+        {
+            return (value instanceof Set ? 'S' : 'C') * 31 + ((Collection<?>)value).size();
+        }
+        if (clazz.isArray())
+        {
+            return 31 * clazz.getName().hashCode() + Array.getLength(value);
+        }
+        if (cloner.typeIsRecursivelyCloned(clazz))
+        {
+            return clazz.getName().hashCode();
+        }
+        return value.hashCode();
+    }
+
+    /**
+     * @return A hash of object alone, i.e. of its leaf values, and of the classes of the other
+     *   objects it refers to, through the fields with a {@link CloningDisposition#CLONE} disposition
+     *   for the projection
+     */
+    int localHash (Object object)
+    {
+        Class<?> clazz = object.getClass();
+        if (object instanceof Set)
+        {
+            int hash = valueHash(object);
+            for (Object element : (Set<?>)object)
+            {
+                hash += valueHash(element);
+            }
+            return hash;
+        }
+        if (object instanceof Collection)
+        {
+            int hash = valueHash(object);
+            for (Object element : (Collection<?>)object)
+            {
+                hash = 31 * hash + valueHash(element);
+            }
+            return hash;
+        }
+        if (clazz.isArray())
+        {
+            int hash = valueHash(object);
+            for (int i = 0; i < Array.getLength(object); i++)
+            {
+                hash = 31 * hash + valueHash(Array.get(object, i));
+            }
+            return hash;
+        }
+        if (!cloner.typeIsRecursivelyCloned(clazz))
+        {
+            return valueHash(object);
+        }
+        ClonePlan plan = plans.get(clazz);
+        int hash = valueHash(object);
+        int count = plan.getCloneCount();
+        for (int i = 0; i < count; i++)
+        {
+            hash = 31 * hash + valueHash(plan.cloned[i].get(object));
+        }
+        return hash;
+    }
+
+    /**
+     * Spreads the bits of a local hash, so that sums of similar ones don't collide
+     */
+    private int mix (int hash)
+    {
+        hash ^= hash >>> 16;
+        hash *= 0x85ebca6b;
+        hash ^= hash >>> 13;
+        hash *= 0xc2b2ae35;
+        hash ^= hash >>> 16;
+        return hash;
+    }
+}
@@ -0,0 +1,55 @@
+/*
+* Copyright 2014 Manish Ahluwalia
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+package com.gh.manishahluwalia.cloner.impl;
+
+/**
+ * How {@link RecursiveReflexiveCloner#copyForGwtRpcIfNeeded(Object, Class)} finds out
+ * whether a copy is needed, and makes it.
+ */
+public enum GwtCopyMode
+{
+    /**
+     * The graph is checked first. If a copy turns out to be needed, it is deep cloned
+     * afterwards, invoking the getters of every object visited by the check again.
+     * This is the cheapest mode when a copy is rarely needed.
+     */
+    CHECK_THEN_CLONE,
+
+    /**
+     * The check records what it reads from each object's getters. It stops at the first
+     * object that needs a copy, and the deep clone then picks up where the check left
+     * off, reusing the recorded reads rather than invoking the getters again. Costs an
+     * array per object checked, but no getter is ever invoked twice.
+     */
+    SINGLE_PASS,
+
+    /**
+     * The whole graph is checked, and only the objects that need to be replaced, plus the
+     * objects on the paths from the root to them, are copied. Everything else in the copy is
+     * shared with the original graph, which is still never modified. Best for large graphs in
+     * which only a few objects need replacing, e.g. a lazy loading collection deep inside.
+     */
+    PARTIAL,
+
+    /**
+     * Like {@link #CHECK_THEN_CLONE}, but the check is made with all the processors of the
+     * machine, which check the fields and elements of the objects in parallel. As soon as any
+     * of them finds an object that needs a copy, they all stop. Best for very wide graphs that
+     * rarely need a copy. Getters may be invoked by several threads at once, and so must not
+     * modify anything.
+     */
+    PARALLEL_CHECK;
+}
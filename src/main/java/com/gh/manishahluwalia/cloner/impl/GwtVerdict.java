@@ -0,0 +1,38 @@
+/*
+* Copyright 2014 Manish Ahluwalia
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+package com.gh.manishahluwalia.cloner.impl;
+
+/**
+ * What can be told about {@link Cloner#cloneNeededForGwt(Object, Class, CloningContext)}
+ * from the type of an object and the projection alone, without looking at the object.
+ */
+enum GwtVerdict
+{
+    /**
+     * No object of the type needs a clone for the projection
+     */
+    NEVER,
+
+    /**
+     * It depends on what the object holds
+     */
+    MAYBE,
+
+    /**
+     * Every object of the type needs a clone for the projection
+     */
+    ALWAYS;
+}
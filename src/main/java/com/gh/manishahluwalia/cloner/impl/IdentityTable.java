@@ -0,0 +1,202 @@
+/*
+* Copyright 2014 Manish Ahluwalia
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+package com.gh.manishahluwalia.cloner.impl;
+
+import java.util.Arrays;
+
+/**
+ * <p>
+ * A map from objects, compared by identity, to values. Does what an
+ * {@link java.util.IdentityHashMap} would, but with just the operations the
+ * cloners need, each of which walks the table only once: in particular,
+ * {@link #putIfAbsent(Object, Object)} looks a key up and inserts it in the
+ * same probe.
+ * </p><p>
+ * Keys and values are kept next to each other in a single array, which is
+ * probed linearly from a slot picked by Fibonacci hashing of
+ * {@link System#identityHashCode(Object)}. The table is kept at most half
+ * full and doubled when it gets there, so probes stay short and the cost of
+ * growing is spread over all insertions.
+ * </p><p>
+ * Neither keys nor values may be null, and entries can't be removed, other
+ * than all at once by {@link #clear()}, which keeps the table at its size so
+ * that it can be reused without growing again. Clearing costs as much as the
+ * entries it removes: a table that they filled only a small part of is
+ * reallocated at a size that fits them instead.
+ * </p>
+ */
+final class IdentityTable<V>
+{
+    /* Must be a power of 2 */
+    private static final int INITIAL_CAPACITY = 64;
+
+    /* clear() reallocates a table with more than this many slots per entry */
+    private static final int SPARSE_SLOTS_PER_ENTRY = 8;
+
+    /* The key of slot i is at 2*i, and its value at 2*i+1 */
+    private Object[] table;
+    private int shift;
+    private int threshold;
+    private int size;
+
+    IdentityTable ()
+    {
+        allocate(INITIAL_CAPACITY);
+    }
+
+    /**
+     * @return The value key is mapped to, or null if it isn't mapped
+     */
+    @SuppressWarnings("unchecked")
+    V get (Object key)
+    {
+        return (V)table[find(key) + 1];
+    }
+
+    /**
+     * Maps key to value, unless key is already mapped.
+     * @return The value key was already mapped to, or null if it was not, in which case it is now mapped to value
+     */
+    @SuppressWarnings("unchecked")
+    V putIfAbsent (Object key, V value)
+    {
+        int i = find(key);
+        if (null != table[i])
+        {
+            return (V)table[i + 1];
+        }
+        insert(i, key, value);
+        return null;
+    }
+
+    /**
+     * Maps key to value, replacing whatever it was mapped to.
+     */
+    void put (Object key, V value)
+    {
+        int i = find(key);
+        if (null != table[i])
+        {
+            table[i + 1] = value;
+            return;
+        }
+        insert(i, key, value);
+    }
+
+    int size ()
+    {
+        return size;
+    }
+
+    /**
+     * Removes all entries, keeping the capacity, unless the entries used only a small part of it.
+     */
+    void clear ()
+    {
+        clear(Integer.MAX_VALUE);
+    }
+
+    /**
+     * Like {@link #clear()}, also bringing the capacity down to maxCapacity if it is above.
+     * @param maxCapacity A power of 2
+     */
+    void clear (int maxCapacity)
+    {
+        int capacity = table.length / 2;
+        int fit = capacity;
+        if (size * SPARSE_SLOTS_PER_ENTRY < capacity)
+        {
+            /* Room for as many entries again, without growing */
+            fit = Math.max(INITIAL_CAPACITY, Integer.highestOneBit(size) << 2);
+        }
+        fit = Math.min(fit, Math.max(INITIAL_CAPACITY, maxCapacity));
+        if (fit < capacity)
+        {
+            allocate(fit);
+        }
+        else if (0 != size)
+        {
+            Arrays.fill(table, null);
+        }
+        size = 0;
+    }
+
+    /**
+     * @return How many entries the table has room for, counting the free slots it keeps
+     */
+    int capacity ()
+    {
+        return table.length / 2;
+    }
+
+    /**
+     * @return The index of the slot holding key, or of the empty slot where it belongs
+     */
+    private int find (Object key)
+    {
+        Object[] table = this.table;
+        int mask = table.length - 1;
+        int i = index(key);
+        for (Object k = table[i]; null != k && key != k; k = table[i])
+        {
+            i = (i + 2) & mask;
+        }
+        return i;
+    }
+
+    private int index (Object key)
+    {
+        return ((System.identityHashCode(key) * 0x9E3779B9) >>> shift) << 1;
+    }
+
+    private void insert (int i, Object key, V value)
+    {
+        table[i] = key;
+        table[i + 1] = value;
+        if (++size > threshold)
+        {
+            grow();
+        }
+    }
+
+    private void allocate (int capacity)
+    {
+        table = new Object[2 * capacity];
+        shift = Integer.numberOfLeadingZeros(capacity) + 1;
+        threshold = capacity / 2;
+    }
+
+    private void grow ()
+    {
+        Object[] old = table;
+        allocate(old.length);
+        int mask = table.length - 1;
+        for (int j = 0; j < old.length; j += 2)
+        {
+            Object key = old[j];
+            if (null != key)
+            {
+                int i = index(key);
+                while (null != table[i])
+                {
+                    i = (i + 2) & mask;
+                }
+                table[i] = key;
+                table[i + 1] = old[j + 1];
+            }
+        }
+    }
+}
@@ -0,0 +1,428 @@
+/*
+* Copyright 2014 Manish Ahluwalia
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+package com.gh.manishahluwalia.cloner.impl;
+
+import java.lang.reflect.Array;
+import java.util.ArrayList;
+import java.util.Collection;
+
+import com.gh.manishahluwalia.cloner.annotations.Projection;
+
+/**
+ * <p>
+ * Implements {@link TraversalEngine#ITERATIVE}. Walks an object graph using an explicit
+ * stack of {@link TraversalFrame}s instead of the Java call stack, so the depth of the graph
+ * is only limited by the heap.
+ * </p><p>
+ * Cloners that never call back into other cloners are invoked directly. The others hand
+ * out frames, which the engine pushes on its stack.
+ * </p><p>
+ * Since the stack holds the path from the root to the object being visited, this is also
+ * where deep clones are bounded, see {@link CloningLimits}.
+ * </p><p>
+ * Not thread-safe. The stack is kept between traversals so that it need not be regrown
+ * every time. If a traversal is started while another is in progress on the same object
+ * (e.g. a getter that clones something), a fresh instance is used for the inner one.
+ * </p>
+ */
+final class IterativeTraversal
+{
+    private final ArrayList<TraversalFrame> stack = new ArrayList<TraversalFrame>();
+
+    /* The state of the deep clone in progress, see start() */
+    private Class<? extends Projection> projection;
+    private CloningContext context;
+    private CloningLimits limits;
+    private Collection<String> cutPoints;
+    private int cloned;
+    private Object clone;
+
+    /* The objects of the destination reused so far, if reusing one, see deepCloneInto() */
+    private boolean reusing;
+    private IdentityTable<Object> reused;
+
+    public boolean cloneNeededForGwt (Cloner cloner, Object object, Class<? extends Projection> projection, CloningContext context)
+    {
+        if (!stack.isEmpty())
+        {
+            return new IterativeTraversal().cloneNeededForGwt(cloner, object, projection, context);
+        }
+        try
+        {
+            if (pushCheck(cloner, object, projection, context))
+            {
+                return true;
+            }
+            while (!stack.isEmpty())
+            {
+                TraversalFrame top = stack.get(stack.size() - 1);
+                try
+                {
+                    Object child = top.nextChild();
+                    if (TraversalFrame.CLONE_NEEDED == child)
+                    {
+                        return true;
+                    }
+                    if (TraversalFrame.DONE == child)
+                    {
+                        stack.remove(stack.size() - 1);
+                    }
+                    else
+                    {
+                        context.recordChild(top.source, child);
+                        if (pushCheck(top.childCloner, child, projection, context))
+                        {
+                            return true;
+                        }
+                    }
+                }
+                catch (Exception e)
+                {
+                    throw new CloningError("Can't iteratively evaluate " + top.source.getClass().getName(), e);
+                }
+            }
+            return false;
+        }
+        finally
+        {
+            stack.clear();
+        }
+    }
+
+    /**
+     * Checks a leaf object right away, or pushes a frame for a recursive one.
+     * @return true if the object is known to need a clone
+     */
+    private boolean pushCheck (Cloner cloner, Object object, Class<? extends Projection> projection, CloningContext context)
+    {
+        if (context.isReplaced(object))
+        {
+            return true;
+        }
+        if (!cloner.isRecursive())
+        {
+            return cloner.cloneNeededForGwt(object, projection, context);
+        }
+        GwtVerdict verdict = cloner.getGwtVerdict(projection);
+        if (GwtVerdict.MAYBE != verdict && !context.hasSession())
+        {
+            return GwtVerdict.ALWAYS == verdict;
+        }
+        TraversalFrame frame = cloner.checkFrame(object, projection, context);
+        if (null != frame)
+        {
+            stack.add(frame);
+        }
+        return false;
+    }
+
+    public Object deepClone (Cloner cloner, Object source, Class<? extends Projection> projection, CloningContext context)
+    {
+        return deepClone(cloner, source, projection, context, null, null);
+    }
+
+    /**
+     * Like {@link #deepClone(Cloner, Object, Class, CloningContext)}, dealing with the objects
+     * beyond the given limits, if not null, as per their policy.
+     * @param cutPoints Where to add the path of each object left out, if not null
+     */
+    public Object deepClone (Cloner cloner, Object source, Class<? extends Projection> projection, CloningContext context, CloningLimits limits, Collection<String> cutPoints)
+    {
+        if (!stack.isEmpty())
+        {
+            return new IterativeTraversal().deepClone(cloner, source, projection, context, limits, cutPoints);
+        }
+        try
+        {
+            start(cloner, source, null, projection, context, limits, cutPoints);
+            advance(Integer.MAX_VALUE, Long.MAX_VALUE);
+            return clone;
+        }
+        finally
+        {
+            finish();
+        }
+    }
+
+    /**
+     * Like {@link #deepClone(Cloner, Object, Class, CloningContext)}, reusing the objects of
+     * destination, an earlier clone, wherever they fit. See {@link RecursiveReflexiveCloner#deepCloneInto(Object, Object, Class)}.
+     */
+    public Object deepCloneInto (Cloner cloner, Object source, Object destination, Class<? extends Projection> projection, CloningContext context)
+    {
+        if (!stack.isEmpty())
+        {
+            return new IterativeTraversal().deepCloneInto(cloner, source, destination, projection, context);
+        }
+        try
+        {
+            if (null == reused)
+            {
+                reused = new IdentityTable<Object>();
+            }
+            reusing = true;
+            start(cloner, source, destination, projection, context, null, null);
+            advance(Integer.MAX_VALUE, Long.MAX_VALUE);
+            return clone;
+        }
+        finally
+        {
+            finish();
+        }
+    }
+
+    /**
+     * Starts a deep clone, which {@link #advance(int, long)} then makes, as much at a time as
+     * wanted. Clones nothing but leaves, or the root object itself, into which nothing is
+     * cloned yet.
+     * @param reuse The object to make the clone out of if reusing, or null
+     */
+    void start (Cloner cloner, Object source, Object reuse, Class<? extends Projection> projection, CloningContext context, CloningLimits limits, Collection<String> cutPoints)
+    {
+        this.projection = projection;
+        this.context = context;
+        this.limits = limits;
+        this.cutPoints = cutPoints;
+        cloned = 0;
+        if (null != limits && isOversized(source, limits))
+        {
+            clone = cut(source.getClass().getSimpleName(), limits, cutPoints);
+            return;
+        }
+        clone = pushClone(cloner, source, reuse, projection, context);
+        if (null == clone)
+        {
+            clone = stack.get(0).destination;
+            cloned = 1;
+        }
+    }
+
+    /**
+     * Clones until the clone started is done, or until maxObjects more objects have been
+     * cloned, or until maxNanos have elapsed, whichever comes first. Only recursive objects,
+     * i.e. objects whose cloners hand out frames, are counted.
+     * @param maxNanos Long.MAX_VALUE for no time limit
+     * @return true if the clone is done
+     */
+    boolean advance (int maxObjects, long maxNanos)
+    {
+        long stopAt = (long)cloned + maxObjects;
+        long startTime = Long.MAX_VALUE == maxNanos ? 0 : System.nanoTime();
+        int steps = 0;
+        while (!stack.isEmpty())
+        {
+            if (cloned >= stopAt)
+            {
+                return false;
+            }
+            /* Reading the clock for every child would cost more than the cloning itself */
+            if (Long.MAX_VALUE != maxNanos && 0 == (++steps & 63) && System.nanoTime() - startTime >= maxNanos)
+            {
+                return false;
+            }
+            TraversalFrame top = stack.get(stack.size() - 1);
+            String cutPoint = null;
+            try
+            {
+                Object child = top.nextChild();
+                if (TraversalFrame.DONE == child)
+                {
+                    stack.remove(stack.size() - 1);
+                    if (!stack.isEmpty())
+                    {
+                        stack.get(stack.size() - 1).childCloned(top.destination);
+                    }
+                }
+                else
+                {
+                    context.recordChild(top.source, child);
+                    if (null != limits && isBeyond(top.childCloner, child, cloned, limits, context))
+                    {
+                        cutPoint = getPath();
+                        if (LimitPolicy.TRUNCATE == limits.getPolicy())
+                        {
+                            cut(cutPoint, limits, cutPoints);
+                            top.childDropped();
+                        }
+                    }
+                    else
+                    {
+                        Object reuse = reusing ? top.reusableChild() : null;
+                        Object childClone = pushClone(top.childCloner, child, reuse, projection, context);
+                        if (null == childClone)
+                        {
+                            cloned++;
+                        }
+                        else
+                        {
+                            top.childCloned(childClone);
+                        }
+                    }
+                }
+            }
+            catch (Exception e)
+            {
+                throw new CloningError("Can't iteratively clone " + top.source.getClass().getName(), e);
+            }
+            if (null != cutPoint && LimitPolicy.FAIL == limits.getPolicy())
+            {
+                cut(cutPoint, limits, cutPoints);
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return The clone started, which is only complete once {@link #advance(int, long)} returned true
+     */
+    Object getClone ()
+    {
+        return clone;
+    }
+
+    /**
+     * @return How many recursive objects have been cloned so far, see {@link #advance(int, long)}
+     */
+    int getClonedCount ()
+    {
+        return cloned;
+    }
+
+    /**
+     * @return How many objects are being cloned, i.e. have been cloned but not all of whose
+     *   children have been yet
+     */
+    int getPendingCount ()
+    {
+        return stack.size();
+    }
+
+    /**
+     * Drops the clone started, whether done or not.
+     */
+    void finish ()
+    {
+        stack.clear();
+        projection = null;
+        context = null;
+        limits = null;
+        cutPoints = null;
+        clone = null;
+        if (reusing)
+        {
+            reused.clear();
+            reusing = false;
+        }
+    }
+
+    /**
+     * @return true if child, about to be cloned, can't be without exceeding the limits.
+     *   Objects already cloned, and leaves, which refer to nothing else, are always within the
+     *   depth and count limits.
+     */
+    private boolean isBeyond (Cloner cloner, Object child, int cloned, CloningLimits limits, CloningContext context)
+    {
+        if (isOversized(child, limits))
+        {
+            return true;
+        }
+        if (!cloner.isRecursive() || null != context.getClone(child))
+        {
+            return false;
+        }
+        return stack.size() > limits.getMaxDepth() || cloned >= limits.getMaxObjects();
+    }
+
+    private static boolean isOversized (Object object, CloningLimits limits)
+    {
+        if (object instanceof Collection)
+        {
+            return ((Collection<?>)object).size() > limits.getMaxCollectionSize();
+        }
+        return object.getClass().isArray() && Array.getLength(object) > limits.getMaxCollectionSize();
+    }
+
+    /**
+     * @return The path from the root to the child most recently handed out by the top frame
+     */
+    private String getPath ()
+    {
+        StringBuilder path = new StringBuilder(stack.get(0).source.getClass().getSimpleName());
+        for (TraversalFrame frame : stack)
+        {
+            path.append(frame.childName());
+        }
+        return path.toString();
+    }
+
+    /**
+     * Deals with an object beyond the limits, at the given path, as per their policy.
+     * @return null, the clone of an object left out
+     * @throws CloningError The policy is {@link LimitPolicy#FAIL}
+     */
+    private static Object cut (String path, CloningLimits limits, Collection<String> cutPoints)
+    {
+        if (LimitPolicy.FAIL == limits.getPolicy())
+        {
+            throw new CloningError("Cloning limits exceeded at " + path);
+        }
+        if (null != cutPoints)
+        {
+            cutPoints.add(path);
+        }
+        return null;
+    }
+
+    /**
+     * Clones a leaf object, or an object already cloned, right away. Otherwise
+     * pushes a frame that will fill in its clone.
+     * @param reuse An object that the clone may be made out of, or null
+     * @return The clone, or null if a frame was pushed
+     */
+    private Object pushClone (Cloner cloner, Object source, Object reuse, Class<? extends Projection> projection, CloningContext context)
+    {
+        if (!cloner.isRecursive())
+        {
+            if (null != reuse && claim(source, reuse))
+            {
+                return cloner.deepCloneInto(source, reuse, projection, context);
+            }
+            return cloner.deepClone(source, projection, context);
+        }
+        Object clone = context.getClone(source);
+        if (null == clone)
+        {
+            if (null != reuse && claim(source, reuse))
+            {
+                stack.add(cloner.cloneFrameInto(source, reuse, projection, context));
+            }
+            else
+            {
+                stack.add(cloner.cloneFrame(source, projection, context));
+            }
+        }
+        return clone;
+    }
+
+    /**
+     * @return true if reuse may be made into the clone of source, i.e. if it is not source
+     *   itself, and was not reused already
+     */
+    private boolean claim (Object source, Object reuse)
+    {
+        return source != reuse && null == reused.putIfAbsent(reuse, reuse);
+    }
+}
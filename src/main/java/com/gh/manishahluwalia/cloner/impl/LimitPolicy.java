@@ -0,0 +1,35 @@
+/*
+* Copyright 2014 Manish Ahluwalia
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+package com.gh.manishahluwalia.cloner.impl;
+
+/**
+ * What a clone bounded by {@link CloningLimits} does with an object it can't clone without
+ * exceeding them. See {@link RecursiveReflexiveCloner#deepCloneBounded(Object, Class, CloningLimits, java.util.Collection)}.
+ */
+public enum LimitPolicy
+{
+    /**
+     * The object is left out of the clone: the field or array slot that referred to it is
+     * left null, and the collection that held it holds one element less. Whatever it reaches
+     * is left out too, unless it is reached from elsewhere.
+     */
+    TRUNCATE,
+
+    /**
+     * The clone stops with a {@link CloningError} giving the path from the root to the object.
+     */
+    FAIL;
+}
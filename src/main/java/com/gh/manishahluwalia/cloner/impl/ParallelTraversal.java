@@ -0,0 +1,341 @@
+/*
+* Copyright 2014 Manish Ahluwalia
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+package com.gh.manishahluwalia.cloner.impl;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountedCompleter;
+import java.util.concurrent.ForkJoinPool;
+
+import com.gh.manishahluwalia.cloner.annotations.Projection;
+
+/**
+ * <p>
+ * Implements {@link RecursiveReflexiveCloner#deepCloneParallel(Object, Class)}. Fills in a
+ * clone with the threads of a {@link ForkJoinPool}, using the same {@link TraversalFrame}s
+ * as {@link IterativeTraversal}.
+ * </p><p>
+ * The clone of each child of a frame is created, and handed to the frame, as soon as the
+ * child is met. The frame that fills that clone in is then forked while the pool is short
+ * of work, and otherwise kept by the current task to be filled in later. Idle threads steal
+ * forked frames, so that fields, array elements and collection elements get filled in in
+ * parallel.
+ * </p><p>
+ * The context is a concurrent one, in which the first clone recorded for an object is the
+ * one kept. A thread that loses the race for an object uses the clone of the winner and drops
+ * its own before filling it in, so that each object is cloned exactly once.
+ * </p><p>
+ * Sets hash or compare their elements, so they can't be given clones that are still being
+ * filled in. Their elements are cloned in parallel like everything else, but only added once
+ * the whole graph is cloned, sets held by other sets first. As with cycles in a sequential
+ * clone, an element whose hash depends on a set it only holds through its fields may be
+ * hashed before that set is filled in.
+ * </p><p>
+ * Checks for {@link GwtCopyMode#PARALLEL_CHECK} fan out the same way, over check frames.
+ * The first task to find an object that needs a copy raises a flag, upon which every task
+ * stops at its next child, and tasks that were forked but not started yet return right away.
+ * </p><p>
+ * Tasks are {@link CountedCompleter}s, which complete once all the tasks they forked have,
+ * rather than joining them, so that deep graphs don't lead to deeply nested joins.
+ * </p>
+ */
+final class ParallelTraversal
+{
+    /* Frames are forked while fewer tasks than this wait in the queue of the current thread */
+    private static final int SURPLUS_TASKS = 3;
+
+    private static final ForkJoinPool POOL = new ForkJoinPool();
+
+    private final Class<? extends Projection> projection;
+    private final CloningContext context;
+
+    private final ConcurrentLinkedQueue<SetFill> setFills = new ConcurrentLinkedQueue<SetFill>();
+
+    /* Set as soon as a check finds an object that needs a copy */
+    private volatile boolean cloneNeeded;
+
+    /**
+     * The clones of the elements of a set, to be added once they are filled in
+     */
+    private static final class SetFill
+    {
+        final TraversalFrame frame;
+        final ArrayList<Object> clones;
+        boolean filled;
+
+        SetFill (TraversalFrame frame, ArrayList<Object> clones)
+        {
+            this.frame = frame;
+            this.clones = clones;
+        }
+    }
+
+    /**
+     * @param context A context made by {@link CloningContext#newConcurrent(DontCarePolicy, boolean)}
+     */
+    ParallelTraversal (Class<? extends Projection> projection, CloningContext context)
+    {
+        this.projection = projection;
+        this.context = context;
+    }
+
+    public Object deepClone (Cloner cloner, Object source)
+    {
+        if (!cloner.isRecursive())
+        {
+            return cloner.deepClone(source, projection, context);
+        }
+        TraversalFrame root = cloner.cloneFrame(source, projection, context);
+        POOL.invoke(new FrameTask(null, root));
+        fillSets();
+        return root.destination;
+    }
+
+    public boolean cloneNeededForGwt (Cloner cloner, Object object)
+    {
+        ArrayList<TraversalFrame> frames = new ArrayList<TraversalFrame>();
+        if (pushCheck(cloner, object, frames))
+        {
+            return true;
+        }
+        if (!frames.isEmpty())
+        {
+            POOL.invoke(new CheckTask(null, frames.get(0)));
+        }
+        return cloneNeeded;
+    }
+
+    /**
+     * Checks a leaf object right away, or adds a frame for a recursive one.
+     * @return true if the object is known to need a clone
+     */
+    private boolean pushCheck (Cloner cloner, Object object, ArrayList<TraversalFrame> frames)
+    {
+        if (context.isReplaced(object))
+        {
+            return true;
+        }
+        if (!cloner.isRecursive())
+        {
+            return cloner.cloneNeededForGwt(object, projection, context);
+        }
+        GwtVerdict verdict = cloner.getGwtVerdict(projection);
+        if (GwtVerdict.MAYBE != verdict && !context.hasSession())
+        {
+            return GwtVerdict.ALWAYS == verdict;
+        }
+        TraversalFrame frame = cloner.checkFrame(object, projection, context);
+        if (null != frame)
+        {
+            frames.add(frame);
+        }
+        return false;
+    }
+
+    @SuppressWarnings("serial")
+    private final class CheckTask extends CountedCompleter<Void>
+    {
+        private final TraversalFrame first;
+
+        CheckTask (CheckTask parent, TraversalFrame first)
+        {
+            super(parent);
+            this.first = first;
+        }
+
+        @Override
+        public void compute ()
+        {
+            ArrayList<TraversalFrame> frames = new ArrayList<TraversalFrame>();
+            frames.add(first);
+            while (!frames.isEmpty() && !cloneNeeded)
+            {
+                TraversalFrame frame = frames.remove(frames.size() - 1);
+                try
+                {
+                    if (check(frame, frames))
+                    {
+                        cloneNeeded = true;
+                    }
+                }
+                catch (Exception e)
+                {
+                    throw new CloningError("Can't evaluate in parallel " + frame.source.getClass().getName(), e);
+                }
+            }
+            tryComplete();
+        }
+
+        /**
+         * Checks the children of a frame, leaving the frames of the recursive ones to this
+         * task, or to forked ones.
+         * @return true if the object of the frame, or one of its leaf children, needs a copy
+         */
+        private boolean check (TraversalFrame frame, ArrayList<TraversalFrame> frames)
+        {
+            for (Object child = frame.nextChild(); TraversalFrame.DONE != child; child = frame.nextChild())
+            {
+                int size = frames.size();
+                if (TraversalFrame.CLONE_NEEDED == child || pushCheck(frame.childCloner, child, frames))
+                {
+                    return true;
+                }
+                if (cloneNeeded)
+                {
+                    return false;
+                }
+                if (frames.size() > size && getSurplusQueuedTaskCount() < SURPLUS_TASKS)
+                {
+                    addToPendingCount(1);
+                    new CheckTask(this, frames.remove(size)).fork();
+                }
+            }
+            return false;
+        }
+    }
+
+    @SuppressWarnings("serial")
+    private final class FrameTask extends CountedCompleter<Void>
+    {
+        private final TraversalFrame first;
+
+        FrameTask (FrameTask parent, TraversalFrame first)
+        {
+            super(parent);
+            this.first = first;
+        }
+
+        @Override
+        public void compute ()
+        {
+            ArrayList<TraversalFrame> frames = new ArrayList<TraversalFrame>();
+            frames.add(first);
+            while (!frames.isEmpty())
+            {
+                TraversalFrame frame = frames.remove(frames.size() - 1);
+                try
+                {
+                    fill(frame, frames);
+                }
+                catch (Exception e)
+                {
+                    throw new CloningError("Can't clone in parallel " + frame.source.getClass().getName(), e);
+                }
+            }
+            tryComplete();
+        }
+
+        /**
+         * Hands the clones of all its children to a frame, leaving the frames that fill
+         * them in to this task, or to forked ones.
+         */
+        private void fill (TraversalFrame frame, ArrayList<TraversalFrame> frames)
+        {
+            ArrayList<Object> clones = frame.acceptsIncompleteChildren() ? null : new ArrayList<Object>();
+            for (Object child = frame.nextChild(); TraversalFrame.DONE != child; child = frame.nextChild())
+            {
+                Object clone = cloneChild(frame.childCloner, child, frames);
+                if (null == clones)
+                {
+                    frame.childCloned(clone);
+                }
+                else
+                {
+                    clones.add(clone);
+                }
+            }
+            if (null != clones)
+            {
+                setFills.add(new SetFill(frame, clones));
+            }
+        }
+
+        /**
+         * @return The clone of child, which may still have to be filled in
+         */
+        private Object cloneChild (Cloner cloner, Object child, ArrayList<TraversalFrame> frames)
+        {
+            if (!cloner.isRecursive())
+            {
+                Object clone = cloner.deepClone(child, projection, context);
+                /* Arrays of immutables are recorded, and another thread may have recorded one first */
+                Object recorded = context.getClone(child);
+                return null == recorded ? clone : recorded;
+            }
+            Object clone = context.getClone(child);
+            if (null != clone)
+            {
+                return clone;
+            }
+            TraversalFrame frame = cloner.cloneFrame(child, projection, context);
+            clone = context.getClone(child);
+            if (frame.destination != clone)
+            {
+                /* Another thread got there first */
+                return clone;
+            }
+            if (getSurplusQueuedTaskCount() < SURPLUS_TASKS)
+            {
+                addToPendingCount(1);
+                new FrameTask(this, frame).fork();
+            }
+            else
+            {
+                frames.add(frame);
+            }
+            return clone;
+        }
+    }
+
+    private void fillSets ()
+    {
+        if (setFills.isEmpty())
+        {
+            return;
+        }
+        IdentityHashMap<Object, SetFill> byDestination = new IdentityHashMap<Object, SetFill>();
+        for (SetFill setFill : setFills)
+        {
+            byDestination.put(setFill.frame.destination, setFill);
+        }
+        for (SetFill setFill : setFills)
+        {
+            fillSet(setFill, byDestination);
+        }
+    }
+
+    private void fillSet (SetFill setFill, IdentityHashMap<Object, SetFill> byDestination)
+    {
+        if (setFill.filled)
+        {
+            return;
+        }
+        setFill.filled = true;
+        for (Object clone : setFill.clones)
+        {
+            SetFill heldSet = byDestination.get(clone);
+            if (null != heldSet)
+            {
+                fillSet(heldSet, byDestination);
+            }
+        }
+        for (Object clone : setFill.clones)
+        {
+            setFill.frame.childCloned(clone);
+        }
+    }
+}
@@ -0,0 +1,180 @@
+/*
+* Copyright 2014 Manish Ahluwalia
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+package com.gh.manishahluwalia.cloner.impl;
+
+import java.util.ArrayList;
+
+import com.gh.manishahluwalia.cloner.annotations.Projection;
+
+/**
+ * <p>
+ * Implements the analysis for {@link GwtCopyMode#PARTIAL}. Walks the whole graph,
+ * finds the objects that need to be replaced for GWT-RPC and, from those, every
+ * object that can reach one of them. Only these have to be copied; everything
+ * else can be shared with the original graph.
+ * </p><p>
+ * The walk is done with the check frames of {@link IterativeTraversal}, so it is
+ * not limited by the depth of the stack. Since cycles mean that an object can
+ * reach itself, the objects to copy are found by following the edges of the graph
+ * backwards from the objects that need to be replaced, once the walk is complete.
+ * </p><p>
+ * Every object that does not need to be copied is recorded in the context as
+ * being its own clone, so that a deep clone using the context copies just the
+ * paths to the replaced objects.
+ * </p>
+ */
+final class PathCopyAnalysis
+{
+    private static final class Node
+    {
+        final Object object;
+        boolean copy;
+        Node parent;
+        ArrayList<Node> moreParents;
+
+        Node (Object object)
+        {
+            this.object = object;
+        }
+
+        void addParent (Node node)
+        {
+            if (null == parent)
+            {
+                parent = node;
+            }
+            else
+            {
+                if (null == moreParents)
+                {
+                    moreParents = new ArrayList<Node>(2);
+                }
+                moreParents.add(node);
+            }
+        }
+    }
+
+    private final IdentityTable<Node> nodes = new IdentityTable<Node>();
+    private final ArrayList<Node> allNodes = new ArrayList<Node>();
+    private final ArrayList<Node> replaced = new ArrayList<Node>();
+    private final ArrayList<TraversalFrame> stack = new ArrayList<TraversalFrame>();
+    private final ArrayList<Node> nodeStack = new ArrayList<Node>();
+
+    /**
+     * @return true if the object needs to be copied at all. If it does, then the context
+     *   has been prepared to share everything that does not need to be copied.
+     */
+    public boolean analyse (Cloner cloner, Object object, Class<? extends Projection> projection, CloningContext context)
+    {
+        if (!cloner.isRecursive() || GwtVerdict.NEVER == cloner.getGwtVerdict(projection))
+        {
+            return cloner.checkForGwt(object, projection, context);
+        }
+        Node root = push(cloner, object, projection, context);
+        while (!stack.isEmpty())
+        {
+            TraversalFrame top = stack.get(stack.size() - 1);
+            Node topNode = nodeStack.get(nodeStack.size() - 1);
+            try
+            {
+                Object child = top.nextChild();
+                if (TraversalFrame.DONE == child)
+                {
+                    stack.remove(stack.size() - 1);
+                    nodeStack.remove(nodeStack.size() - 1);
+                }
+                else if (TraversalFrame.CLONE_NEEDED == child)
+                {
+                    replaced.add(topNode);
+                }
+                else if (!top.childCloner.isRecursive())
+                {
+                    if (top.childCloner.cloneNeededForGwt(child, projection, context))
+                    {
+                        replaced.add(topNode);
+                    }
+                }
+                else if (GwtVerdict.NEVER == top.childCloner.getGwtVerdict(projection))
+                {
+                    /* Nothing in there needs replacing, so there is no need to look */
+                    context.putClone(child, child);
+                }
+                else
+                {
+                    Node childNode = nodes.get(child);
+                    if (null == childNode)
+                    {
+                        childNode = push(top.childCloner, child, projection, context);
+                    }
+                    childNode.addParent(topNode);
+                }
+            }
+            catch (Exception e)
+            {
+                throw new CloningError("Can't iteratively evaluate " + top.source.getClass().getName(), e);
+            }
+        }
+
+        markCopies();
+        for (Node node : allNodes)
+        {
+            if (!node.copy)
+            {
+                context.putClone(node.object, node.object);
+            }
+        }
+        return root.copy;
+    }
+
+    private Node push (Cloner cloner, Object object, Class<? extends Projection> projection, CloningContext context)
+    {
+        Node node = new Node(object);
+        nodes.put(object, node);
+        allNodes.add(node);
+        TraversalFrame frame = cloner.checkFrame(object, projection, context);
+        if (null != frame)
+        {
+            stack.add(frame);
+            nodeStack.add(node);
+        }
+        return node;
+    }
+
+    /**
+     * Marks the replaced nodes and, transitively, all their parents as needing a copy
+     */
+    private void markCopies ()
+    {
+        ArrayList<Node> pending = replaced;
+        while (!pending.isEmpty())
+        {
+            Node node = pending.remove(pending.size() - 1);
+            if (node.copy)
+            {
+                continue;
+            }
+            node.copy = true;
+            if (null != node.parent)
+            {
+                pending.add(node.parent);
+            }
+            if (null != node.moreParents)
+            {
+                pending.addAll(node.moreParents);
+            }
+        }
+    }
+}
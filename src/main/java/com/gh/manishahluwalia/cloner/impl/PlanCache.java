@@ -0,0 +1,51 @@
+/*
+* Copyright 2014 Manish Ahluwalia
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+package com.gh.manishahluwalia.cloner.impl;
+
+import java.util.HashMap;
+
+import com.gh.manishahluwalia.cloner.annotations.Projection;
+
+/**
+ * The plans of the classes met during one walk of a graph, so that the cloner of every object
+ * need not be looked up under the lock of cloningActions.
+ */
+final class PlanCache
+{
+    private final RecursiveReflexiveCloner cloner;
+    private final Class<? extends Projection> projection;
+    private final HashMap<Class<?>, ClonePlan> plans = new HashMap<Class<?>, ClonePlan>();
+
+    PlanCache (RecursiveReflexiveCloner cloner, Class<? extends Projection> projection)
+    {
+        this.cloner = cloner;
+        this.projection = projection;
+    }
+
+    /**
+     * @param clazz A {@link com.gh.manishahluwalia.cloner.annotations.ReflexivelyClonable} class
+     */
+    ClonePlan get (Class<?> clazz)
+    {
+        ClonePlan plan = plans.get(clazz);
+        if (null == plan)
+        {
+            plan = cloner.getPlan(clazz, projection);
+            plans.put(clazz, plan);
+        }
+        return plan;
+    }
+}
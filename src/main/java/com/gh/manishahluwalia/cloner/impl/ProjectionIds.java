@@ -0,0 +1,106 @@
+/*
+* Copyright 2014 Manish Ahluwalia
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+package com.gh.manishahluwalia.cloner.impl;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+
+import com.gh.manishahluwalia.cloner.annotations.Projection;
+
+/**
+ * <p>
+ * Hands out small, dense ids for projection classes, so that the projections a field is
+ * annotated with can be kept as a {@link BitSet} and tested with a single bit lookup.
+ * </p><p>
+ * Ids are only meaningful for the {@link RecursiveReflexiveCloner} that owns the instance.
+ * The null projection has no id, see {@link #NO_PROJECTION}.
+ * </p><p>
+ * Thread-safe. Lookups of projections already seen take no lock.
+ * </p>
+ */
+final class ProjectionIds
+{
+    /**
+     * The id of the null projection. It is never in any set.
+     */
+    static final int NO_PROJECTION = -1;
+
+    /**
+     * Shared by all annotations that list no projection, i.e. that apply to all of them.
+     * Never modified.
+     */
+    static final BitSet ALL = new BitSet(0);
+
+    private volatile HashMap<Class<? extends Projection>, Integer> ids = new HashMap<Class<? extends Projection>, Integer>();
+    private final ArrayList<Class<? extends Projection>> projections = new ArrayList<Class<? extends Projection>>();
+
+    public int getId (Class<? extends Projection> projection)
+    {
+        if (null==projection)
+        {
+            return NO_PROJECTION;
+        }
+        Integer id = ids.get(projection);
+        if (null!=id)
+        {
+            return id;
+        }
+        synchronized (projections)
+        {
+            id = ids.get(projection);
+            if (null==id)
+            {
+                id = projections.size();
+                projections.add(projection);
+                HashMap<Class<? extends Projection>, Integer> newIds = new HashMap<Class<? extends Projection>, Integer>(ids);
+                newIds.put(projection, id);
+                ids = newIds;
+            }
+            return id;
+        }
+    }
+
+    public Class<? extends Projection> getProjection (int id)
+    {
+        synchronized (projections)
+        {
+            return projections.get(id);
+        }
+    }
+
+    /**
+     * @return The ids of the given projections, or {@link #ALL} if there are none
+     */
+    public BitSet getIds (Class<? extends Projection>[] projections)
+    {
+        if (0==projections.length)
+        {
+            return ALL;
+        }
+        BitSet set = new BitSet();
+        for (Class<? extends Projection> projection : projections)
+        {
+            set.set(getId(projection));
+        }
+        return set;
+    }
+
+    static boolean contains (BitSet set, int id)
+    {
+        return NO_PROJECTION!=id && set.get(id);
+    }
+}
@@ -21,24 +21,32 @@ import java.lang.reflect.Array;
 import java.lang.reflect.Field;
 import java.lang.reflect.Method;
 import java.lang.reflect.Modifier;
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Type;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.BitSet;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.Comparator;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.HashSet;
-import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
 import java.util.LinkedList;
 import java.util.List;
-import java.util.Map;
+import java.util.ListIterator;
 import java.util.Set;
 import java.util.TreeSet;
 
 import com.gh.manishahluwalia.cloner.annotations.Clone;
 import com.gh.manishahluwalia.cloner.annotations.CopyFromClient;
 import com.gh.manishahluwalia.cloner.annotations.DoNotClone;
+import com.gh.manishahluwalia.cloner.annotations.MergeKey;
 import com.gh.manishahluwalia.cloner.annotations.Projection;
 import com.gh.manishahluwalia.cloner.annotations.ReflexivelyClonable;
+import com.gh.manishahluwalia.cloner.impl.CloningContext.RecordedReads;
 
 
 /**
@@ -64,7 +72,9 @@ import com.gh.manishahluwalia.cloner.annotations.ReflexivelyClonable;
  * <ol>
  * <li>Making a deep clone of the object (see {@link #deepClone(Object)})</li>
  * <li>Inspecting the object to check if it is suitable for GWT serialization as a response to a GWT-RPC call (see {@link #copyForGwtRpcIfNeeded(Object)})</li>
- * <li>Updating the server's copy of an object with selected fields from a copy of the object that was just transmitted by the client (see {@link #shallowCopyFieldsFromClient(Object, Object)})</li>
+ * <li>Updating the server's copy of an object with selected fields from a copy of the object that was just transmitted by the client (see {@link #shallowCopyFieldsFromClient(Object, Object)}), or with a whole graph of them (see {@link #deepCopyFieldsFromClient(Object, Object)})</li>
+ * <li>Telling whether two graphs are the same, as far as their clones go (see {@link #deepEquals(Object, Object)} and {@link #deepHash(Object)})</li>
+ * <li>Working out what has changed in a graph since it was cloned, and bringing the clone up to date (see {@link #computeDelta(Object, Object)} and {@link #applyDelta(Object, GraphDelta)})</li>
  * <li>Performing the above under constraints of some projections (see below, and {@link #deepClone(Object, Class)}, {@link #copyForGwtRpcIfNeeded(Object, Class)} and {@link #shallowCopyFieldsFromClient(Object, Object)})</li>
  * </ol>
  * <p>
@@ -140,6 +150,8 @@ import com.gh.manishahluwalia.cloner.annotations.ReflexivelyClonable;
  * <li>X: Not cloned. Client sees default value for type</li>
  * <li>-: Server will do whatever is most efficient</li>
  * </ul>
+ * What is most efficient depends on the use of the clone, and can be chosen with
+ * {@link #setDontCarePolicy(DontCarePolicy)}.
  * <table border="1">
  * <caption>What gets cloned</caption>
  * <tr>
@@ -191,18 +203,29 @@ public class RecursiveReflexiveCloner
         private Cloner cloner;
         private Class<?> clonerForType;
         
-        private final HashSet<Class<? extends Projection>> cloneProjections;
-        private final HashSet<Class<? extends Projection>> doNotCloneProjections;
-        private final HashSet<Class<? extends Projection>> copyFromClientProjections;
+        /* Used instead of the generic collection cloner if the field is
+         * a collection whose element type is known and final.
+         */
+        private final TypedCollectionCloner typedCollectionCloner;
+        
+        /* Ids of the projections listed by each annotation, see ProjectionIds.
+         * null if the annotation is absent, empty if it lists none.
+         */
+        private final BitSet cloneProjections;
+        private final BitSet doNotCloneProjections;
+        private final BitSet copyFromClientProjections;
         
         private final Method getter;
         private final Method setter;
 
+        /* What a field of the type holds before anything is set: null, or a primitive's zero */
+        private final Object defaultValue;
+
         public FieldAccessorClonerWrapper (Field field, Clone clone, DoNotClone doNotClone, CopyFromClient copyFromClient)
         {
             if (null!=clone)
             {
-                cloneProjections = new HashSet<Class<? extends Projection>>(Arrays.asList(clone.value()));
+                cloneProjections = projectionIds.getIds(clone.value());
             }
             else
             {
@@ -210,7 +233,7 @@ public class RecursiveReflexiveCloner
             }
             if (null!=doNotClone)
             {
-                doNotCloneProjections = new HashSet<Class<? extends Projection>>(Arrays.asList(doNotClone.value()));
+                doNotCloneProjections = projectionIds.getIds(doNotClone.value());
             }
             else
             {
@@ -218,11 +241,11 @@ public class RecursiveReflexiveCloner
             }
             if (null!=cloneProjections && null!=doNotCloneProjections)
             {
-                Set<Class<? extends Projection>> intersection = new HashSet<Class<? extends Projection>>(cloneProjections);
-                intersection.retainAll(doNotCloneProjections);
-                if (intersection.size()>0)
+                if (cloneProjections.intersects(doNotCloneProjections))
                 {
-                    throw new CloningError(field.getName() + " is both @Cloned and @DoNotCloned for projection " + intersection.iterator().next().getName());
+                    BitSet intersection = (BitSet)cloneProjections.clone();
+                    intersection.and(doNotCloneProjections);
+                    throw new CloningError(field.getName() + " is both @Cloned and @DoNotCloned for projection " + projectionIds.getProjection(intersection.nextSetBit(0)).getName());
                 }
             }
             if (null!=cloneProjections && cloneProjections.isEmpty() && null!=doNotCloneProjections && doNotCloneProjections.isEmpty())
@@ -232,7 +255,7 @@ public class RecursiveReflexiveCloner
             
             if (null!=copyFromClient)
             {
-                copyFromClientProjections = new HashSet<Class<? extends Projection>>(Arrays.asList(copyFromClient.value()));
+                copyFromClientProjections = projectionIds.getIds(copyFromClient.value());
             }
             else
             {
@@ -259,6 +282,7 @@ public class RecursiveReflexiveCloner
             }
             
             Class<?> fieldType = field.getType();
+            this.defaultValue = fieldType.isPrimitive() ? Array.get(Array.newInstance(fieldType, 1), 0) : null;
             if (0 != (field.getModifiers() & (Modifier.INTERFACE | Modifier.ABSTRACT)) )
             {
                 /* The field is either an interface or an abstract class.
@@ -287,13 +311,103 @@ public class RecursiveReflexiveCloner
                     this.clonerForType = null;
                 }
             }
+            
+            this.typedCollectionCloner = getTypedCollectionCloner(field);
+            if (javaUtilCollectionCloner == this.cloner && null != typedCollectionCloner)
+            {
+                this.cloner = typedCollectionCloner;
+            }
+        }
+        
+        /**
+         * Looks at the generic signature of a collection field, e.g.
+         * <code>Set&lt;Address&gt;</code>, and returns a cloner specialized for
+         * its element type. Returns null if the field is not a collection or
+         * the element type cannot be pinned down to one final class.
+         */
+        private TypedCollectionCloner getTypedCollectionCloner (Field field)
+        {
+            if (!Collection.class.isAssignableFrom(field.getType()) || !(field.getGenericType() instanceof ParameterizedType))
+            {
+                return null;
+            }
+            Type[] typeArguments = ((ParameterizedType)field.getGenericType()).getActualTypeArguments();
+            if (1 != typeArguments.length || !(typeArguments[0] instanceof Class))
+            {
+                return null;
+            }
+            Class<?> elementType = (Class<?>)typeArguments[0];
+            if (!Modifier.isFinal(elementType.getModifiers()))
+            {
+                /* Elements may be of any subclass, so there is no single
+                 * cloner for them.
+                 */
+                return null;
+            }
+            try
+            {
+                return new TypedCollectionCloner(elementType, getClonerForType(elementType));
+            }
+            catch (CloningError e)
+            {
+                /* Same as for the field's own type: defer any complaints to
+                 * when an element is actually seen.
+                 */
+                return null;
+            }
+        }
+        
+        /**
+         * @return What can be told of {@link Cloner#cloneNeededForGwt(Object, Class, CloningContext)}
+         *   from the declared type of this field. Only final types tell anything, since
+         *   the field could otherwise hold a subclass of any kind.
+         */
+        GwtVerdict getGwtVerdict (Class<? extends Projection> projection)
+        {
+            Class<?> type = field.getType();
+            if (CloningDisposition.DONT_CLONE==getCloningDisposition(projection))
+            {
+                /* Only a null value gets away without a clone */
+                return type.isPrimitive() ? GwtVerdict.ALWAYS : GwtVerdict.MAYBE;
+            }
+            if (type.isPrimitive())
+            {
+                return GwtVerdict.NEVER;
+            }
+            if (null == cloner || !Modifier.isFinal(type.getModifiers()))
+            {
+                return GwtVerdict.MAYBE;
+            }
+            GwtVerdict verdict = cloner.getGwtVerdict(projection);
+            return GwtVerdict.ALWAYS == verdict ? GwtVerdict.MAYBE : verdict;
+        }
+
+        /**
+         * @return true if the values of this field can't lead back to themselves. See {@link Cloner#isAcyclic()}.
+         */
+        boolean isAcyclic ()
+        {
+            if (null != typedCollectionCloner)
+            {
+                /* Whatever collection the field holds, it is its elements
+                 * that may lead anywhere.
+                 */
+                return typedCollectionCloner.isAcyclic();
+            }
+            return typeIsAcyclic(field.getType());
         }
         
         CloningDisposition getCloningDisposition(Class<? extends Projection> projection)
         {
+            return getCloningDisposition(projectionIds.getId(projection));
+        }
+        
+        private CloningDisposition getCloningDisposition(int projectionId)
+        {
+            boolean noProjection = ProjectionIds.NO_PROJECTION==projectionId;
             if (null==cloneProjections)
             {
-                if (null!=doNotCloneProjections && (null==projection || doNotCloneProjections.isEmpty() || doNotCloneProjections.contains(projection)) )
+                if (null!=doNotCloneProjections && (noProjection || doNotCloneProjections.isEmpty() || doNotCloneProjections.get(projectionId)) )
                 {
                     return CloningDisposition.DONT_CLONE;
                 }
@@ -302,18 +416,18 @@ public class RecursiveReflexiveCloner
             }
             if (null==doNotCloneProjections)
             {
-                if (null==projection || cloneProjections.isEmpty() || cloneProjections.contains(projection))
+                if (noProjection || cloneProjections.isEmpty() || cloneProjections.get(projectionId))
                 {
                     return CloningDisposition.CLONE;
                 }
                 
                 return CloningDisposition.DONT_CARE;
             }
-            if (doNotCloneProjections.contains(projection))
+            if (ProjectionIds.contains(doNotCloneProjections, projectionId))
             {
                 return CloningDisposition.DONT_CLONE;
             }
-            if (cloneProjections.contains(projection))
+            if (ProjectionIds.contains(cloneProjections, projectionId))
             {
                 return CloningDisposition.CLONE;
             }
@@ -328,33 +442,44 @@ public class RecursiveReflexiveCloner
             return CloningDisposition.DONT_CARE;
         }
         
-        public boolean cloneNeededForGwt (Object object, Class<? extends Projection> projection, Set<Object> alreadyChecked)
+        String getName ()
+        {
+            return field.getName();
+        }
+        
+        Object get (Object object)
         {
-            Object src;
             try
             {
-                src = getter.invoke(object);
+                return getter.invoke(object, NO_ARGUMENTS);
             }
             catch (Exception e)
             {
                 throw new CloningError("Can't invoke method " + getter.getName(), e);
             }
-            if (null == src)
+        }
+        
+        void set (Object destination, Object value)
+        {
+            try
             {
-                return false;
+                setter.invoke(destination, value);
             }
-            if (CloningDisposition.DONT_CLONE==getCloningDisposition(projection))
+            catch (Exception e)
             {
-                /* If this is not supposed to be cloned, and the field is
-                 * non-null, then we must deepClone it so that GWT-RPC does
-                 * not pass this on to the client.
-                 */                
-                return true;
+                throw new CloningError("Can't invoke method " + setter.getName(), e);
             }
-            return getCloner(src).cloneNeededForGwt(src, projection, alreadyChecked);
         }
 
-        private Cloner getCloner(Object obj)
+        /**
+         * Sets the field of destination back to the default value of its type.
+         */
+        void reset (Object destination)
+        {
+            set(destination, defaultValue);
+        }
+
+        Cloner getCloner(Object obj)
         {
             Cloner cloner = this.cloner;
             if (null==cloner || !obj.getClass().equals(clonerForType))
@@ -367,78 +492,106 @@ public class RecursiveReflexiveCloner
                 {
                     throw new CloningError("Can't get cloner for object of type " + obj.getClass().getName() + " assigned to field " + field.getName(),e);
                 }
+                if (javaUtilCollectionCloner == cloner && null != typedCollectionCloner)
+                {
+                    cloner = typedCollectionCloner;
+                }
             }
             return cloner;
         }
         
-        public void clone (Object destination, Object source, Class<? extends Projection> projection, Map<Object, Object> alreadyXlated)
+        /**
+         * @return true if a clone can share a value read from this field with the original.
+         * That is always so for a deep clone, but a copy for GWT-RPC must not hand over
+         * anything that itself needs a copy.
+         */
+        boolean canBeShared (Object src, Class<? extends Projection> projection, CloningContext context)
         {
-            Object src;
-            try
+            if (null == src || !context.isForGwt())
             {
-                src = getter.invoke(source);
+                return true;
             }
-            catch (Exception e)
+            Object clone = context.getClone(src);
+            if (null != clone)
             {
-                throw new CloningError("Can't invoke method " + getter.getName(), e);
+                return src == clone;
             }
+            /* Not the context of the copy, which only knows about the objects
+             * that were checked, not how the checks turned out.
+             */
+            if (RecursiveReflexiveCloner.this.cloneNeededForGwt(getCloner(src), src, projection, context.getSharingChecks()))
+            {
+                context.forgetSharingChecks();
+                return false;
+            }
+            return true;
+        }
+
+        /**
+         * Clones a value read from this field into the destination's field.
+         * Only to be used for fields with a {@link CloningDisposition#CLONE}
+         * disposition.
+         */
+        public void clone (Object destination, Object src, Class<? extends Projection> projection, CloningContext context)
+        {
             Object newObject = null;
             if (null != src)
             {
                 Cloner cloner = getCloner(src);
                 try
                 {
-                    newObject = cloner.deepClone(src, projection, alreadyXlated);
+                    newObject = cloner.deepClone(src, projection, context);
                 }
                 catch (Exception e)
                 {
                     throw new CloningError("Can't clone field " + field.getName(), e);
                 }
             }
-            if (CloningDisposition.CLONE==getCloningDisposition(projection))
-            {
-                try
-                {
-                    setter.invoke(destination, newObject);
-                }
-                catch (Exception e)
-                {
-                    throw new CloningError("Can't invoke method " + setter.getName(), e);
-                }
-            }
+            set(destination, newObject);
         }
 
         /**
          * @param serverDestinationObject
          * @param clientSourceObject
          */
-        public void shallowCopyField (Object destination, Object source, Class<? extends Projection> projection)
+        public void shallowCopyField (Object destination, Object source, int projectionId)
+        {
+            if (isCopiedFromClient(projectionId))
+            {
+                set(destination, get(source));
+            }
+        }
+
+        /**
+         * @return true if the field is to be copied from the client for the given projection
+         */
+        boolean isCopiedFromClient (int projectionId)
         {
             if (null==copyFromClientProjections)
             {
-                return;
+                return false;
             }
-            
-            if (copyFromClientProjections.isEmpty() || copyFromClientProjections.contains(projection))
+            return copyFromClientProjections.isEmpty() || ProjectionIds.contains(copyFromClientProjections, projectionId);
+        }
+
+        /**
+         * Like {@link #shallowCopyField(Object, Object, int)}, but leaves the destination alone
+         * if its value is the same as the source's, as per the given detection.
+         * @return true if the field was copied
+         */
+        public boolean shallowCopyFieldIfChanged (Object destination, Object source, int projectionId, ChangeDetection detection)
+        {
+            if (isCopiedFromClient(projectionId))
             {
-                Object srcValue;
-                try
-                {
-                    srcValue = getter.invoke(source);
-                }
-                catch (Exception e)
-                {
-                    throw new CloningError("Can't invoke method " + getter.getName(), e);
-                }
-                try
-                {
-                    setter.invoke(destination, srcValue);
-                }
-                catch (Exception e)
+                Object value = get(source);
+                if (!isChanged(get(destination), value, detection))
                 {
-                    throw new CloningError("Can't invoke method " + setter.getName(), e);
+                    return false;
                 }
+                set(destination, value);
+                return true;
             }
+            return false;
         }
     }
 
@@ -457,8 +610,22 @@ public class RecursiveReflexiveCloner
     {
         private List<FieldAccessorClonerWrapper> cloningAccessors;
         private List<FieldAccessorClonerWrapper> copyingAccessors;
+        /* The field annotated @MergeKey, if any */
+        private FieldAccessorClonerWrapper keyAccessor;
         private final Class<?> type;
         
+        /* Null until worked out by isAcyclic() */
+        private volatile Boolean acyclic;
+        private boolean analysing;
+        
+        /* Copied on write, under the lock of cloningActions */
+        private volatile HashMap<Class<? extends Projection>, GwtVerdict> gwtVerdicts = new HashMap<Class<? extends Projection>, GwtVerdict>();
+        /* Position on the stack of getGwtVerdict(), or -1 if not on it */
+        private int verdictDepth = -1;
+        
+        /* Worked out by getPlan(), copied on write. There are only ever a few projections */
+        private volatile ClonePlan[] plans = new ClonePlan[0];
+        
         public ReflexiveCloner (Class<?> type)
         {
             this.type = type;
@@ -477,8 +644,9 @@ public class RecursiveReflexiveCloner
                     Clone clone = field.getAnnotation(Clone.class);
                     DoNotClone doNotClone = field.getAnnotation(DoNotClone.class);
                     CopyFromClient copyFromClient = field.getAnnotation(CopyFromClient.class);
+                    MergeKey mergeKey = field.getAnnotation(MergeKey.class);
 
-                    if (null==clone && null==doNotClone && null==copyFromClient)
+                    if (null==clone && null==doNotClone && null==copyFromClient && null==mergeKey)
                     {
                         continue;
                     }
@@ -509,6 +677,14 @@ public class RecursiveReflexiveCloner
                     {
                         copyingAccessors.add(wrapper);
                     }
+                    if (null!=mergeKey)
+                    {
+                        if (null!=keyAccessor)
+                        {
+                            throw new CloningError("Both " + keyAccessor.getName() + " and " + field.getName() + " of " + this.type.getName() + " are annotated @MergeKey");
+                        }
+                        keyAccessor = wrapper;
+                    }
                 }
                 
                 t = t.getSuperclass();
@@ -516,313 +692,1249 @@ public class RecursiveReflexiveCloner
             } while (null!=t);
         }
 
+        /**
+         * @return The accessor of the field of the given name that is annotated for cloning
+         * @throws CloningError There is none
+         */
+        FieldAccessorClonerWrapper getCloningAccessor (String name)
+        {
+            for (FieldAccessorClonerWrapper accessor : cloningAccessors)
+            {
+                if (accessor.getName().equals(name))
+                {
+                    return accessor;
+                }
+            }
+            throw new CloningError(type.getName() + " has no field " + name + " annotated for cloning");
+        }
+
+        /**
+         * @return The plan for the projection, worked out on first use
+         */
+        private ClonePlan getPlan (Class<? extends Projection> projection)
+        {
+            for (ClonePlan plan : plans)
+            {
+                if (projection == plan.projection)
+                {
+                    return plan;
+                }
+            }
+            synchronized(this)
+            {
+                ClonePlan[] plans = this.plans;
+                for (ClonePlan plan : plans)
+                {
+                    if (projection == plan.projection)
+                    {
+                        return plan;
+                    }
+                }
+                ClonePlan plan = new ClonePlan(projection, cloningAccessors);
+                ClonePlan[] morePlans = Arrays.copyOf(plans, plans.length + 1);
+                morePlans[plans.length] = plan;
+                this.plans = morePlans;
+                return plan;
+            }
+        }
+
         @Override
-        public boolean cloneNeededForGwt (Object object, Class<? extends Projection> projection, Set<Object> alreadyChecked)
+        public boolean cloneNeededForGwt (Object object, Class<? extends Projection> projection, CloningContext context)
         {
-            if (!alreadyChecked.add(object))
+            ClonePlan plan = getPlan(projection);
+            RecordedReads reads = newRecordedReads(context);
+            if (!context.markChecked(object, reads))
             {
                 return false;
             }
             
-            for (FieldAccessorClonerWrapper accessor : cloningAccessors)
+            try
             {
-                try
+                FieldAccessorClonerWrapper[] accessors = plan.notCloned;
+                for (int i = 0; i < accessors.length; i++)
                 {
-                    if (accessor.cloneNeededForGwt(object, projection, alreadyChecked))
+                    Object src = accessors[i].get(object);
+                    if (null != reads)
+                    {
+                        reads.record(plan.notClonedIndexes[i], src);
+                    }
+                    if (null != src)
                     {
+                        /* If this is not supposed to be cloned, and the field is
+                         * non-null, then we must deepClone it so that GWT-RPC does
+                         * not pass this on to the client.
+                         */
                         return true;
                     }
                 }
-                catch (Exception e)
+                accessors = plan.checked;
+                for (int i = 0; i < accessors.length; i++)
                 {
-                    throw new CloningError("Can't recursively evaluate " + object.getClass().getName(), e);
+                    Object src = accessors[i].get(object);
+                    if (null != reads)
+                    {
+                        reads.record(plan.checkedIndexes[i], src);
+                    }
+                    if (null != src && accessors[i].getCloner(src).checkForGwt(src, projection, context))
+                    {
+                        return true;
+                    }
                 }
             }
+            catch (Exception e)
+            {
+                throw new CloningError("Can't recursively evaluate " + object.getClass().getName(), e);
+            }
             return false;
         }
 
         @Override
-        public Object deepClone (Object source, Class<? extends Projection> projection, Map<Object, Object> alreadyXlated)
+        public Object deepClone (Object source, Class<? extends Projection> projection, CloningContext context)
         {
-            if (alreadyXlated.containsKey(source))
+            Object destination = context.getClone(source);
+            if (null != destination)
             {
-                return alreadyXlated.get(source);
+                return destination;
             }
             
-            Object destination;
+            ClonePlan plan = getPlan(projection);
+            RecordedReads reads = getRecordedReads(source, context);
+            destination = newDestination(source, context);
+
+            FieldAccessorClonerWrapper[] accessors = plan.cloned;
+            int count = plan.getClonedCount(context.getDontCarePolicy());
+            int sharedStart = plan.getSharedStart(context.getDontCarePolicy());
             try
             {
-                destination = source.getClass().newInstance();
-                alreadyXlated.put(source,destination);
+                for (int i = 0; i < count; i++)
+                {
+                    FieldAccessorClonerWrapper accessor = accessors[i];
+                    Object src = read(accessor, source, reads, plan.clonedIndexes[i]);
+                    if (i >= sharedStart && accessor.canBeShared(src, projection, context))
+                    {
+                        accessor.set(destination, src);
+                    }
+                    else
+                    {
+                        accessor.clone(destination, src, projection, context);
+                    }
+                }
             }
             catch (Exception e)
             {
-                throw new CloningError("Can't create object of type " + source.getClass().getName() + ". Did you forget to declare a public no-argument constructor?", e);
+                throw new CloningError("Can't recursively clone " + source.getClass().getName(), e);
             }
+            return destination;
+        }
 
-            for (FieldAccessorClonerWrapper accessor : cloningAccessors)
+        private RecordedReads newRecordedReads (CloningContext context)
+        {
+            if (context.isRecordingReads())
             {
-                try
-                {
-                    accessor.clone(destination, source, projection, alreadyXlated);
-                }
-                catch (Exception e)
-                {
-                    throw new CloningError("Can't recursively clone " + source.getClass().getName(), e);
-                }
+                return new RecordedReads(cloningAccessors.size());
             }
-            return destination;
+            return null;
         }
 
-        @Override
-        public void copyFromClient (Object serverDestinationObject, Object clientSourceObject, Class<? extends Projection> projection)
+        private RecordedReads getRecordedReads (Object source, CloningContext context)
         {
-            for (FieldAccessorClonerWrapper accessor : copyingAccessors)
+            if (context.isRecordingReads())
             {
-                try
-                {
-                    accessor.shallowCopyField(serverDestinationObject, clientSourceObject, projection);
-                }
-                catch (Exception e)
-                {
-                    throw new CloningError("Can't recursively clone " + serverDestinationObject.getClass().getName(), e);
-                }
+                return context.getRecordedReads(source);
             }
+            return null;
         }
-    }
 
-    private class ArrayCloner extends Cloner
-    {
-        protected Class<?> clazz;
+        /**
+         * Reads the field of the index'th cloning accessor, unless it was
+         * already read while checking source.
+         */
+        private Object read (FieldAccessorClonerWrapper accessor, Object source, RecordedReads reads, int index)
+        {
+            if (null != reads && reads.isRead(index))
+            {
+                return reads.values[index];
+            }
+            return accessor.get(source);
+        }
 
-        public ArrayCloner (Class<?> componentType)
+        private Object newDestination (Object source, CloningContext context)
         {
-            this.clazz = componentType;
+            Object destination;
+            try
+            {
+                destination = source.getClass().newInstance();
+                context.putClone(source, destination);
+            }
+            catch (Exception e)
+            {
+                throw new CloningError("Can't create object of type " + source.getClass().getName() + ". Did you forget to declare a public no-argument constructor?", e);
+            }
+            return destination;
         }
 
         @Override
-        public boolean cloneNeededForGwt (Object sourceArray, Class<? extends Projection> projection, Set<Object> alreadyChecked)
+        public boolean isRecursive ()
         {
-            if (!alreadyChecked.add(sourceArray))
+            return true;
+        }
+
+        /**
+         * True if none of the fields lead back to this type. Worked out once, by a depth
+         * first walk of the types of the fields: meeting a type that is still being walked
+         * means that there is a cycle.
+         */
+        @Override
+        public boolean isAcyclic ()
+        {
+            Boolean acyclic = this.acyclic;
+            if (null != acyclic)
             {
-                return false;
+                return acyclic;
             }
-
-            int len = Array.getLength(sourceArray);
-            for (int i = 0; i < len; i++)
+            synchronized(cloningActions)
             {
+                if (null != this.acyclic)
+                {
+                    return this.acyclic;
+                }
+                if (analysing)
+                {
+                    return false;
+                }
+                analysing = true;
                 try
                 {
-                    Object item = Array.get(sourceArray, i);
-                    if (null != item && getClonerForType(item.getClass()).cloneNeededForGwt(item, projection, alreadyChecked))
+                    boolean result = true;
+                    for (FieldAccessorClonerWrapper accessor : cloningAccessors)
                     {
-                        return true;
+                        if (!accessor.isAcyclic())
+                        {
+                            result = false;
+                            break;
+                        }
                     }
+                    this.acyclic = result;
+                    return result;
                 }
-                catch (Exception e)
+                finally
                 {
-                    throw new CloningError("Error at index " + i, e);
+                    analysing = false;
                 }
             }
-            return false;
         }
 
+        /**
+         * Worked out once per projection, from the verdicts of the fields. The types of the
+         * fields may lead back to this type, in which case the walk assumes the best of the
+         * types it is still working out. A NEVER reached that way is only kept once the
+         * walk is back to the type it relied on, which is why getGwtVerdict() tracks how far
+         * down the walk each type is, like Tarjan's algorithm does for strongly connected
+         * components.
+         */
         @Override
-        public Object deepClone (Object sourceArray, Class<? extends Projection> projection, Map<Object, Object> alreadyXlated)
+        public GwtVerdict getGwtVerdict (Class<? extends Projection> projection)
         {
-            if (alreadyXlated.containsKey(sourceArray))
+            GwtVerdict verdict = gwtVerdicts.get(projection);
+            if (null != verdict)
             {
-                return alreadyXlated.get(sourceArray);
+                return verdict;
             }
-
-            int len = Array.getLength(sourceArray);
-            Object newArray = Array.newInstance(clazz, len);
-            alreadyXlated.put(sourceArray, newArray);
-            for (int i = 0; i < len; i++)
+            synchronized(cloningActions)
             {
+                verdict = gwtVerdicts.get(projection);
+                if (null != verdict)
+                {
+                    return verdict;
+                }
+                if (0 <= verdictDepth)
+                {
+                    verdictLowLink = Math.min(verdictLowLink, verdictDepth);
+                    return GwtVerdict.NEVER;
+                }
+                int outerLowLink = verdictLowLink;
+                verdictDepth = verdictStackDepth++;
+                verdictLowLink = Integer.MAX_VALUE;
                 try
                 {
-                    Object item = Array.get(sourceArray, i);
-                    if (null == item)
+                    verdict = GwtVerdict.NEVER;
+                    for (FieldAccessorClonerWrapper accessor : cloningAccessors)
                     {
-                        Array.set(newArray, i, null);
+                        GwtVerdict fieldVerdict = accessor.getGwtVerdict(projection);
+                        if (GwtVerdict.ALWAYS == fieldVerdict)
+                        {
+                            verdict = GwtVerdict.ALWAYS;
+                            break;
+                        }
+                        if (GwtVerdict.MAYBE == fieldVerdict)
+                        {
+                            verdict = GwtVerdict.MAYBE;
+                        }
                     }
-                    else
+                    if (GwtVerdict.NEVER != verdict || verdictLowLink >= verdictDepth)
                     {
-                        Cloner cloner = getClonerForType(item.getClass());
-                        Array.set(newArray, i, cloner.deepClone(item, projection, alreadyXlated));
+                        /* Didn't rely on any type further up the walk */
+                        HashMap<Class<? extends Projection>, GwtVerdict> gwtVerdicts = new HashMap<Class<? extends Projection>, GwtVerdict>(this.gwtVerdicts);
+                        gwtVerdicts.put(projection, verdict);
+                        this.gwtVerdicts = gwtVerdicts;
+                        verdictLowLink = Integer.MAX_VALUE;
                     }
+                    return verdict;
                 }
-                catch (Exception e)
+                finally
                 {
-                    throw new CloningError("Error at index " + i, e);
+                    verdictStackDepth--;
+                    verdictDepth = -1;
+                    verdictLowLink = Math.min(outerLowLink, verdictLowLink);
                 }
             }
-            return newArray;
         }
-    }
 
-    private class JavaUtilCollectionCloner extends Cloner
-    {
         @Override
-        public boolean cloneNeededForGwt (Object object, Class<? extends Projection> projection, Set<Object> alreadyChecked)
+        public TraversalFrame checkFrame (final Object object, final Class<? extends Projection> projection, CloningContext context)
         {
-            if (!alreadyChecked.add(object))
+            final ClonePlan plan = getPlan(projection);
+            final RecordedReads reads = newRecordedReads(context);
+            if (!context.markChecked(object, reads))
             {
-                return false;
+                return null;
             }
+            return new TraversalFrame(object, null) {
+                private int i = 0;
+                private int j = 0;
 
-            Class<?> clazz = object.getClass();
-            Class<?> maximalClass = getMaximalClass(clazz);
-            if (null == maximalClass)
+                @Override
+                Object nextChild ()
+                {
+                    while (i < plan.notCloned.length)
+                    {
+                        int index = i++;
+                        Object src = plan.notCloned[index].get(object);
+                        if (null != reads)
+                        {
+                            reads.record(plan.notClonedIndexes[index], src);
+                        }
+                        if (null != src)
+                        {
+                            return CLONE_NEEDED;
+                        }
+                    }
+                    while (j < plan.checked.length)
+                    {
+                        int index = j++;
+                        FieldAccessorClonerWrapper accessor = plan.checked[index];
+                        Object src = accessor.get(object);
+                        if (null != reads)
+                        {
+                            reads.record(plan.checkedIndexes[index], src);
+                        }
+                        if (null == src)
+                        {
+                            continue;
+                        }
+                        childCloner = accessor.getCloner(src);
+                        return src;
+                    }
+                    return DONE;
+                }
+            };
+        }
+
+        @Override
+        public TraversalFrame cloneFrame (Object source, Class<? extends Projection> projection, CloningContext context)
+        {
+            /* Before the clone replaces them in the context */
+            RecordedReads reads = getRecordedReads(source, context);
+            return cloneFrame(source, newDestination(source, context), reads, projection, context);
+        }
+
+        @Override
+        public TraversalFrame cloneFrameInto (Object source, Object reuse, Class<? extends Projection> projection, CloningContext context)
+        {
+            if (reuse.getClass() != source.getClass())
             {
-                throw new CloningError(clazz.getName() + " not yet implemented");
+                return cloneFrame(source, projection, context);
             }
-            else if (!maximalClass.equals(clazz))
+            RecordedReads reads = getRecordedReads(source, context);
+            context.putClone(source, reuse);
+            /* The fields the clone doesn't fill in must not keep what the earlier clone held */
+            ClonePlan plan = getPlan(projection);
+            for (FieldAccessorClonerWrapper accessor : plan.notCloned)
             {
-                return true;
+                accessor.reset(reuse);
             }
-            else
+            for (int i = plan.getClonedCount(context.getDontCarePolicy()); i < plan.cloned.length; i++)
             {
-                for (Object o : (Collection<?>)object)
+                plan.cloned[i].reset(reuse);
+            }
+            return cloneFrame(source, reuse, reads, projection, context);
+        }
+
+        private TraversalFrame cloneFrame (final Object source, Object newObject, final RecordedReads reads, final Class<? extends Projection> projection, final CloningContext context)
+        {
+            final ClonePlan plan = getPlan(projection);
+            final int count = plan.getClonedCount(context.getDontCarePolicy());
+            final int sharedStart = plan.getSharedStart(context.getDontCarePolicy());
+            return new TraversalFrame(source, newObject) {
+                private FieldAccessorClonerWrapper accessor;
+                private int i = 0;
+
+                @Override
+                Object nextChild ()
                 {
-                    if (null!=o && getClonerForType(o.getClass()).cloneNeededForGwt(o, projection, alreadyChecked))
+                    while (i < count)
                     {
-                        return true;
+                        int index = i++;
+                        accessor = plan.cloned[index];
+                        Object src = read(accessor, source, reads, plan.clonedIndexes[index]);
+                        if (null == src)
+                        {
+                            accessor.set(destination, null);
+                            continue;
+                        }
+                        if (index >= sharedStart && accessor.canBeShared(src, projection, context))
+                        {
+                            accessor.set(destination, src);
+                            context.recordChild(source, src);
+                            continue;
+                        }
+                        childCloner = accessor.getCloner(src);
+                        return src;
                     }
+                    return DONE;
                 }
-                return false;
-            }
+
+                @Override
+                void childCloned (Object clone)
+                {
+                    accessor.set(destination, clone);
+                }
+
+                @Override
+                Object reusableChild ()
+                {
+                    return accessor.get(destination);
+                }
+
+                @Override
+                String childName ()
+                {
+                    return "." + accessor.getName();
+                }
+            };
         }
 
-        @SuppressWarnings("unchecked")
         @Override
-        public Object deepClone (Object source, Class<? extends Projection> projection, Map<Object, Object> alreadyXlated)
+        public void copyFromClient (Object serverDestinationObject, Object clientSourceObject, Class<? extends Projection> projection)
         {
-            if (alreadyXlated.containsKey(source))
+            int projectionId = projectionIds.getId(projection);
+            for (FieldAccessorClonerWrapper accessor : copyingAccessors)
             {
-                return alreadyXlated.get(source);
+                try
+                {
+                    accessor.shallowCopyField(serverDestinationObject, clientSourceObject, projectionId);
+                }
+                catch (Exception e)
+                {
+                    throw new CloningError("Can't recursively clone " + serverDestinationObject.getClass().getName(), e);
+                }
             }
-            
-            @SuppressWarnings("rawtypes")
-            Class<? extends Collection> clazz = getMaximalClass(source.getClass());
-            if (null == clazz)
+        }
+
+        @Override
+        public Set<String> copyChangedFromClient (Object serverDestinationObject, Object clientSourceObject, Class<? extends Projection> projection, ChangeDetection detection)
+        {
+            int projectionId = projectionIds.getId(projection);
+            Set<String> changed = null;
+            for (FieldAccessorClonerWrapper accessor : copyingAccessors)
             {
-                throw new CloningError(source.getClass().getName() + " not yet implemented");
+                try
+                {
+                    if (accessor.shallowCopyFieldIfChanged(serverDestinationObject, clientSourceObject, projectionId, detection))
+                    {
+                        if (null == changed)
+                        {
+                            changed = new LinkedHashSet<String>();
+                        }
+                        changed.add(accessor.getName());
+                    }
+                }
+                catch (Exception e)
+                {
+                    throw new CloningError("Can't recursively clone " + serverDestinationObject.getClass().getName(), e);
+                }
             }
-            Collection<Object> newObject;
-            try
+            if (null == changed)
             {
-                newObject = clazz.newInstance();
-                alreadyXlated.put(source, newObject);
+                return Collections.emptySet();
             }
-            catch (Exception e)
+            return changed;
+        }
+    }
+
+    private class ArrayCloner extends Cloner
+    {
+        protected Class<?> clazz;
+
+        public ArrayCloner (Class<?> componentType)
+        {
+            this.clazz = componentType;
+        }
+
+        @Override
+        public boolean cloneNeededForGwt (Object sourceArray, Class<? extends Projection> projection, CloningContext context)
+        {
+            if (!context.markChecked(sourceArray))
             {
-                throw new CloningError("Can't instantiate " + clazz.getName(), e);
+                return false;
             }
-            for (Object o : (Collection<?>)source)
+
+            int len = Array.getLength(sourceArray);
+            for (int i = 0; i < len; i++)
             {
-                if (null == o)
+                try
                 {
-                    newObject.add(null);
+                    Object item = Array.get(sourceArray, i);
+                    if (null != item && getClonerForType(item.getClass()).checkForGwt(item, projection, context))
+                    {
+                        return true;
+                    }
                 }
-                else
+                catch (Exception e)
                 {
-                    newObject.add(getClonerForType(o.getClass()).deepClone(o, projection, alreadyXlated));
+                    throw new CloningError("Error at index " + i, e);
                 }
             }
-            return newObject;
+            return false;
         }
 
-        @SuppressWarnings("rawtypes")
-        private Class<? extends Collection> getMaximalClass (Class<?> clazz)
+        @Override
+        public Object deepClone (Object sourceArray, Class<? extends Projection> projection, CloningContext context)
         {
-            // TODO add more cases
-            if (HashSet.class.isAssignableFrom(clazz))
+            Object newArray = context.getClone(sourceArray);
+            if (null != newArray)
             {
-                return (Class<? extends Collection>)HashSet.class;
-            }
-            if (LinkedList.class.isAssignableFrom(clazz))
-            {
-                return (Class<? extends Collection>)LinkedList.class;
+                return newArray;
             }
-            if (TreeSet.class.isAssignableFrom(clazz))
+
+            int len = Array.getLength(sourceArray);
+            newArray = Array.newInstance(clazz, len);
+            context.putClone(sourceArray, newArray);
+            for (int i = 0; i < len; i++)
             {
-                return (Class<? extends Collection>)TreeSet.class;
+                try
+                {
+                    Object item = Array.get(sourceArray, i);
+                    if (null == item)
+                    {
+                        Array.set(newArray, i, null);
+                    }
+                    else
+                    {
+                        Cloner cloner = getClonerForType(item.getClass());
+                        Array.set(newArray, i, cloner.deepClone(item, projection, context));
+                    }
+                }
+                catch (Exception e)
+                {
+                    throw new CloningError("Error at index " + i, e);
+                }
             }
-            return null;
+            return newArray;
         }
-    }
 
-    private class SimpleArrayCloner extends ArrayCloner
-    {
-        public SimpleArrayCloner (Class<?> componentType, Cloner clonerForType)
+        @Override
+        public boolean isRecursive ()
         {
-            super(componentType);
+            return true;
         }
 
         @Override
-        public boolean cloneNeededForGwt (Object object, Class<? extends Projection> projection, Set<Object> alreadyChecked)
+        public boolean isAcyclic ()
         {
-            return false;
+            return typeIsAcyclic(clazz);
         }
-    }
 
-    private class ImmutableTypeCloner extends Cloner
-    {
         @Override
-        public boolean cloneNeededForGwt (Object object, Class<? extends Projection> projection, Set<Object> alreadyChecked)
+        public GwtVerdict getGwtVerdict (Class<? extends Projection> projection)
         {
-            return false;
+            if (!Modifier.isFinal(clazz.getModifiers()))
+            {
+                return GwtVerdict.MAYBE;
+            }
+            GwtVerdict verdict;
+            try
+            {
+                verdict = getClonerForType(clazz).getGwtVerdict(projection);
+            }
+            catch (CloningError e)
+            {
+                /* Leave it to the check to complain about the items, if any */
+                return GwtVerdict.MAYBE;
+            }
+            /* The array may be empty, or hold nulls */
+            return GwtVerdict.ALWAYS == verdict ? GwtVerdict.MAYBE : verdict;
         }
 
         @Override
-        public Object deepClone (Object source, Class<? extends Projection> projection, Map<Object, Object> alreadyXlated)
+        public TraversalFrame checkFrame (final Object sourceArray, Class<? extends Projection> projection, CloningContext context)
         {
-            return source;
+            if (!context.markChecked(sourceArray))
+            {
+                return null;
+            }
+            final int len = Array.getLength(sourceArray);
+            return new TraversalFrame(sourceArray, null) {
+                private int i = 0;
+
+                @Override
+                Object nextChild ()
+                {
+                    while (i < len)
+                    {
+                        Object item = Array.get(sourceArray, i++);
+                        if (null != item)
+                        {
+                            childCloner = getClonerForType(item.getClass());
+                            return item;
+                        }
+                    }
+                    return DONE;
+                }
+            };
         }
-    }
 
-    private class DateCloner extends Cloner
-    {
         @Override
-        public boolean cloneNeededForGwt (Object object, Class<? extends Projection> projection, Set<Object> alreadyChecked)
+        public TraversalFrame cloneFrame (Object sourceArray, Class<? extends Projection> projection, CloningContext context)
         {
-            return false;
+            Object newArray = Array.newInstance(clazz, Array.getLength(sourceArray));
+            context.putClone(sourceArray, newArray);
+            return cloneFrame(sourceArray, newArray, false);
         }
 
         @Override
-        public Object deepClone (Object source, Class<? extends Projection> projection, Map<Object, Object> alreadyXlated)
+        public TraversalFrame cloneFrameInto (Object sourceArray, Object reuse, Class<? extends Projection> projection, CloningContext context)
         {
-            return new Date(((Date)source).getTime());
+            if (!isReusable(sourceArray, reuse))
+            {
+                return cloneFrame(sourceArray, projection, context);
+            }
+            context.putClone(sourceArray, reuse);
+            return cloneFrame(sourceArray, reuse, true);
         }
-    }
 
-    private final HashSet<Class<?>> immutableTypes;
-    
-    private ImmutableTypeCloner immutableTypeCloner = new ImmutableTypeCloner();
-    private DateCloner dateCloner = new DateCloner();
-    private JavaUtilCollectionCloner javaUtilCollectionCloner = new JavaUtilCollectionCloner();
+        /**
+         * @return true if reuse is an array that the clone of sourceArray can be copied into
+         */
+        protected boolean isReusable (Object sourceArray, Object reuse)
+        {
+            Class<?> componentType = reuse.getClass().getComponentType();
+            return clazz == componentType && Array.getLength(sourceArray) == Array.getLength(reuse);
+        }
 
-    private volatile HashMap<Class<?>, Cloner> cloningActions = new HashMap<Class<?>, Cloner>();
+        /**
+         * @param reused true if newArray is left over from an earlier clone, and so may hold anything
+         */
+        private TraversalFrame cloneFrame (final Object sourceArray, Object newArray, final boolean reused)
+        {
+            final int len = Array.getLength(sourceArray);
+            return new TraversalFrame(sourceArray, newArray) {
+                private int i = 0;
 
-    public RecursiveReflexiveCloner ()
-    {
-        this(null);
+                @Override
+                Object nextChild ()
+                {
+                    while (i < len)
+                    {
+                        Object item = Array.get(sourceArray, i++);
+                        if (null != item)
+                        {
+                            childCloner = getClonerForType(item.getClass());
+                            return item;
+                        }
+                        if (reused)
+                        {
+                            Array.set(destination, i-1, null);
+                        }
+                    }
+                    return DONE;
+                }
+
+                @Override
+                Object reusableChild ()
+                {
+                    return Array.get(destination, i-1);
+                }
+
+                @Override
+                void childCloned (Object clone)
+                {
+                    Array.set(destination, i-1, clone);
+                }
+
+                @Override
+                String childName ()
+                {
+                    return "[" + (i-1) + "]";
+                }
+            };
+        }
     }
 
-    public RecursiveReflexiveCloner(HashSet<Class<?>> immutableTypes)
+    private class JavaUtilCollectionCloner extends Cloner
     {
-        if (null==immutableTypes)
+        @Override
+        public boolean cloneNeededForGwt (Object object, Class<? extends Projection> projection, CloningContext context)
         {
-            this.immutableTypes = new HashSet<Class<?>>();
+            if (!context.markChecked(object))
+            {
+                return false;
+            }
+
+            if (isNotMaximal(object))
+            {
+                return true;
+            }
+            else
+            {
+                Collection<?> collection = (Collection<?>)object;
+                if (elementsAreImmutable(collection))
+                {
+                    return false;
+                }
+                for (Object o : collection)
+                {
+                    if (null!=o && getElementCloner(o, context).checkForGwt(o, projection, context))
+                    {
+                        return true;
+                    }
+                }
+                return false;
+            }
         }
-        else
+
+        @Override
+        public Object deepClone (Object source, Class<? extends Projection> projection, CloningContext context)
         {
-            this.immutableTypes = new HashSet<Class<?>>(immutableTypes);
-        }
-        this.immutableTypes.add(String.class);
-        this.immutableTypes.add(Byte.class);
+            Object clone = context.getClone(source);
+            if (null != clone)
+            {
+                return clone;
+            }
+            
+            Collection<Object> newObject = newDestination(source, context);
+            Collection<?> sourceCollection = (Collection<?>)source;
+            if (elementsAreImmutable(sourceCollection))
+            {
+                /* Immutable elements are shared rather than cloned, so we
+                 * can hand the whole collection over in one go.
+                 */
+                newObject.addAll(sourceCollection);
+                return newObject;
+            }
+            for (Object o : sourceCollection)
+            {
+                if (null == o)
+                {
+                    newObject.add(null);
+                }
+                else
+                {
+                    newObject.add(getElementCloner(o, context).deepClone(o, projection, context));
+                }
+            }
+            return newObject;
+        }
+
+        @Override
+        public boolean isRecursive ()
+        {
+            return true;
+        }
+
+        @Override
+        public boolean isAcyclic ()
+        {
+            /* The elements may be of any type */
+            return false;
+        }
+
+        @Override
+        public TraversalFrame checkFrame (final Object object, Class<? extends Projection> projection, CloningContext context)
+        {
+            if (!context.markChecked(object))
+            {
+                return null;
+            }
+            return new TraversalFrame(object, null) {
+                private boolean classChecked;
+                private Iterator<?> iterator;
+
+                @Override
+                Object nextChild ()
+                {
+                    if (!classChecked)
+                    {
+                        classChecked = true;
+                        if (isNotMaximal(object))
+                        {
+                            return CLONE_NEEDED;
+                        }
+                    }
+                    if (null == iterator)
+                    {
+                        Collection<?> collection = (Collection<?>)object;
+                        if (elementsAreImmutable(collection))
+                        {
+                            return DONE;
+                        }
+                        iterator = collection.iterator();
+                    }
+                    while (iterator.hasNext())
+                    {
+                        Object o = iterator.next();
+                        if (null != o)
+                        {
+                            childCloner = getElementCloner(o, context);
+                            return o;
+                        }
+                    }
+                    return DONE;
+                }
+            };
+        }
+
+        @Override
+        public TraversalFrame cloneFrame (Object source, Class<? extends Projection> projection, CloningContext context)
+        {
+            return cloneFrame(source, newDestination(source, context), false, context);
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public TraversalFrame cloneFrameInto (Object source, Object reuse, Class<? extends Projection> projection, CloningContext context)
+        {
+            if (reuse.getClass() != getMaximalClass(source.getClass()))
+            {
+                return cloneFrame(source, projection, context);
+            }
+            context.putClone(source, reuse);
+            return cloneFrame(source, (Collection<Object>)reuse, true, context);
+        }
+
+        /**
+         * @param reused true if newObject is left over from an earlier clone, and so must be emptied first
+         */
+        private TraversalFrame cloneFrame (final Object source, final Collection<Object> newObject, final boolean reused, final CloningContext context)
+        {
+            return new TraversalFrame(source, newObject) {
+                private Iterator<?> iterator;
+                /* The position of the child most recently handed out */
+                private int index = -1;
+                /* What newObject held before being reused, in order, if its elements can be reused */
+                private Object[] oldElements;
+
+                @Override
+                Object nextChild ()
+                {
+                    if (null == iterator)
+                    {
+                        Collection<?> sourceCollection = (Collection<?>)source;
+                        if (elementsAreImmutable(sourceCollection))
+                        {
+                            if (reused)
+                            {
+                                newObject.clear();
+                            }
+                            newObject.addAll(sourceCollection);
+                            return DONE;
+                        }
+                        if (reused)
+                        {
+                            oldElements = newObject.toArray();
+                            newObject.clear();
+                        }
+                        iterator = sourceCollection.iterator();
+                    }
+                    while (iterator.hasNext())
+                    {
+                        Object o = iterator.next();
+                        index++;
+                        if (null == o)
+                        {
+                            newObject.add(null);
+                        }
+                        else
+                        {
+                            childCloner = getElementCloner(o, context);
+                            return o;
+                        }
+                    }
+                    return DONE;
+                }
+
+                @Override
+                void childCloned (Object clone)
+                {
+                    newObject.add(clone);
+                }
+
+                @Override
+                void childDropped ()
+                {
+                    /* Left out rather than added as null, which not all collections accept */
+                }
+
+                @Override
+                Object reusableChild ()
+                {
+                    return null != oldElements && index < oldElements.length ? oldElements[index] : null;
+                }
+
+                @Override
+                String childName ()
+                {
+                    return "[" + index + "]";
+                }
+
+                @Override
+                boolean acceptsIncompleteChildren ()
+                {
+                    /* Sets hash or compare their elements as they are added */
+                    return !(newObject instanceof Set);
+                }
+            };
+        }
+
+        private boolean isNotMaximal (Object object)
+        {
+            Class<?> clazz = object.getClass();
+            Class<?> maximalClass = getMaximalClass(clazz);
+            if (null == maximalClass)
+            {
+                throw new CloningError(clazz.getName() + " not yet implemented");
+            }
+            return !maximalClass.equals(clazz);
+        }
+
+        @SuppressWarnings("unchecked")
+        private Collection<Object> newDestination (Object source, CloningContext context)
+        {
+            @SuppressWarnings("rawtypes")
+            Class<? extends Collection> clazz = getMaximalClass(source.getClass());
+            if (null == clazz)
+            {
+                throw new CloningError(source.getClass().getName() + " not yet implemented");
+            }
+            Collection<Object> newObject;
+            try
+            {
+                newObject = clazz.newInstance();
+                context.putClone(source, newObject);
+            }
+            catch (Exception e)
+            {
+                throw new CloningError("Can't instantiate " + clazz.getName(), e);
+            }
+            return newObject;
+        }
+
+        /**
+         * Returns true if every non-null element of the collection is of an
+         * immutable type. Collections tend to be homogeneous, so we only
+         * consult the immutable types when the element class changes.
+         */
+        protected boolean elementsAreImmutable (Collection<?> collection)
+        {
+            Class<?> lastImmutableClass = null;
+            for (Object o : collection)
+            {
+                if (null == o)
+                {
+                    continue;
+                }
+                Class<?> clazz = o.getClass();
+                if (clazz != lastImmutableClass)
+                {
+                    if (!typeIsImmutable(clazz))
+                    {
+                        return false;
+                    }
+                    lastImmutableClass = clazz;
+                }
+            }
+            return true;
+        }
+
+        protected Cloner getElementCloner (Object element, CloningContext context)
+        {
+            return getClonerForType(element.getClass());
+        }
+
+        @SuppressWarnings("rawtypes")
+        private Class<? extends Collection> getMaximalClass (Class<?> clazz)
+        {
+            // TODO add more cases
+            if (HashSet.class.isAssignableFrom(clazz))
+            {
+                return (Class<? extends Collection>)HashSet.class;
+            }
+            if (LinkedList.class.isAssignableFrom(clazz))
+            {
+                return (Class<? extends Collection>)LinkedList.class;
+            }
+            if (TreeSet.class.isAssignableFrom(clazz))
+            {
+                return (Class<? extends Collection>)TreeSet.class;
+            }
+            return null;
+        }
+    }
+
+    /**
+     * A {@link JavaUtilCollectionCloner} for collections whose element type is
+     * known from the generic signature of the field holding them, e.g.
+     * <code>LinkedList&lt;Integer&gt;</code>. The element type must be final,
+     * so that every element is of exactly that type and the element cloner
+     * can be resolved up front instead of once per element.
+     */
+    private class TypedCollectionCloner extends JavaUtilCollectionCloner
+    {
+        private final Class<?> elementType;
+        private final Cloner elementCloner;
+
+        public TypedCollectionCloner (Class<?> elementType, Cloner elementCloner)
+        {
+            this.elementType = elementType;
+            this.elementCloner = elementCloner;
+        }
+
+        /**
+         * The element type is final, so every element of a well typed collection is of
+         * exactly that type, which takes a mere comparison to check. An element of any other
+         * type, sneaked in through a raw type, is looked up as for any collection.
+         */
+        @Override
+        protected boolean elementsAreImmutable (Collection<?> collection)
+        {
+            if (elementCloner != immutableTypeCloner)
+            {
+                return false;
+            }
+            for (Object o : collection)
+            {
+                if (null != o && o.getClass() != elementType)
+                {
+                    return super.elementsAreImmutable(collection);
+                }
+            }
+            return true;
+        }
+
+        /**
+         * Again, only true of well typed collections. An element of any other type may lead
+         * anywhere, so a clone that relies on this and doesn't track identities gives up on it,
+         * see {@link #getElementCloner(Object, CloningContext)}.
+         */
+        @Override
+        public boolean isAcyclic ()
+        {
+            return typeIsAcyclic(elementType);
+        }
+
+        @Override
+        protected Cloner getElementCloner (Object element, CloningContext context)
+        {
+            if (element.getClass() == elementType)
+            {
+                return elementCloner;
+            }
+            Cloner cloner = super.getElementCloner(element, context);
+            if (immutableTypeCloner != cloner && !context.isTrackingIdentities())
+            {
+                throw new UntypedElementError(element.getClass().getName() + " in a collection of " + elementType.getName());
+            }
+            return cloner;
+        }
+    }
+
+    private class SimpleArrayCloner extends ArrayCloner
+    {
+        public SimpleArrayCloner (Class<?> componentType, Cloner clonerForType)
+        {
+            super(componentType);
+        }
+
+        @Override
+        public boolean isRecursive ()
+        {
+            /* The items are immutable, so deepClone() doesn't go any deeper */
+            return false;
+        }
+
+        @Override
+        public Object deepCloneInto (Object sourceArray, Object reuse, Class<? extends Projection> projection, CloningContext context)
+        {
+            Object newArray = context.getClone(sourceArray);
+            if (null != newArray)
+            {
+                return newArray;
+            }
+            if (!isReusable(sourceArray, reuse))
+            {
+                return deepClone(sourceArray, projection, context);
+            }
+            /* The items are immutable, so they can be copied over as they are */
+            System.arraycopy(sourceArray, 0, reuse, 0, Array.getLength(sourceArray));
+            context.putClone(sourceArray, reuse);
+            return reuse;
+        }
+
+        @Override
+        public GwtVerdict getGwtVerdict (Class<? extends Projection> projection)
+        {
+            return GwtVerdict.NEVER;
+        }
+
+        @Override
+        public boolean cloneNeededForGwt (Object object, Class<? extends Projection> projection, CloningContext context)
+        {
+            return false;
+        }
+    }
+
+    private class ImmutableTypeCloner extends Cloner
+    {
+        @Override
+        public GwtVerdict getGwtVerdict (Class<? extends Projection> projection)
+        {
+            return GwtVerdict.NEVER;
+        }
+
+
+        @Override
+        public boolean cloneNeededForGwt (Object object, Class<? extends Projection> projection, CloningContext context)
+        {
+            return false;
+        }
+
+        @Override
+        public Object deepClone (Object source, Class<? extends Projection> projection, CloningContext context)
+        {
+            return source;
+        }
+    }
+
+    private class DateCloner extends Cloner
+    {
+        @Override
+        public GwtVerdict getGwtVerdict (Class<? extends Projection> projection)
+        {
+            return GwtVerdict.NEVER;
+        }
+
+
+        @Override
+        public boolean cloneNeededForGwt (Object object, Class<? extends Projection> projection, CloningContext context)
+        {
+            return false;
+        }
+
+        @Override
+        public Object deepClone (Object source, Class<? extends Projection> projection, CloningContext context)
+        {
+            return new Date(((Date)source).getTime());
+        }
+
+        @Override
+        public Object deepCloneInto (Object source, Object reuse, Class<? extends Projection> projection, CloningContext context)
+        {
+            if (Date.class != reuse.getClass())
+            {
+                return deepClone(source, projection, context);
+            }
+            ((Date)reuse).setTime(((Date)source).getTime());
+            return reuse;
+        }
+    }
+
+    /**
+     * Thrown by a clone that doesn't track identities on meeting an element that the generic
+     * type of its collection rules out, and that could thus lead back to an object already
+     * cloned. See {@link RecursiveReflexiveCloner#deepCloneTree(Object, Class)}.
+     */
+    @SuppressWarnings("serial")
+    private static final class UntypedElementError extends CloningError
+    {
+        UntypedElementError (String msg)
+        {
+            super(msg);
+        }
+    }
+
+    /* Passed to every getter, rather than a new empty array on every call */
+    private static final Object[] NO_ARGUMENTS = new Object[0];
+
+    private final HashSet<Class<?>> immutableTypes;
+    
+    private final ProjectionIds projectionIds = new ProjectionIds();
+    
+    private ImmutableTypeCloner immutableTypeCloner = new ImmutableTypeCloner();
+    private DateCloner dateCloner = new DateCloner();
+    private JavaUtilCollectionCloner javaUtilCollectionCloner = new JavaUtilCollectionCloner();
+
+    private volatile HashMap<Class<?>, Cloner> cloningActions = new HashMap<Class<?>, Cloner>();
+
+    private volatile TraversalEngine traversalEngine = TraversalEngine.RECURSIVE;
+
+    private volatile GwtCopyMode gwtCopyMode = GwtCopyMode.CHECK_THEN_CLONE;
+
+    private volatile DontCarePolicy dontCarePolicy = DontCarePolicy.DROP;
+
+    private volatile boolean pooledContexts = false;
+
+    private volatile CloneCache cloneCache;
+
+    /* Copied on write, see setChangeComparator() */
+    private volatile HashMap<Class<?>, Comparator<Object>> changeComparators = new HashMap<Class<?>, Comparator<Object>>();
+
+    /* State of ReflexiveCloner.getGwtVerdict(), guarded by the lock of cloningActions */
+    private int verdictStackDepth;
+    private int verdictLowLink = Integer.MAX_VALUE;
+    
+    private final ThreadLocal<IterativeTraversal> iterativeTraversals = new ThreadLocal<IterativeTraversal>() {
+        @Override
+        protected IterativeTraversal initialValue ()
+        {
+            return new IterativeTraversal();
+        }
+    };
+
+    private final ThreadLocal<CloningContext> cloningContexts = new ThreadLocal<CloningContext>() {
+        @Override
+        protected CloningContext initialValue ()
+        {
+            return new CloningContext(DontCarePolicy.DROP, false, false, true);
+        }
+    };
+
+    public RecursiveReflexiveCloner ()
+    {
+        this(null);
+    }
+
+    public RecursiveReflexiveCloner(HashSet<Class<?>> immutableTypes)
+    {
+        if (null==immutableTypes)
+        {
+            this.immutableTypes = new HashSet<Class<?>>();
+        }
+        else
+        {
+            this.immutableTypes = new HashSet<Class<?>>(immutableTypes);
+        }
+        this.immutableTypes.add(String.class);
+        this.immutableTypes.add(Byte.class);
         this.immutableTypes.add(Character.class);
         this.immutableTypes.add(Short.class);
         this.immutableTypes.add(Integer.class);
@@ -831,61 +1943,779 @@ public class RecursiveReflexiveCloner
         this.immutableTypes.add(Double.class);
         this.immutableTypes.add(Boolean.class);
     }
-    
+    
+    /**
+     * @return The engine used to walk object graphs. Defaults to {@link TraversalEngine#RECURSIVE}.
+     */
+    public TraversalEngine getTraversalEngine ()
+    {
+        return traversalEngine;
+    }
+
+    /**
+     * Selects the engine used to walk object graphs. Use {@link TraversalEngine#ITERATIVE} if
+     * the graphs being cloned can be deep enough to overflow the stack. Both engines produce
+     * the same results.
+     */
+    public void setTraversalEngine (TraversalEngine traversalEngine)
+    {
+        if (null == traversalEngine)
+        {
+            throw new NullPointerException("traversalEngine cannot be null");
+        }
+        this.traversalEngine = traversalEngine;
+    }
+    
+    /**
+     * @return How {@link #copyForGwtRpcIfNeeded(Object, Class)} works. Defaults to {@link GwtCopyMode#CHECK_THEN_CLONE}.
+     */
+    public GwtCopyMode getGwtCopyMode ()
+    {
+        return gwtCopyMode;
+    }
+
+    /**
+     * Selects how {@link #copyForGwtRpcIfNeeded(Object, Class)} works. All modes produce
+     * the same results; they differ in how much work is done when a copy is needed.
+     */
+    public void setGwtCopyMode (GwtCopyMode gwtCopyMode)
+    {
+        if (null == gwtCopyMode)
+        {
+            throw new NullPointerException("gwtCopyMode cannot be null");
+        }
+        this.gwtCopyMode = gwtCopyMode;
+    }
+    
+    /**
+     * @return What clones hold in fields with a {@link CloningDisposition#DONT_CARE} disposition.
+     * Defaults to {@link DontCarePolicy#DROP}.
+     */
+    public DontCarePolicy getDontCarePolicy ()
+    {
+        return dontCarePolicy;
+    }
+
+    /**
+     * Selects what clones hold in fields that the annotations neither clone nor leave out
+     * for the projection used. Can be overridden per call, see {@link #deepClone(Object, Class, DontCarePolicy)}
+     * and {@link #copyForGwtRpcIfNeeded(Object, Class, DontCarePolicy)}.
+     */
+    public void setDontCarePolicy (DontCarePolicy dontCarePolicy)
+    {
+        if (null == dontCarePolicy)
+        {
+            throw new NullPointerException("dontCarePolicy cannot be null");
+        }
+        this.dontCarePolicy = dontCarePolicy;
+    }
+    
+    /**
+     * @return true if the state of each call is kept in a per-thread context that is reused
+     * from call to call. Defaults to false.
+     */
+    public boolean isPooledContexts ()
+    {
+        return pooledContexts;
+    }
+
+    /**
+     * <p>
+     * Selects whether the state of each call, i.e. what has been checked and cloned so far,
+     * is kept in a context that each thread reuses from call to call, rather than in a new
+     * one for every call. A reused context is cleared once a call is done, but its memory
+     * is kept for the next call, which saves the garbage collector from seeing it over and
+     * over again.
+     * </p><p>
+     * The memory of a thread's context is never given back, and is as large as needed by the
+     * largest graph the thread has cloned. Calls made while another is in progress on the same
+     * thread get a context of their own, as if contexts were not pooled.
+     * </p>
+     */
+    public void setPooledContexts (boolean pooledContexts)
+    {
+        this.pooledContexts = pooledContexts;
+    }
+    
+    /**
+     * @return The cache that copies for GWT-RPC are made through, or null if there is none,
+     * which is the default.
+     */
+    public CloneCache getCloneCache ()
+    {
+        return cloneCache;
+    }
+
+    /**
+     * <p>
+     * Makes {@link #copyForGwtRpcIfNeeded(Object, Class, DontCarePolicy)} go through the given
+     * cache, or through none if null. An object copied before is then not copied again, and the
+     * copy made the first time is handed out instead, until the object, or an object it reaches,
+     * is invalidated. See {@link CloneCache}.
+     * </p><p>
+     * Copies made through a cache are traversed iteratively, and checked as in
+     * {@link GwtCopyMode#CHECK_THEN_CLONE}, or in parallel in {@link GwtCopyMode#PARALLEL_CHECK}.
+     * They are never partial. The other calls do not use the cache.
+     * </p>
+     */
+    public void setCloneCache (CloneCache cloneCache)
+    {
+        this.cloneCache = cloneCache;
+    }
+
+    /**
+     * Like {@link #copyForGwtRpcIfNeeded(Object, Class)}, with a null projection.
+     */
+    public <T> T copyForGwtRpcIfNeeded (T source)
+    {
+        return copyForGwtRpcIfNeeded(source, null);
+    }
+
+    /**
+     * <p>
+     * Given an object, makes a clone of it in preparation for serialization by GWT
+     * as response to an RPC call. This method uses reflection to walk the object's
+     * members and clone them recursively if needed. The original object graph is never
+     * modified.
+     * </p><p>
+     * This function can make a deep clone if needed. However, in some cases, we know
+     * that the original object is good enough. For instance, since the object is going to
+     * be returned as the response of a GWT-RPC call, a deep clone might be
+     * wasteful since GWT-RPC is going to read the object (no writes) and serialize it
+     * anyway. In this case, we do want some data structures simplified. For
+     * instance, some ORMs will replace every {@link LinkedList} with a subclasses
+     * that loads items for the database lazily. GWT-RPC can serialize a {@link LinkedList},
+     * but not its subclasses. This routine will clone these sub-classed
+     * {@link LinkedList}s into {@link LinkedList}s, for which, it will have to make a
+     * deep clone, since the original objects cannot be modified as per the API definition
+     * of this function.
+     * </p>
+     * A clone for GWT-RPC may or may not actually copy items over. i.e. it may be that:
+     * <pre>
+     * Object orig;
+     * Object clone = deepClone(orig);
+     * clone==deepClone(orig)
+     * </pre>
+     * is false, although it generally will be true.
+     * <p>
+     * Note that only fields marked with {@link Clone} are cloned. Thus, any other fields may or may not
+     * be null.
+     * </p><p>
+     * Also note that in the case of a clone for GWT, by default, either the original object is deemed
+     * GWT serializable and returned as is, or a deep copy is made. Partial copies that weave
+     * GWT serializable parts of the original object graph with copies of the non GWT
+     * serializable parts of the original graph are only made in {@link GwtCopyMode#PARTIAL}.
+     * See {@link #setGwtCopyMode(GwtCopyMode)}.
+     * </p><p>
+     * Note that some Immutable objects (as defined above) are reused as is without a copy being created,
+     * since they can't be modified.  
+     * </p>
+     * @param <T>
+     * @param source
+     * @param projection The projection to apply. See {@link RecursiveReflexiveCloner}
+     * @return The clone
+     * @throws CloningError The object is not clonable for some reason
+     */
+    public <T> T copyForGwtRpcIfNeeded (T source, Class<? extends Projection> projection)
+    {
+        return copyForGwtRpcIfNeeded(source, projection, dontCarePolicy);
+    }
+
+    /**
+     * Like {@link #copyForGwtRpcIfNeeded(Object, Class)}, with the given policy for fields
+     * with a {@link CloningDisposition#DONT_CARE} disposition instead of the one set on this
+     * cloner.
+     * <p>
+     * Whatever the policy, a value held in such a field is checked like any other, since the
+     * original object is returned as is if no copy is needed.
+     * </p>
+     */
+    public <T> T copyForGwtRpcIfNeeded (T source, Class<? extends Projection> projection, DontCarePolicy dontCarePolicy)
+    {
+        if (null == dontCarePolicy)
+        {
+            throw new NullPointerException("dontCarePolicy cannot be null");
+        }
+        if (null == source)
+        {
+            return null;
+        }
+        
+        CloneCache cache = cloneCache;
+        if (null != cache)
+        {
+            @SuppressWarnings("unchecked")
+            T copy = (T)copyForGwtRpcIfNeeded(source, projection, dontCarePolicy, cache);
+            return copy;
+        }
+
+        Class<? extends Object> type = source.getClass();
+        
+        Cloner cloner = getClonerForType(type);
+
+        GwtCopyMode mode = gwtCopyMode;
+        CloningContext context = newContext(dontCarePolicy, true, GwtCopyMode.SINGLE_PASS == mode, true);
+        try
+        {
+            @SuppressWarnings("unchecked")
+            T clone = (T) copyForGwtRpcIfNeeded(cloner, source, projection, mode, context);
+            
+            return clone;
+        }
+        finally
+        {
+            context.release();
+        }
+    }
+
+    /**
+     * Copies a non-null source for GWT-RPC through a cache. The copy is made as in a session,
+     * see {@link #copyForGwtRpcIfNeeded(Object, Class, CloningContext)}, whose context reuses
+     * and adds to the copies of the cache. Only copies that are not known yet take the lock of
+     * the cache.
+     */
+    private Object copyForGwtRpcIfNeeded (Object source, Class<? extends Projection> projection, DontCarePolicy dontCarePolicy, CloneCache cache)
+    {
+        CloneTable table = cache.getTable(dontCarePolicy, projection);
+        Object copy = table.get(source);
+        if (null != copy)
+        {
+            return copy;
+        }
+        synchronized (cache)
+        {
+            /* Another thread may have copied it meanwhile */
+            copy = table.get(source);
+            if (null != copy)
+            {
+                return copy;
+            }
+            CloningContext context = newContext(dontCarePolicy, true, false, true);
+            try
+            {
+                context.setCache(table);
+                context.setSession(context);
+                copy = copyForGwtRpcIfNeeded(source, projection, context);
+                context.cacheClones();
+                return copy;
+            }
+            finally
+            {
+                context.release();
+            }
+        }
+    }
+
+    /**
+     * Like {@link #copyForGwtRpcIfNeededAll(Collection, Class, boolean)}, with a null projection
+     * and no sharing of copies between the sources.
+     */
+    public <T> List<T> copyForGwtRpcIfNeededAll (Collection<? extends T> sources)
+    {
+        return copyForGwtRpcIfNeededAll(sources, null, false);
+    }
+
+    /**
+     * <p>
+     * Like calling {@link #copyForGwtRpcIfNeeded(Object, Class)} on each of the sources, but
+     * cheaper for many sources: cloners are looked up once per run of sources of the same
+     * class, and the memory used to track the objects of each source is reused for the next.
+     * Use {@link Arrays#asList(Object...)} for an array of sources.
+     * </p><p>
+     * If shareCopies is true, objects reachable from several of the sources that need a copy
+     * are copied only once. The checks are then made as in {@link GwtCopyMode#CHECK_THEN_CLONE},
+     * or in parallel in {@link GwtCopyMode#PARALLEL_CHECK}, and copies are never partial.
+     * Sources that need no copy are returned as they are, whatever the others share with them.
+     * </p>
+     * @param <T>
+     * @param sources
+     * @param projection The projection to apply. See {@link RecursiveReflexiveCloner}
+     * @param shareCopies true to copy objects reachable from several sources only once
+     * @return The copy, or the source itself, of each source, in the order of the sources
+     * @throws CloningError An object is not clonable for some reason
+     */
+    public <T> List<T> copyForGwtRpcIfNeededAll (Collection<? extends T> sources, Class<? extends Projection> projection, boolean shareCopies)
+    {
+        GwtCopyMode mode = gwtCopyMode;
+        if (shareCopies && GwtCopyMode.PARALLEL_CHECK != mode)
+        {
+            mode = GwtCopyMode.CHECK_THEN_CLONE;
+        }
+        ArrayList<T> copies = new ArrayList<T>(sources.size());
+        CloningContext context = newContext(dontCarePolicy, true, GwtCopyMode.SINGLE_PASS == mode, true);
+        CloningContext copyContext = shareCopies ? newContext(dontCarePolicy, true, false, true) : context;
+        try
+        {
+            Class<?> type = null;
+            Cloner cloner = null;
+            for (T source : sources)
+            {
+                if (null == source)
+                {
+                    copies.add(null);
+                    continue;
+                }
+                if (source.getClass() != type)
+                {
+                    type = source.getClass();
+                    cloner = getClonerForType(type);
+                }
+                Object copy;
+                if (!shareCopies)
+                {
+                    copy = copyForGwtRpcIfNeeded(cloner, source, projection, mode, context);
+                }
+                else if (cloneNeededForGwt(cloner, source, projection, mode, context))
+                {
+                    copy = deepClone(cloner, source, projection, copyContext);
+                }
+                else
+                {
+                    copy = source;
+                }
+                context.clear();
+                @SuppressWarnings("unchecked")
+                T t = (T)copy;
+                copies.add(t);
+            }
+            return copies;
+        }
+        finally
+        {
+            copyContext.release();
+            context.release();
+        }
+    }
+
     /**
-     * Like {@link #copyForGwtRpcIfNeeded(Object, Class)}, with a null projection.
+     * The copy for GWT-RPC of a non-null source, in the given mode.
      */
-    public <T> T copyForGwtRpcIfNeeded (T source)
+    private Object copyForGwtRpcIfNeeded (Cloner cloner, Object source, Class<? extends Projection> projection, GwtCopyMode mode, CloningContext context)
     {
-        return copyForGwtRpcIfNeeded(source, null);
+        /* The clone reuses the context of the check, so that whatever
+         * the check found out about the graph is not lost.
+         */
+        if (GwtCopyMode.PARTIAL == mode)
+        {
+            if (!new PathCopyAnalysis().analyse(cloner, source, projection, context))
+            {
+                return source;
+            }
+        }
+        else if (!cloneNeededForGwt(cloner, source, projection, mode, context))
+        {
+            return source;
+        }
+        return deepClone(cloner, source, projection, context);
+    }
+
+    /**
+     * Checks a source as in the given mode, other than {@link GwtCopyMode#PARTIAL}.
+     */
+    private boolean cloneNeededForGwt (Cloner cloner, Object source, Class<? extends Projection> projection, GwtCopyMode mode, CloningContext context)
+    {
+        if (GwtCopyMode.PARALLEL_CHECK == mode)
+        {
+            CloningContext checkContext = CloningContext.newConcurrent(context.getDontCarePolicy(), true);
+            checkContext.setSession(context.getSession());
+            return new ParallelTraversal(projection, checkContext).cloneNeededForGwt(cloner, source);
+        }
+        return cloneNeededForGwt(cloner, source, projection, context);
+    }
+
+    /**
+     * Copies a non-null source for GWT-RPC within a session, whose context is given.
+     * The check is made in a context of its own, which only knows which objects the
+     * session has copied, see {@link CloningContext#isReplaced(Object)}, and which records
+     * the objects it reaches in the session's cache, if any, as the copy does.
+     */
+    Object copyForGwtRpcIfNeeded (Object source, Class<? extends Projection> projection, CloningContext sessionContext)
+    {
+        Object copy = sessionContext.getClone(source);
+        if (null != copy)
+        {
+            return copy;
+        }
+        Cloner cloner = getClonerForType(source.getClass());
+        /* The links a cache records can't be recorded by several threads at once */
+        GwtCopyMode mode = GwtCopyMode.PARALLEL_CHECK == gwtCopyMode && !sessionContext.isCaching() ? gwtCopyMode : GwtCopyMode.CHECK_THEN_CLONE;
+        CloningContext context = newContext(sessionContext.getDontCarePolicy(), true, false, true);
+        try
+        {
+            context.setSession(sessionContext);
+            if (cloneNeededForGwt(cloner, source, projection, mode, context))
+            {
+                return deepClone(cloner, source, projection, sessionContext);
+            }
+        }
+        finally
+        {
+            context.release();
+        }
+        sessionContext.putClone(source, source);
+        return source;
     }
 
+    /**
+     * Like {@link #deepClone(Object, Class)}, with a null projection.
+     */
+    public <T> T deepClone (T source)
+    {
+        return deepClone(source, null);
+    }
+    
     /**
      * <p>
-     * Given an object, makes a clone of it in preparation for serialization by GWT
-     * as response to an RPC call. This method uses reflection to walk the object's
+     * Given an object, makes a clone of it. It uses reflection to walk the object's
      * members and clone them recursively if needed. The original object graph is never
      * modified.
-     * </p><p>
-     * This function can make a deep clone if needed. However, in some cases, we know
-     * that the original object is good enough. For instance, since the object is going to
-     * be returned as the response of a GWT-RPC call, a deep clone might be
-     * wasteful since GWT-RPC is going to read the object (no writes) and serialize it
-     * anyway. In this case, we do want some data structures simplified. For
-     * instance, some ORMs will replace every {@link LinkedList} with a subclasses
-     * that loads items for the database lazily. GWT-RPC can serialize a {@link LinkedList},
-     * but not its subclasses. This routine will clone these sub-classed
-     * {@link LinkedList}s into {@link LinkedList}s, for which, it will have to make a
-     * deep clone, since the original objects cannot be modified as per the API definition
-     * of this function.
      * </p>
-     * A clone for GWT-RPC may or may not actually copy items over. i.e. it may be that:
+     * For a deep clone:
      * <pre>
      * Object orig;
      * Object clone = deepClone(orig);
      * clone==deepClone(orig)
      * </pre>
-     * is false, although it generally will be true.
+     * is always false.
      * <p>
-     * Note that only fields marked with {@link Clone} are cloned. Thus, any other fields may or may not
-     * be null.
+     * Note that only fields marked with {@link Clone} are cloned. Fields marked with {@link DoNotClone}
+     * will have their default value in the clone, and the others are dealt with as per
+     * {@link #setDontCarePolicy(DontCarePolicy)}, which by default leaves them at their default value too.
+     * </p>
+     * @param <T>
+     * @param source
+     * @param projection The projection to apply. See {@link RecursiveReflexiveCloner}
+     * @return The clone
+     * @throws CloningError The object is not clonable for some reason
+     */
+    public <T> T deepClone (T source, Class<? extends Projection> projection)
+    {
+        return deepClone(source, projection, dontCarePolicy);
+    }
+
+    /**
+     * Like {@link #deepClone(Object, Class)}, with the given policy for fields with a
+     * {@link CloningDisposition#DONT_CARE} disposition instead of the one set on this cloner.
+     */
+    public <T> T deepClone (T source, Class<? extends Projection> projection, DontCarePolicy dontCarePolicy)
+    {
+        if (null == dontCarePolicy)
+        {
+            throw new NullPointerException("dontCarePolicy cannot be null");
+        }
+        return deepClone(source, projection, dontCarePolicy, false);
+    }
+
+    /**
+     * Like {@link #deepCloneAll(Collection, Class, boolean)}, with a null projection and
+     * no sharing of clones between the sources.
+     */
+    public <T> List<T> deepCloneAll (Collection<? extends T> sources)
+    {
+        return deepCloneAll(sources, null, false);
+    }
+
+    /**
+     * <p>
+     * Like calling {@link #deepClone(Object, Class)} on each of the sources, but cheaper for
+     * many sources: cloners are looked up once per run of sources of the same class, and the
+     * memory used to track the objects of each source is reused for the next. Use
+     * {@link Arrays#asList(Object...)} for an array of sources.
      * </p><p>
-     * Also note that in the case of a clone for GWT, either the original object is deemed
-     * GWT serializable and returned as is, or a deep copy is made. Partial copies that weave
-     * GWT serializable parts of the original object graph with copies of the non GWT
-     * serializable parts of the original graph are not used. Although this may be done as a
-     * future optimization.
+     * If shareClones is true, objects reachable from several of the sources are cloned only
+     * once, as if the sources were the elements of a single collection being cloned.
+     * </p>
+     * @param <T>
+     * @param sources
+     * @param projection The projection to apply. See {@link RecursiveReflexiveCloner}
+     * @param shareClones true to clone objects reachable from several sources only once
+     * @return The clone of each source, in the order of the sources
+     * @throws CloningError An object is not clonable for some reason
+     */
+    public <T> List<T> deepCloneAll (Collection<? extends T> sources, Class<? extends Projection> projection, boolean shareClones)
+    {
+        ArrayList<T> clones = new ArrayList<T>(sources.size());
+        CloningContext context = newContext(dontCarePolicy, false, false, true);
+        try
+        {
+            Class<?> type = null;
+            Cloner cloner = null;
+            for (T source : sources)
+            {
+                if (null == source)
+                {
+                    clones.add(null);
+                    continue;
+                }
+                if (source.getClass() != type)
+                {
+                    type = source.getClass();
+                    cloner = getClonerForType(type);
+                }
+                @SuppressWarnings("unchecked")
+                T clone = (T)deepClone(cloner, source, projection, context);
+                clones.add(clone);
+                if (!shareClones)
+                {
+                    context.clear();
+                }
+            }
+            return clones;
+        }
+        finally
+        {
+            context.release();
+        }
+    }
+
+    /**
+     * Like {@link #deepCloneTree(Object, Class)}, with a null projection.
+     */
+    public <T> T deepCloneTree (T source)
+    {
+        return deepCloneTree(source, null);
+    }
+
+    /**
+     * <p>
+     * Like {@link #deepClone(Object, Class)}, for a source that the caller vouches is the root
+     * of a tree: no object in it can be reached from source by two different paths, and so in
+     * particular, there are no cycles.
      * </p><p>
-     * Note that some Immutable objects (as defined above) are reused as is without a copy being created,
-     * since they can't be modified.  
+     * Normally, every object cloned is remembered, so that an object met again is not cloned
+     * again. In a tree, no object is met twice, so this can be skipped, provided the types
+     * involved make cycles impossible: a wrong promise would then merely result in an
+     * object reachable by several paths being cloned once per path. Cycles are ruled out from
+     * the declared types of the fields that get cloned. Since a subclass could add a field
+     * leading anywhere, all such types must be final, leaf types or collections whose generic
+     * element type is final. If cycles can't be ruled out, the promise is not relied upon and
+     * this is the same as {@link #deepClone(Object, Class)}. The same goes if a collection turns
+     * out to hold an element of another type, which only a raw type can let in: the clone is
+     * then started over, as by {@link #deepClone(Object, Class)}.
+     * </p>
+     * @param <T>
+     * @param source
+     * @param projection The projection to apply. See {@link RecursiveReflexiveCloner}
+     * @return The clone
+     * @throws CloningError The object is not clonable for some reason
+     */
+    public <T> T deepCloneTree (T source, Class<? extends Projection> projection)
+    {
+        return deepClone(source, projection, dontCarePolicy, true);
+    }
+
+    /**
+     * Like {@link #deepCloneParallel(Object, Class)}, with a null projection.
+     */
+    public <T> T deepCloneParallel (T source)
+    {
+        return deepCloneParallel(source, null);
+    }
+
+    /**
+     * <p>
+     * Like {@link #deepClone(Object, Class)}, but uses all the processors of the machine to
+     * clone the fields and elements of the objects in the graph in parallel. Only worth it for
+     * large graphs. Objects reachable by several paths are still cloned exactly once.
+     * </p><p>
+     * Getters of the source objects may be invoked by several threads at once, so they must
+     * not modify anything. The {@link TraversalEngine} and pooled contexts are not used.
+     * </p>
+     * @param <T>
+     * @param source
+     * @param projection The projection to apply. See {@link RecursiveReflexiveCloner}
+     * @return The clone
+     * @throws CloningError The object is not clonable for some reason
+     */
+    public <T> T deepCloneParallel (T source, Class<? extends Projection> projection)
+    {
+        if (null == source)
+        {
+            return null;
+        }
+        Cloner cloner = getClonerForType(source.getClass());
+        CloningContext context = CloningContext.newConcurrent(dontCarePolicy, false);
+        @SuppressWarnings("unchecked")
+        T clone = (T)new ParallelTraversal(projection, context).deepClone(cloner, source);
+        return clone;
+    }
+
+    /**
+     * Like {@link #deepCloneInto(Object, Object, Class)}, with a null projection.
+     */
+    public <T> T deepCloneInto (T source, T destination)
+    {
+        return deepCloneInto(source, destination, null);
+    }
+
+    /**
+     * <p>
+     * Like {@link #deepClone(Object, Class)}, but makes the clone out of the objects of an earlier
+     * clone that is no longer needed, rather than out of new objects, wherever their shapes allow.
+     * Saves allocating, and collecting, a whole new graph when the same kind of graph is cloned
+     * over and over again.
+     * </p><p>
+     * The source and destination graphs are walked in lockstep. An object of the destination is
+     * reused for the clone of the source object found at the same place if it is of the same
+     * class, for arrays if it is of the same length too. Its cloned fields are overwritten, and
+     * reused collections are emptied and refilled. An object is reused at most once, and where
+     * shapes differ, new objects are made as deepClone() would.
+     * </p><p>
+     * Annotated fields that the clone doesn't fill in, i.e. those not cloned for the projection,
+     * and those the {@link DontCarePolicy#DROP} policy drops, are set back to their default
+     * values (null, zero or false) in reused objects, so that nothing of the earlier clone is left
+     * in them, whatever projection it was made with. Fields that are not annotated at all keep
+     * what they held. The destination graph must not share any object with the source graph, and
+     * must not be used by anything else: it is overwritten. The graph is traversed iteratively,
+     * whatever the {@link TraversalEngine}.
+     * </p>
+     * @param <T>
+     * @param source
+     * @param destination An earlier clone to reuse, or null
+     * @param projection The projection to apply. See {@link RecursiveReflexiveCloner}
+     * @return The clone, which is destination itself if it could be reused
+     * @throws CloningError The object is not clonable for some reason
+     * @throws IllegalArgumentException source and destination are the same object
+     */
+    public <T> T deepCloneInto (T source, T destination, Class<? extends Projection> projection)
+    {
+        if (null == source)
+        {
+            return null;
+        }
+        if (source == destination)
+        {
+            throw new IllegalArgumentException("Can't clone an object into itself");
+        }
+        Cloner cloner = getClonerForType(source.getClass());
+        CloningContext context = newContext(dontCarePolicy, false, false, true);
+        try
+        {
+            @SuppressWarnings("unchecked")
+            T clone = (T)iterativeTraversals.get().deepCloneInto(cloner, source, destination, projection, context);
+            return clone;
+        }
+        finally
+        {
+            context.release();
+        }
+    }
+
+    /**
+     * Like {@link #startDeepClone(Object, Class)}, with a null projection.
+     */
+    public <T> CloneJob<T> startDeepClone (T source)
+    {
+        return startDeepClone(source, null);
+    }
+
+    /**
+     * <p>
+     * Starts a deep clone of the source that is then made a step at a time, each as large or as
+     * short as wanted, e.g. so that a thread that must stay responsive can interleave it with
+     * other work. See {@link CloneJob}. Once done, the clone is the same as
+     * {@link #deepClone(Object, Class)} would have made.
+     * </p><p>
+     * The graph is traversed iteratively, whatever the {@link TraversalEngine}. Nothing is cloned
+     * until the first step, other than the source itself if it refers to nothing else.
+     * </p>
+     * @param <T>
+     * @param source
+     * @param projection The projection to apply. See {@link RecursiveReflexiveCloner}
+     * @return The job, which is already done if the source is null or refers to nothing else
+     * @throws CloningError The object is not clonable for some reason
+     */
+    public <T> CloneJob<T> startDeepClone (T source, Class<? extends Projection> projection)
+    {
+        IterativeTraversal traversal = new IterativeTraversal();
+        if (null != source)
+        {
+            Cloner cloner = getClonerForType(source.getClass());
+            /* Not a pooled context, since the job may outlive the call */
+            CloningContext context = new CloningContext(dontCarePolicy, false, false, true);
+            traversal.start(cloner, source, null, projection, context, null, null);
+        }
+        return new CloneJob<T>(traversal);
+    }
+
+    /**
+     * Like {@link #deepCloneBounded(Object, Class, CloningLimits, Collection)}, not recording
+     * the objects left out.
+     */
+    public <T> T deepCloneBounded (T source, Class<? extends Projection> projection, CloningLimits limits)
+    {
+        return deepCloneBounded(source, projection, limits, null);
+    }
+
+    /**
+     * <p>
+     * Like {@link #deepClone(Object, Class)}, but clones at most as much of the graph as the
+     * given limits allow, so that the time and memory a clone takes are bounded whatever the
+     * graph. Objects beyond the limits are either left out of the clone, or make it fail, as per
+     * {@link CloningLimits#getPolicy()}.
+     * </p><p>
+     * The graph is traversed iteratively, whatever the {@link TraversalEngine}. Since objects
+     * are cloned depth first, which of them fall beyond the count limit depends on the order
+     * of the fields of each class.
+     * </p>
+     * @param <T>
+     * @param source
+     * @param projection The projection to apply. See {@link RecursiveReflexiveCloner}
+     * @param limits The limits to enforce
+     * @param cutPoints Where to add the path from the root to each object left out, such as
+     *   "Order.customer.orders[3]", or null
+     * @return The clone, or null if the source itself is beyond the limits
+     * @throws CloningError The object is not clonable for some reason, or the limits were
+     *   exceeded and the policy is {@link LimitPolicy#FAIL}
+     */
+    public <T> T deepCloneBounded (T source, Class<? extends Projection> projection, CloningLimits limits, Collection<String> cutPoints)
+    {
+        if (null == limits)
+        {
+            throw new NullPointerException("limits cannot be null");
+        }
+        if (null == source)
+        {
+            return null;
+        }
+        Cloner cloner = getClonerForType(source.getClass());
+        CloningContext context = newContext(dontCarePolicy, false, false, true);
+        try
+        {
+            @SuppressWarnings("unchecked")
+            T clone = (T)iterativeTraversals.get().deepClone(cloner, source, projection, context, limits, cutPoints);
+            return clone;
+        }
+        finally
+        {
+            context.release();
+        }
+    }
+
+    /**
+     * Deep clones a non-null source within a session, whose context is given.
+     */
+    Object deepClone (Object source, Class<? extends Projection> projection, CloningContext sessionContext)
+    {
+        return deepClone(getClonerForType(source.getClass()), source, projection, sessionContext);
+    }
+
+    /**
+     * <p>
+     * Opens a session whose calls preserve identities across one another, with the policy
+     * set on this cloner for fields with a {@link CloningDisposition#DONT_CARE} disposition.
+     * </p><p>
+     * For instance, two objects cloned one after the other by a session refer to the same
+     * clone of an object they both refer to, just as if they had been cloned by a single call.
      * </p>
-     * @param <T>
-     * @param source
-     * @param projection The projection to apply. See {@link RecursiveReflexiveCloner}
-     * @return The clone
-     * @throws CloningError The object is not clonable for some reason
+     * @return The session, to be closed once done with
      */
-    public <T> T copyForGwtRpcIfNeeded (T source, Class<? extends Projection> projection)
+    public CloningSession openSession ()
+    {
+        return new CloningSession(this, dontCarePolicy);
+    }
+
+    private <T> T deepClone (T source, Class<? extends Projection> projection, DontCarePolicy dontCarePolicy, boolean tree)
     {
         if (null == source)
         {
@@ -896,63 +2726,186 @@ public class RecursiveReflexiveCloner
         
         Cloner cloner = getClonerForType(type);
 
-        if (!cloner.cloneNeededForGwt(source, projection, Collections.newSetFromMap(new IdentityHashMap<Object, Boolean>())))
+        boolean trackingIdentities = !(tree && cloner.isAcyclic());
+        CloningContext context = newContext(dontCarePolicy, false, false, trackingIdentities);
+        try
         {
-            return source;
+            @SuppressWarnings("unchecked")
+            T clone = (T)deepClone(cloner, source, projection, context);
+            
+            return clone;
+        }
+        catch (CloningError e)
+        {
+            if (trackingIdentities || !isCausedByUntypedElement(e))
+            {
+                throw e;
+            }
         }
+        finally
+        {
+            context.release();
+        }
+        /* A raw type let in an element that may lead anywhere, even back up the tree */
+        return deepClone(source, projection, dontCarePolicy, false);
+    }
 
-        @SuppressWarnings("unchecked")
-        T clone = (T) cloner.deepClone(source, projection, new IdentityHashMap<Object, Object>());
-        
-        return clone;
+    private static boolean isCausedByUntypedElement (Throwable e)
+    {
+        for (Throwable cause = e; null != cause; cause = cause.getCause())
+        {
+            if (cause instanceof UntypedElementError)
+            {
+                return true;
+            }
+        }
+        return false;
     }
 
     /**
-     * Like {@link #deepClone(Object, Class)}, with a null projection.
+     * @return The context of the current thread if contexts are pooled and it is not in use,
+     *   otherwise a new one. Either way, it must be released once the call is done.
      */
-    public <T> T deepClone (T source)
+    private CloningContext newContext (DontCarePolicy dontCarePolicy, boolean forGwt, boolean recordingReads, boolean trackingIdentities)
     {
-        return deepClone(source, null);
+        if (pooledContexts)
+        {
+            CloningContext context = cloningContexts.get();
+            if (context.acquire(dontCarePolicy, forGwt, recordingReads, trackingIdentities))
+            {
+                return context;
+            }
+        }
+        return new CloningContext(dontCarePolicy, forGwt, recordingReads, trackingIdentities);
     }
-    
+
+    private boolean cloneNeededForGwt (Cloner cloner, Object source, Class<? extends Projection> projection, CloningContext context)
+    {
+        if (context.isReplaced(source))
+        {
+            return true;
+        }
+        GwtVerdict verdict = cloner.getGwtVerdict(projection);
+        if (GwtVerdict.MAYBE != verdict && !context.hasSession())
+        {
+            return GwtVerdict.ALWAYS == verdict;
+        }
+        if (TraversalEngine.ITERATIVE == traversalEngine || context.isCaching())
+        {
+            return iterativeTraversals.get().cloneNeededForGwt(cloner, source, projection, context);
+        }
+        return cloner.cloneNeededForGwt(source, projection, context);
+    }
+
+    private Object deepClone (Cloner cloner, Object source, Class<? extends Projection> projection, CloningContext context)
+    {
+        if (TraversalEngine.ITERATIVE == traversalEngine || context.isCaching())
+        {
+            return iterativeTraversals.get().deepClone(cloner, source, projection, context);
+        }
+        return cloner.deepClone(source, projection, context);
+    }
+
     /**
      * <p>
-     * Given an object, makes a clone of it. It uses reflection to walk the object's
-     * members and clone them recursively if needed. The original object graph is never
-     * modified.
+     * Makes {@link #shallowCopyChangedFieldsFromClient(Object, Object, Class, ChangeDetection)} tell
+     * whether a value of the given type has changed with the given comparator, for which equal values,
+     * i.e. values it compares as 0, are unchanged. Only applies to values of exactly that type, not of
+     * its subclasses, and only if the server's value is of that type too. A null comparator removes the
+     * one registered for the type, if any.
+     * </p><p>
+     * Meant to be set up with the cloner, before it is used, but can be changed at any time.
      * </p>
-     * For a deep clone:
-     * <pre>
-     * Object orig;
-     * Object clone = deepClone(orig);
-     * clone==deepClone(orig)
-     * </pre>
-     * is always false.
+     */
+    @SuppressWarnings("unchecked")
+    public <T> void setChangeComparator (Class<T> type, Comparator<? super T> comparator)
+    {
+        synchronized (cloningActions)
+        {
+            HashMap<Class<?>, Comparator<Object>> comparators = new HashMap<Class<?>, Comparator<Object>>(changeComparators);
+            if (null == comparator)
+            {
+                comparators.remove(type);
+            }
+            else
+            {
+                comparators.put(type, (Comparator<Object>)comparator);
+            }
+            changeComparators = comparators;
+        }
+    }
+
+    /**
+     * @return true if value, sent by the client, is to be copied over old, the server's value
+     */
+    private boolean isChanged (Object old, Object value, ChangeDetection detection)
+    {
+        if (old == value)
+        {
+            return false;
+        }
+        if (null == old || null == value)
+        {
+            return true;
+        }
+        Class<?> type = value.getClass();
+        Comparator<Object> comparator = changeComparators.get(type);
+        if (null != comparator && type == old.getClass())
+        {
+            return 0 != comparator.compare(old, value);
+        }
+        if (ChangeDetection.EQUALS == detection || typeIsImmutable(type))
+        {
+            return !value.equals(old);
+        }
+        return true;
+    }
+
+    /**
+     * Like {@link #shallowCopyChangedFieldsFromClient(Object, Object, Class, ChangeDetection)}, with a
+     * null projection.
+     */
+    public <T> Set<String> shallowCopyChangedFieldsFromClient (T destination, T source, ChangeDetection detection)
+    {
+        return shallowCopyChangedFieldsFromClient(destination, source, null, detection);
+    }
+
+    /**
      * <p>
-     * Note that only fields marked with {@link Clone} are cloned. Any other fields in the
-     * clone will have their default value.
+     * Like {@link #shallowCopyFieldsFromClient(Object, Object, Class)}, but only copies the fields whose
+     * values differ, as per the given detection, and tells which they are. Fields whose values are the
+     * same are left alone, their setters not even invoked, so that e.g. an ORM that tracks the setters
+     * called does not see the object as modified.
+     * </p><p>
+     * The getters of both objects are invoked for every field to be copied.
      * </p>
-     * @param <T>
-     * @param source
+     * @param <T> The type of the objects in question. This must be a class that is annotated {@link ReflexivelyClonable}.
+     * @param destination The object of the server to overwrite. Must not be null.
+     * @param source The object that came from the client. Will not be modified. Must not be null.
      * @param projection The projection to apply. See {@link RecursiveReflexiveCloner}
-     * @return The clone
+     * @param detection How to tell whether a value has changed
+     * @return The names of the fields copied, in the order they are declared in, or an empty set if
+     *   none were, in which case the destination was not modified at all
      * @throws CloningError The object is not clonable for some reason
      */
-    public <T> T deepClone (T source, Class<? extends Projection> projection)
+    public <T> Set<String> shallowCopyChangedFieldsFromClient (T destination, T source, Class<? extends Projection> projection, ChangeDetection detection)
     {
         if (null == source)
         {
-            return null;
+            throw new NullPointerException("source object cannot be null");
+        }
+        if (null == destination)
+        {
+            throw new NullPointerException("destination object cannot be null");
+        }
+        if (null == detection)
+        {
+            throw new NullPointerException("detection cannot be null");
         }
         
-        Class<? extends Object> type = source.getClass();
-        
-        Cloner cloner = getClonerForType(type);
+        Cloner cloner = getClonerForType(source.getClass());
 
-        @SuppressWarnings("unchecked")
-        T clone = (T)cloner.deepClone(source, projection, new IdentityHashMap<Object, Object>());
-        
-        return clone;
+        return cloner.copyChangedFromClient(destination, source, projection, detection);
     }
 
     /**
@@ -995,6 +2948,200 @@ public class RecursiveReflexiveCloner
         cloner.copyFromClient(destination, source, projection);
     }
 
+    /**
+     * Like {@link #deepCopyFieldsFromClient(Object, Object, Class)}, with a null projection.
+     */
+    public <T> void deepCopyFieldsFromClient (T destination, T source)
+    {
+        deepCopyFieldsFromClient(destination, source, null);
+    }
+
+    /**
+     * <p>
+     * Like {@link #shallowCopyFieldsFromClient(Object, Object, Class)}, but done recursively: rather
+     * than overwriting a {@link CopyFromClient} annotated field that refers to another object, the
+     * client's copy of that object is merged into the server's copy, i.e. its {@link CopyFromClient}
+     * annotated fields are copied in turn, and so on. The same projection applies at every level.
+     * </p><p>
+     * Two objects are copies of the same object if they are of the same {@link ReflexivelyClonable}
+     * class and, if that class has a {@link MergeKey} field, if their keys are equal. Collections,
+     * of any class as long as both or neither are sets, are merged element by element: elements of
+     * the server's collection whose keys (or values, for immutable elements) match those of elements
+     * of the client's collection are kept, and merged into; the others are removed; elements of the
+     * client's collection that match none are added as they are. Elements that share a key are
+     * matched in the order they come in. Lists end up in the client's order, but are left alone if
+     * their elements haven't changed. Matching is done with a hash table, so the merge takes time
+     * linear in the size of the graphs. Anything else, including arrays and values of different
+     * classes, is overwritten, as by {@link #shallowCopyFieldsFromClient(Object, Object, Class)}.
+     * </p><p>
+     * Elements of sets that may yet be merged into, i.e. collections and objects of
+     * {@link ReflexivelyClonable} classes, are taken out of their sets, and only added back once
+     * the whole graph is merged. Their hashCode() and compareTo() may thus depend on any of their
+     * fields.
+     * </p><p>
+     * Client objects referred to more than once, or circularly, are merged once, and every reference
+     * to them ends up referring to the server object they were merged into, including references
+     * from client objects that were added to the server's graph as they are.
+     * </p>
+     * @param <T> The type of the objects in question. This must be a class that is annotated {@link ReflexivelyClonable}.
+     * @param destination The object of the server to update. Must not be null.
+     * @param source The object that came from the client. Must not be null. Only those of its
+     *   objects that end up in the server's graph are modified, as said above.
+     * @param projection The projection to apply. See {@link RecursiveReflexiveCloner}
+     * @throws CloningError An object is not clonable for some reason
+     */
+    public <T> void deepCopyFieldsFromClient (T destination, T source, Class<? extends Projection> projection)
+    {
+        if (null == source)
+        {
+            throw new NullPointerException("source object cannot be null");
+        }
+        if (null == destination)
+        {
+            throw new NullPointerException("destination object cannot be null");
+        }
+        if (!typeIsRecursivelyCloned(source.getClass()))
+        {
+            throw new CloningError("Type " + source.getClass().getName() + " can't be merged. Did you forget to implement " + ReflexivelyClonable.class.getName());
+        }
+
+        new ClientMerge(this, projection).merge(destination, source);
+    }
+
+    /**
+     * Like {@link #computeDelta(Object, Object, Class)}, with a null projection.
+     */
+    public <T> GraphDelta computeDelta (T previous, T current)
+    {
+        return computeDelta(previous, current, null);
+    }
+
+    /**
+     * <p>
+     * Works out what has changed in a graph since it was cloned, so that only the changes need
+     * be sent to wherever the earlier clone was, rather than a whole new clone. See {@link GraphDelta}.
+     * </p><p>
+     * Compares the fields that a clone with the given projection, and the policy set on this cloner
+     * for fields with a {@link CloningDisposition#DONT_CARE} disposition, holds. An object of the
+     * earlier clone stands for the object in the same place of the current graph if both are of the
+     * same class and, if that class has a {@link MergeKey} field, have equal keys. Elements of lists
+     * and sets are matched up by key, or by value if immutable, and elements of lists without keys
+     * by position. Lists that have changed are edited between the first and the last element that
+     * differ. Sets whose elements don't all have keys, arrays of anything but immutable values
+     * whose elements differ, and objects that stand for none of the earlier clone are sent anew,
+     * as clones.
+     * </p>
+     * @param <T> The type of the objects in question. This must be a class that is annotated {@link ReflexivelyClonable}.
+     * @param previous A clone of the graph made earlier with the same projection, as it was sent,
+     *   or as it was after the deltas since then were applied to it. Will not be modified.
+     * @param current The graph as it is now. Will not be modified.
+     * @param projection The projection to apply. See {@link RecursiveReflexiveCloner}
+     * @return The delta, which {@link #applyDelta(Object, GraphDelta)} turns previous, or a copy of it,
+     *   into a clone of current
+     * @throws CloningError An object is not clonable for some reason
+     */
+    public <T> GraphDelta computeDelta (T previous, T current, Class<? extends Projection> projection)
+    {
+        if (null == previous)
+        {
+            throw new NullPointerException("previous object cannot be null");
+        }
+        if (null == current)
+        {
+            throw new NullPointerException("current object cannot be null");
+        }
+        if (previous.getClass() != current.getClass() || !typeIsRecursivelyCloned(current.getClass()))
+        {
+            throw new CloningError("Can't compute a delta from " + previous.getClass().getName() + " to " + current.getClass().getName());
+        }
+
+        return new DeltaComputation(this, projection, dontCarePolicy).compute(previous, current);
+    }
+
+    /**
+     * Applies a delta computed by {@link #computeDelta(Object, Object, Class)} to the graph it was
+     * computed from, or to a copy of it, e.g. on the other side of a connection, which then
+     * becomes a clone of the graph the delta was computed to.
+     * @param <T> The type of the objects in question
+     * @param previous The root of the graph to apply the delta to. Must not be null.
+     * @param delta The delta, which must not have been applied already. Its objects become part of
+     *   the graph.
+     * @throws CloningError The delta doesn't fit the graph
+     */
+    public <T> void applyDelta (T previous, GraphDelta delta)
+    {
+        if (null == previous)
+        {
+            throw new NullPointerException("previous object cannot be null");
+        }
+        if (null == delta)
+        {
+            throw new NullPointerException("delta cannot be null");
+        }
+
+        new DeltaApplication(this, previous, delta).apply();
+    }
+
+    /**
+     * Like {@link #deepEquals(Object, Object, Class)}, with a null projection.
+     */
+    public boolean deepEquals (Object a, Object b)
+    {
+        return deepEquals(a, b, null);
+    }
+
+    /**
+     * <p>
+     * Tells whether two graphs are the same, e.g. whether a graph has changed since it was cloned,
+     * without cloning it. Only the fields with a {@link CloningDisposition#CLONE} disposition for
+     * the projection are compared, so two graphs are the same if their clones with the projection
+     * would hold the same, whatever the policy for the other fields.
+     * </p><p>
+     * Leaf values, i.e. immutable values and dates, are compared with equals(), as are values of
+     * other types that are neither {@link ReflexivelyClonable} nor arrays nor collections. Lists
+     * and sets are compared whatever their classes, since clones of collections may be of other
+     * classes than the originals, lists element by element, and sets by matching up their
+     * elements by key, as {@link #deepCopyFieldsFromClient(Object, Object, Class)} does. Both
+     * graphs must share objects alike: an object of one is only ever the same as one object of
+     * the other.
+     * </p><p>
+     * Stops at the first difference found.
+     * </p>
+     * @param a A graph, or null
+     * @param b Another graph, or null
+     * @param projection The projection to apply. See {@link RecursiveReflexiveCloner}
+     * @return true if the graphs are the same
+     * @throws CloningError An object is not clonable for some reason
+     */
+    public boolean deepEquals (Object a, Object b, Class<? extends Projection> projection)
+    {
+        return new GraphComparison(this, projection).compare(a, b);
+    }
+
+    /**
+     * Like {@link #deepHash(Object, Class)}, with a null projection.
+     */
+    public int deepHash (Object object)
+    {
+        return deepHash(object, null);
+    }
+
+    /**
+     * A hash code for a graph that agrees with {@link #deepEquals(Object, Object, Class)}: graphs
+     * that are the same have the same hash. It is stable, i.e. the same from one run to the next,
+     * as long as the leaf values have stable hash codes, as strings, numbers, dates and enums do.
+     * It hashes each object on its own, along with the classes of the objects it refers to, and
+     * how they are wired together only in as much.
+     * @param object A graph, or null
+     * @param projection The projection to apply. See {@link RecursiveReflexiveCloner}
+     * @return The hash
+     * @throws CloningError An object is not clonable for some reason
+     */
+    public int deepHash (Object object, Class<? extends Projection> projection)
+    {
+        return new GraphHash(this, projection).hash(object);
+    }
+
     private Cloner getClonerForType (Class<?> type)
     {
         if (typeIsImmutable(type))
@@ -1060,12 +3207,110 @@ public class RecursiveReflexiveCloner
         }
     }
 
-    private boolean typeIsRecursivelyCloned (Class<?> type)
+    /**
+     * @return true if no value of the given declared type can lead back to itself through
+     *   what gets cloned. Short of leaf types, only final types can be vouched for, since
+     *   a subclass could add a field leading anywhere.
+     */
+    private boolean typeIsAcyclic (Class<?> type)
+    {
+        if (type.isPrimitive() || type.isEnum() || Date.class == type)
+        {
+            return true;
+        }
+        if (!Modifier.isFinal(type.getModifiers()))
+        {
+            return false;
+        }
+        try
+        {
+            return getClonerForType(type).isAcyclic();
+        }
+        catch (CloningError e)
+        {
+            return false;
+        }
+    }
+
+    int getProjectionId (Class<? extends Projection> projection)
+    {
+        return projectionIds.getId(projection);
+    }
+
+    /**
+     * @param type A {@link ReflexivelyClonable} class
+     * @return Its plan for the projection
+     */
+    ClonePlan getPlan (Class<?> type, Class<? extends Projection> projection)
+    {
+        return ((ReflexiveCloner)getClonerForType(type)).getPlan(projection);
+    }
+
+    /**
+     * @param type A {@link ReflexivelyClonable} class
+     * @return The accessor of its field of the given name that is annotated for cloning
+     * @throws CloningError There is none
+     */
+    FieldAccessorClonerWrapper getCloningAccessor (Class<?> type, String name)
+    {
+        return ((ReflexiveCloner)getClonerForType(type)).getCloningAccessor(name);
+    }
+
+    /**
+     * @param type A {@link ReflexivelyClonable} class
+     * @return The accessors of its fields annotated {@link CopyFromClient}
+     */
+    List<FieldAccessorClonerWrapper> getCopyingAccessors (Class<?> type)
+    {
+        return ((ReflexiveCloner)getClonerForType(type)).copyingAccessors;
+    }
+
+    /**
+     * @param type A {@link ReflexivelyClonable} class
+     * @return The accessor of its field annotated {@link MergeKey}, or null if none is
+     */
+    FieldAccessorClonerWrapper getKeyAccessor (Class<?> type)
+    {
+        return ((ReflexiveCloner)getClonerForType(type)).keyAccessor;
+    }
+
+    /**
+     * @return The value that identifies object, e.g. in a collection: its {@link MergeKey} field,
+     *   or object itself if immutable, or null if nothing does
+     */
+    Object getMergeKey (Object object)
+    {
+        if (null == object)
+        {
+            return null;
+        }
+        Class<?> clazz = object.getClass();
+        if (typeIsImmutable(clazz))
+        {
+            return object;
+        }
+        if (typeIsRecursivelyCloned(clazz))
+        {
+            FieldAccessorClonerWrapper keyAccessor = ((ReflexiveCloner)getClonerForType(clazz)).keyAccessor;
+            return null == keyAccessor ? null : keyAccessor.get(object);
+        }
+        return null;
+    }
+
+    /**
+     * @return true if values of the type are compared with equals() by deepEquals()
+     */
+    boolean isLeaf (Class<?> type)
+    {
+        return typeIsImmutable(type) || Date.class == type;
+    }
+
+    boolean typeIsRecursivelyCloned (Class<?> type)
     {
         return null!=type.getAnnotation(ReflexivelyClonable.class);
     }
 
-    private boolean typeIsImmutable (Class<?> type)
+    boolean typeIsImmutable (Class<?> type)
     {
         return (type.isPrimitive() || type.isEnum() || immutableTypes.contains(type)); 
     }
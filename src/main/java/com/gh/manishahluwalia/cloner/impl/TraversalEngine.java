@@ -0,0 +1,34 @@
+/*
+* Copyright 2014 Manish Ahluwalia
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+package com.gh.manishahluwalia.cloner.impl;
+
+/**
+ * How {@link RecursiveReflexiveCloner} walks an object graph.
+ */
+public enum TraversalEngine
+{
+    /**
+     * Each object is visited by a nested method call. This is the fastest for
+     * shallow graphs, but long chains of objects can overflow the thread's stack.
+     */
+    RECURSIVE,
+
+    /**
+     * Objects are visited off an explicit work stack kept on the heap, so graphs of
+     * any depth can be handled.
+     */
+    ITERATIVE;
+}
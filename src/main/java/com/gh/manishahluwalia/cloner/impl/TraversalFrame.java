@@ -0,0 +1,117 @@
+/*
+* Copyright 2014 Manish Ahluwalia
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+package com.gh.manishahluwalia.cloner.impl;
+
+/**
+ * <p>
+ * One object being visited by {@link IterativeTraversal}. A frame hands out
+ * the children of its object one at a time, in the same order the recursive
+ * {@link Cloner} methods would visit them.
+ * </p><p>
+ * Check frames only hand out children. Clone frames also receive the clone of
+ * each child they handed out, via {@link #childCloned(Object)}, before being
+ * asked for the next one.
+ * </p>
+ */
+abstract class TraversalFrame
+{
+    /**
+     * Returned by {@link #nextChild()} once there are no more children
+     */
+    static final Object DONE = new Object();
+
+    /**
+     * Returned by {@link #nextChild()} of a check frame when the object it is
+     * checking is known to need a clone. The frame can still be asked for the
+     * rest of its children afterwards.
+     */
+    static final Object CLONE_NEEDED = new Object();
+
+    /**
+     * The object being visited
+     */
+    final Object source;
+
+    /**
+     * The clone being filled in. Always null for check frames.
+     */
+    final Object destination;
+
+    /**
+     * The cloner to use for the child most recently returned by {@link #nextChild()}
+     */
+    Cloner childCloner;
+
+    TraversalFrame (Object source, Object destination)
+    {
+        this.source = source;
+        this.destination = destination;
+    }
+
+    /**
+     * @return The next non-null child to visit, {@link #DONE} or {@link #CLONE_NEEDED}.
+     *   Before returning a child, {@link #childCloner} must be set.
+     */
+    abstract Object nextChild ();
+
+    /**
+     * Whether {@link #childCloned(Object)} may be handed the clone of a child before that clone
+     * is filled in, as {@link ParallelTraversal} does. Frames that hash or compare their children
+     * must return false, and must then accept the clones of all their children in order, once
+     * every child was handed out.
+     */
+    boolean acceptsIncompleteChildren ()
+    {
+        return true;
+    }
+
+    /**
+     * Receives the clone of the child most recently returned by {@link #nextChild()}
+     */
+    void childCloned (Object clone)
+    {
+        throw new UnsupportedOperationException(getClass().getName() + " is not a clone frame");
+    }
+
+    /**
+     * Called instead of {@link #childCloned(Object)} when the child most recently returned by
+     * {@link #nextChild()} is to be left out of the clone, see {@link CloningLimits}. Leaves it
+     * null, unless overridden.
+     */
+    void childDropped ()
+    {
+        childCloned(null);
+    }
+
+    /**
+     * @return What the destination held, before being reused, where the clone of the child
+     *   most recently returned by {@link #nextChild()} goes, or null if it is not known. See
+     *   {@link Cloner#cloneFrameInto(Object, Object, Class, CloningContext)}.
+     */
+    Object reusableChild ()
+    {
+        return null;
+    }
+
+    /**
+     * @return Where the child most recently returned by {@link #nextChild()} sits in the source,
+     *   such as ".field" or "[3]", for error messages
+     */
+    String childName ()
+    {
+        return "?";
+    }
+}
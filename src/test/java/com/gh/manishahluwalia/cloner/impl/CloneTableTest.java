@@ -0,0 +1,91 @@
+/*
+* Copyright 2014 Manish Ahluwalia
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+package com.gh.manishahluwalia.cloner.impl;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class CloneTableTest {
+
+    @Test
+    public void objectsThatNeedNoCopyMapToThemselves()
+    {
+        CloneTable table = new CloneTable();
+        Object copied = new Object();
+        Object copy = new Object();
+        Object kept = new Object();
+        
+        table.put(copied, copy);
+        table.put(kept, kept);
+        Assert.assertSame(copy, table.get(copied));
+        Assert.assertSame(kept, table.get(kept));
+        Assert.assertNull(table.get(new Object()));
+        Assert.assertEquals(2, table.size());
+    }
+
+    @Test
+    public void invalidationReachesEveryAncestor()
+    {
+        CloneTable table = new CloneTable();
+        Object root = new Object();
+        Object left = new Object();
+        Object right = new Object();
+        Object leaf = new Object();
+        Object shared = new Object();
+        Object[] objects = {root, left, right, leaf};
+        for (Object object : objects)
+        {
+            table.put(object, new Object());
+        }
+        table.addParent(left, root);
+        table.addParent(right, root);
+        table.addParent(leaf, left);
+        table.addParent(leaf, left);
+        table.addParent(root, leaf);
+        /* Handed over as it is, so only known for its parents */
+        table.addParent(shared, right);
+        Assert.assertNull(table.get(shared));
+        
+        table.invalidate(shared);
+        Assert.assertNull(table.get(right));
+        Assert.assertNull(table.get(root));
+        Assert.assertNull(table.get(leaf));
+        Assert.assertNull(table.get(left));
+        Assert.assertEquals(0, table.size());
+    }
+
+    @Test
+    public void invalidationLeavesDescendantsAlone()
+    {
+        CloneTable table = new CloneTable();
+        Object parent = new Object();
+        Object child = new Object();
+        Object childCopy = new Object();
+        table.put(parent, new Object());
+        table.put(child, childCopy);
+        table.addParent(child, parent);
+        
+        table.invalidate(parent);
+        Assert.assertNull(table.get(parent));
+        Assert.assertSame(childCopy, table.get(child));
+        
+        Object newParentCopy = new Object();
+        table.put(parent, newParentCopy);
+        table.addParent(child, parent);
+        table.invalidate(child);
+        Assert.assertNull(table.get(parent));
+    }
+}
@@ -0,0 +1,74 @@
+/*
+* Copyright 2014 Manish Ahluwalia
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+package com.gh.manishahluwalia.cloner.impl;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class IdentityTableTest {
+
+    @Test
+    public void keysAreComparedByIdentity()
+    {
+        IdentityTable<Object> table = new IdentityTable<Object>();
+        String a = new String("key");
+        String b = new String("key");
+        
+        Assert.assertNull(table.putIfAbsent(a, 1));
+        Assert.assertNull(table.get(b));
+        Assert.assertNull(table.putIfAbsent(b, 2));
+        Assert.assertEquals(1, table.get(a));
+        Assert.assertEquals(2, table.get(b));
+        Assert.assertEquals(2, table.size());
+    }
+
+    @Test
+    public void putIfAbsentKeepsTheFirstValue()
+    {
+        IdentityTable<Object> table = new IdentityTable<Object>();
+        Object key = new Object();
+        
+        Assert.assertNull(table.putIfAbsent(key, "first"));
+        Assert.assertEquals("first", table.putIfAbsent(key, "second"));
+        Assert.assertEquals("first", table.get(key));
+        
+        table.put(key, "third");
+        Assert.assertEquals("third", table.get(key));
+        Assert.assertEquals(1, table.size());
+    }
+
+    @Test
+    public void entriesSurviveGrowth()
+    {
+        IdentityTable<Integer> table = new IdentityTable<Integer>();
+        List<Object> keys = new ArrayList<Object>();
+        for (int i = 0; i < 100000; i++)
+        {
+            Object key = new Object();
+            keys.add(key);
+            Assert.assertNull(table.putIfAbsent(key, i));
+        }
+        Assert.assertEquals(keys.size(), table.size());
+        for (int i = 0; i < keys.size(); i++)
+        {
+            Assert.assertEquals(Integer.valueOf(i), table.get(keys.get(i)));
+        }
+        Assert.assertNull(table.get(new Object()));
+    }
+}
@@ -0,0 +1,169 @@
+/*
+* Copyright 2014 Manish Ahluwalia
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+package com.gh.manishahluwalia.cloner.impl;
+
+import java.util.LinkedList;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.gh.manishahluwalia.cloner.annotations.Clone;
+import com.gh.manishahluwalia.cloner.annotations.ReflexivelyClonable;
+
+/**
+ * Runs all of {@link RecursiveReflexiveClonerTest} again using {@link TraversalEngine#ITERATIVE},
+ * plus some tests that only the iterative engine can pass.
+ */
+public class IterativeRecursiveReflexiveClonerTest extends RecursiveReflexiveClonerTest {
+
+    private static final int CHAIN_LENGTH = 100000;
+
+    @ReflexivelyClonable
+    public static class ChainNode {
+        @Clone public int value;
+        @Clone public ChainNode next;
+        @Clone public LinkedList<Integer> list;
+        public void setValue (int value)
+        {
+            this.value = value;
+        }
+        public int getValue ()
+        {
+            return value;
+        }
+        public void setNext (ChainNode next)
+        {
+            this.next = next;
+        }
+        public ChainNode getNext ()
+        {
+            return next;
+        }
+        public void setList (LinkedList<Integer> list)
+        {
+            this.list = list;
+        }
+        public LinkedList<Integer> getList ()
+        {
+            return list;
+        }
+    }
+
+    @Override
+    @Before
+    public void setUp() throws Exception {
+        super.setUp();
+        cloner.setTraversalEngine(TraversalEngine.ITERATIVE);
+    }
+
+    private ChainNode makeChain (int length)
+    {
+        ChainNode head = null;
+        for (int i = length - 1; i >= 0; i--)
+        {
+            ChainNode node = new ChainNode();
+            node.value = i;
+            node.next = head;
+            head = node;
+        }
+        return head;
+    }
+
+    @Test
+    public void longChainIsCloned()
+    {
+        ChainNode orig = makeChain(CHAIN_LENGTH);
+        
+        Assert.assertSame(orig, cloner.copyForGwtRpcIfNeeded(orig));
+        
+        ChainNode deepClone = cloner.deepClone(orig);
+        
+        ChainNode o = orig;
+        ChainNode c = deepClone;
+        for (int i = 0; i < CHAIN_LENGTH; i++)
+        {
+            Assert.assertNotSame(o, c);
+            Assert.assertEquals(i, c.value);
+            o = o.next;
+            c = c.next;
+        }
+        Assert.assertNull(c);
+    }
+
+    @Test
+    public void longCycleIsCloned()
+    {
+        ChainNode orig = makeChain(CHAIN_LENGTH);
+        ChainNode last = orig;
+        while (null != last.next)
+        {
+            last = last.next;
+        }
+        last.next = orig;
+        last.list = new SubLinkedList<Integer>();
+        last.list.add(7);
+        
+        ChainNode gwtClone = cloner.copyForGwtRpcIfNeeded(orig);
+        
+        Assert.assertNotSame(orig, gwtClone);
+        ChainNode c = gwtClone;
+        for (int i = 0; i < CHAIN_LENGTH - 1; i++)
+        {
+            c = c.next;
+        }
+        Assert.assertSame(gwtClone, c.next);
+        Assert.assertEquals(LinkedList.class, c.list.getClass());
+        Assert.assertEquals(Integer.valueOf(7), c.list.get(0));
+    }
+
+    @Test
+    public void longChainIsClonedAStepAtATime()
+    {
+        ChainNode orig = makeChain(CHAIN_LENGTH);
+        
+        CloneJob<ChainNode> job = cloner.startDeepClone(orig);
+        int steps = 0;
+        while (!job.step(1000))
+        {
+            steps++;
+            Assert.assertEquals(steps * 1000 + 1, job.getClonedCount());
+            Assert.assertEquals(steps * 1000 + 1, job.getPendingCount());
+        }
+        Assert.assertEquals(CHAIN_LENGTH / 1000 - 1, steps);
+        Assert.assertEquals(CHAIN_LENGTH, job.getClonedCount());
+        Assert.assertEquals(0, job.getPendingCount());
+        
+        ChainNode o = orig;
+        ChainNode c = job.getClone();
+        for (int i = 0; i < CHAIN_LENGTH; i++)
+        {
+            Assert.assertNotSame(o, c);
+            Assert.assertEquals(i, c.value);
+            o = o.next;
+            c = c.next;
+        }
+        Assert.assertNull(c);
+        
+        job = cloner.startDeepClone(orig);
+        while (!job.step(1, TimeUnit.MILLISECONDS))
+        {
+            Assert.assertFalse(job.isDone());
+        }
+        Assert.assertEquals(CHAIN_LENGTH, job.getClonedCount());
+    }
+}
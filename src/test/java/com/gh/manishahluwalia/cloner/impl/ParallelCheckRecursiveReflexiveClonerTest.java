@@ -0,0 +1,93 @@
+/*
+* Copyright 2014 Manish Ahluwalia
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+package com.gh.manishahluwalia.cloner.impl;
+
+import java.util.LinkedList;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Runs all of {@link RecursiveReflexiveClonerTest} again using {@link GwtCopyMode#PARALLEL_CHECK},
+ * plus some tests of wide and deep graphs, which also cover
+ * {@link RecursiveReflexiveCloner#deepCloneParallel(Object)}.
+ */
+public class ParallelCheckRecursiveReflexiveClonerTest extends RecursiveReflexiveClonerTest {
+
+    private static final int WIDTH = 10000;
+
+    @Before
+    public void setUpParallelCheck() throws Exception {
+        cloner.setGwtCopyMode(GwtCopyMode.PARALLEL_CHECK);
+    }
+
+    private ClassE[] wideGraph ()
+    {
+        ClassE[] orig = new ClassE[WIDTH];
+        for (int i = 0; i < orig.length; i++)
+        {
+            orig[i] = new ClassE();
+            orig[i].y = new LinkedList<Integer>();
+        }
+        for (int i = 0; i < orig.length; i++)
+        {
+            orig[i].x = new ClassE[]{orig[(i * 7 + 1) % orig.length], new ClassE()};
+        }
+        return orig;
+    }
+
+    @Test
+    public void wideGraphsThatNeedNoCopyAreShared()
+    {
+        ClassE[] orig = wideGraph();
+        Assert.assertSame(orig, cloner.copyForGwtRpcIfNeeded(orig));
+    }
+
+    @Test
+    public void wideGraphsAreCopiedIfAnyObjectNeedsIt()
+    {
+        ClassE[] orig = wideGraph();
+        orig[WIDTH - 1].x[1].y = new SubLinkedList<Integer>();
+        
+        ClassE[] gwtClone = cloner.copyForGwtRpcIfNeeded(orig);
+        
+        Assert.assertNotSame(orig, gwtClone);
+        Assert.assertEquals(LinkedList.class, gwtClone[WIDTH - 1].x[1].y.getClass());
+        Assert.assertSame(gwtClone[1], gwtClone[0].x[0]);
+        Assert.assertSame(gwtClone[8], gwtClone[1].x[0]);
+    }
+
+    @Test
+    public void deepGraphsAreTraversedWithoutRecursion()
+    {
+        ClassE orig = new ClassE();
+        ClassE last = orig;
+        for (int i = 0; i < 100000; i++)
+        {
+            last.x = new ClassE[]{new ClassE()};
+            last = last.x[0];
+        }
+        Assert.assertSame(orig, cloner.copyForGwtRpcIfNeeded(orig));
+        
+        ClassE clone = cloner.deepCloneParallel(orig);
+        for (ClassE node = orig; null != node.x; node = node.x[0], clone = clone.x[0])
+        {
+            Assert.assertNotSame(node, clone);
+        }
+        Assert.assertNull(clone.x);
+    }
+}
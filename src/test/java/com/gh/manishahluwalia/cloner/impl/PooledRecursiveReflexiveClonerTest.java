@@ -0,0 +1,199 @@
+/*
+* Copyright 2014 Manish Ahluwalia
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+package com.gh.manishahluwalia.cloner.impl;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+
+import org.junit.Assert;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.gh.manishahluwalia.cloner.annotations.Clone;
+import com.gh.manishahluwalia.cloner.annotations.ReflexivelyClonable;
+
+/**
+ * Runs all of {@link RecursiveReflexiveClonerTest} again with pooled contexts,
+ * plus some tests of the reuse of contexts.
+ */
+public class PooledRecursiveReflexiveClonerTest extends RecursiveReflexiveClonerTest {
+
+    /* The cloner used by the getter of ReentrantGetter */
+    private static RecursiveReflexiveCloner reentrantCloner;
+
+    @ReflexivelyClonable
+    public static class ReentrantGetter {
+        @Clone public TreeNode node;
+        public void setNode (TreeNode node)
+        {
+            this.node = node;
+        }
+        public TreeNode getNode ()
+        {
+            /* Clones something else halfway through the clone of this */
+            Assert.assertNotSame(node, reentrantCloner.deepClone(node));
+            return node;
+        }
+    }
+
+    @ReflexivelyClonable
+    public static class FailingGetter {
+        @Clone public TreeNode node;
+        @Clone public Integer value;
+        public void setNode (TreeNode node)
+        {
+            this.node = node;
+        }
+        public TreeNode getNode ()
+        {
+            return node;
+        }
+        public void setValue (Integer value)
+        {
+            this.value = value;
+        }
+        public Integer getValue ()
+        {
+            if (null == value)
+            {
+                throw new IllegalStateException("No value");
+            }
+            return value;
+        }
+    }
+
+    @Override
+    @Before
+    public void setUp() throws Exception {
+        super.setUp();
+        cloner.setPooledContexts(true);
+    }
+
+    @Test
+    public void pooledContextsAreCleared()
+    {
+        FailingGetter orig = new FailingGetter();
+        orig.node = new TreeNode();
+        orig.value = 1;
+        
+        FailingGetter first = cloner.deepClone(orig);
+        FailingGetter second = cloner.deepClone(orig);
+        
+        Assert.assertNotSame(first, second);
+        Assert.assertNotSame(first.node, second.node);
+        
+        orig.value = null;
+        try
+        {
+            cloner.deepClone(orig);
+            Assert.fail();
+        }
+        catch (CloningError e)
+        {
+            /* Expected: the clone fails halfway through */
+        }
+        orig.value = 2;
+        
+        FailingGetter third = cloner.deepClone(orig);
+        Assert.assertNotSame(orig.node, third.node);
+        Assert.assertNotSame(first.node, third.node);
+        Assert.assertEquals(Integer.valueOf(2), third.value);
+    }
+
+    @Test
+    public void reentrantCallsGetTheirOwnContext()
+    {
+        reentrantCloner = cloner;
+        ReentrantGetter orig = new ReentrantGetter();
+        orig.node = new TreeNode();
+        orig.node.left = new TreeNode();
+        orig.node.right = orig.node.left;
+        
+        ReentrantGetter deepClone = cloner.deepClone(orig);
+        
+        Assert.assertNotSame(orig.node, deepClone.node);
+        Assert.assertNotSame(orig.node.left, deepClone.node.left);
+        Assert.assertSame(deepClone.node.left, deepClone.node.right);
+    }
+
+    @Test
+    public void clearedTablesOnlyKeepRoomForWhatTheyHeld()
+    {
+        IdentityTable<Object> table = new IdentityTable<Object>();
+        for (int i = 0; i < 100000; i++)
+        {
+            table.put(new Object(), Boolean.TRUE);
+        }
+        int capacity = table.capacity();
+        table.clear();
+        Assert.assertEquals(0, table.size());
+        Assert.assertEquals(capacity, table.capacity());
+        
+        /* A few entries in a large table */
+        for (int i = 0; i < 100; i++)
+        {
+            table.put(new Object(), Boolean.TRUE);
+        }
+        table.clear();
+        int small = table.capacity();
+        Assert.assertTrue(small < capacity / 8);
+        for (int i = 0; i < 100; i++)
+        {
+            table.put(new Object(), Boolean.TRUE);
+        }
+        Assert.assertEquals(small, table.capacity());
+        
+        for (int i = 0; i < 100000; i++)
+        {
+            table.put(new Object(), Boolean.TRUE);
+        }
+        table.clear(1 << 10);
+        Assert.assertEquals(1 << 10, table.capacity());
+    }
+
+    @Test
+    public void pooledChecksOfGraphsThatNeedNoCopyAllocateNothing()
+    {
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        Assume.assumeTrue(threads instanceof com.sun.management.ThreadMXBean);
+        com.sun.management.ThreadMXBean allocations = (com.sun.management.ThreadMXBean)threads;
+        Assume.assumeTrue(allocations.isThreadAllocatedMemorySupported() && allocations.isThreadAllocatedMemoryEnabled());
+        
+        /* No collections, whose iterators would be allocated */
+        TreeNode root = new TreeNode();
+        TreeNode node = root;
+        for (int i = 0; i < 50; i++)
+        {
+            node.left = new TreeNode();
+            node.right = new TreeNode();
+            node = node.left;
+        }
+        /* Until reflection and the JIT have settled */
+        for (int i = 0; i < 20000; i++)
+        {
+            Assert.assertSame(root, cloner.copyForGwtRpcIfNeeded(root));
+        }
+        
+        long thread = Thread.currentThread().getId();
+        long before = allocations.getThreadAllocatedBytes(thread);
+        for (int i = 0; i < 1000; i++)
+        {
+            cloner.copyForGwtRpcIfNeeded(root);
+        }
+        Assert.assertEquals(0, allocations.getThreadAllocatedBytes(thread) - before);
+    }
+}
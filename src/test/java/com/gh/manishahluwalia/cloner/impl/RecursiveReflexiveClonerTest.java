@@ -15,13 +15,22 @@
 */
 package com.gh.manishahluwalia.cloner.impl;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
 import java.lang.reflect.Field;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.Date;
 import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Set;
+import java.util.TreeSet;
 
 import org.junit.Assert;
 import org.junit.Before;
@@ -30,6 +39,7 @@ import org.junit.Test;
 import com.gh.manishahluwalia.cloner.annotations.Clone;
 import com.gh.manishahluwalia.cloner.annotations.CopyFromClient;
 import com.gh.manishahluwalia.cloner.annotations.DoNotClone;
+import com.gh.manishahluwalia.cloner.annotations.MergeKey;
 import com.gh.manishahluwalia.cloner.annotations.Projection;
 import com.gh.manishahluwalia.cloner.annotations.ReflexivelyClonable;
 import com.gh.manishahluwalia.cloner.impl.CloningDisposition;
@@ -320,7 +330,7 @@ public class RecursiveReflexiveClonerTest {
 	@SuppressWarnings("serial")
 	public static class SubLinkedList<E> extends LinkedList<E> {}
 	
-	private RecursiveReflexiveCloner cloner;
+	protected RecursiveReflexiveCloner cloner;
 	
 	@Before
 	public void setUp() throws Exception {
@@ -1551,4 +1561,1856 @@ public class RecursiveReflexiveClonerTest {
         
         Assert.assertSame(orig.getX(), deepClone.getX());
     }
+    
+    @Test
+    public void collectionsOfImmutablesAreCopied()
+    {
+        HashSet<String> set = new HashSet<String>(Arrays.asList("a", null, "c"));
+        TreeSet<Integer> sorted = new TreeSet<Integer>(Arrays.asList(9, 3, 6));
+        
+        Assert.assertSame(set, cloner.copyForGwtRpcIfNeeded(set));
+        Assert.assertSame(sorted, cloner.copyForGwtRpcIfNeeded(sorted));
+        
+        HashSet<String> setClone = cloner.deepClone(set);
+        TreeSet<Integer> sortedClone = cloner.deepClone(sorted);
+        
+        Assert.assertNotSame(set, setClone);
+        Assert.assertEquals(set, setClone);
+        Assert.assertNotSame(sorted, sortedClone);
+        Assert.assertEquals(Arrays.asList(3, 6, 9), new LinkedList<Integer>(sortedClone));
+    }
+    
+    @Test
+    public void collectionsOfMixedTypesAreStillDeepCloned()
+    {
+        LinkedList<Object> orig = new LinkedList<Object>();
+        ClassA a = new ClassA();
+        a.field1 = 5;
+        orig.add(17);
+        orig.add(a);
+        orig.add("tail");
+        
+        LinkedList<Object> deepClone = cloner.deepClone(orig);
+        
+        Assert.assertEquals(3, deepClone.size());
+        Assert.assertSame(orig.get(0), deepClone.get(0));
+        Assert.assertNotSame(a, deepClone.get(1));
+        Assert.assertEquals(5, ((ClassA)deepClone.get(1)).field1);
+        Assert.assertSame(orig.get(2), deepClone.get(2));
+    }
+    
+    @ReflexivelyClonable
+    public static final class FinalElement {
+        @Clone public int x;
+        public void setX (int x)
+        {
+            this.x = x;
+        }
+        public int getX ()
+        {
+            return x;
+        }
+    }
+    @ReflexivelyClonable
+    public static class TypedCollections {
+        @Clone public Set<Integer> ints;
+        @Clone public LinkedList<FinalElement> elements;
+        public void setInts (Set<Integer> ints)
+        {
+            this.ints = ints;
+        }
+        public Set<Integer> getInts ()
+        {
+            return ints;
+        }
+        public void setElements (LinkedList<FinalElement> elements)
+        {
+            this.elements = elements;
+        }
+        public LinkedList<FinalElement> getElements ()
+        {
+            return elements;
+        }
+    }
+    @Test
+    public void typedCollectionFieldsAreCloned()
+    {
+        TypedCollections orig = new TypedCollections();
+        orig.ints = new HashSet<Integer>(Arrays.asList(1, 2, 3));
+        orig.elements = new LinkedList<FinalElement>();
+        FinalElement element = new FinalElement();
+        element.x = 12;
+        orig.elements.add(element);
+        orig.elements.add(null);
+        
+        Assert.assertSame(orig, cloner.copyForGwtRpcIfNeeded(orig));
+        
+        TypedCollections deepClone = cloner.deepClone(orig);
+        
+        Assert.assertNotSame(orig.ints, deepClone.ints);
+        Assert.assertEquals(orig.ints, deepClone.ints);
+        Assert.assertEquals(2, deepClone.elements.size());
+        Assert.assertNotSame(element, deepClone.elements.get(0));
+        Assert.assertEquals(12, deepClone.elements.get(0).x);
+        Assert.assertNull(deepClone.elements.get(1));
+        
+        orig.ints = new TreeSet<Integer>(orig.ints);
+        orig.elements = new SubLinkedList<FinalElement>();
+        TypedCollections gwtClone = cloner.copyForGwtRpcIfNeeded(orig);
+        
+        Assert.assertNotSame(orig, gwtClone);
+        Assert.assertEquals(LinkedList.class, gwtClone.elements.getClass());
+    }
+    
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    @Test
+    public void typedCollectionFieldsToleratePollution()
+    {
+        TypedCollections orig = new TypedCollections();
+        orig.elements = new LinkedList<FinalElement>();
+        ClassA a = new ClassA();
+        a.field1 = 3;
+        ((List)orig.elements).add(a);
+        
+        TypedCollections deepClone = cloner.deepClone(orig);
+        
+        Object cloned = ((List)deepClone.elements).get(0);
+        Assert.assertNotSame(a, cloned);
+        Assert.assertEquals(3, ((ClassA)cloned).field1);
+        
+        /* Collections of immutable elements are not trusted to hold only those */
+        orig.elements = null;
+        orig.ints = new HashSet<Integer>();
+        ClassE e = new ClassE();
+        e.y = new SubLinkedList<Integer>();
+        ((Set)orig.ints).add(e);
+        deepClone = cloner.deepClone(orig);
+        cloned = ((Set)deepClone.ints).iterator().next();
+        Assert.assertNotSame(e, cloned);
+        TypedCollections gwtClone = cloner.copyForGwtRpcIfNeeded(orig);
+        Assert.assertNotSame(orig, gwtClone);
+        Assert.assertEquals(LinkedList.class, ((ClassE)((Set)gwtClone.ints).iterator().next()).y.getClass());
+    }
+    
+    @ReflexivelyClonable
+    public static class CountingGetters {
+        @Clone public Integer value;
+        @Clone public LinkedList<Integer> list;
+        @Clone public CountingGetters next;
+        public int reads;
+        public void setValue (Integer value)
+        {
+            this.value = value;
+        }
+        public Integer getValue ()
+        {
+            reads++;
+            return value;
+        }
+        public void setList (LinkedList<Integer> list)
+        {
+            this.list = list;
+        }
+        public LinkedList<Integer> getList ()
+        {
+            reads++;
+            return list;
+        }
+        public void setNext (CountingGetters next)
+        {
+            this.next = next;
+        }
+        public CountingGetters getNext ()
+        {
+            reads++;
+            return next;
+        }
+    }
+    @Test
+    public void singlePassGwtCopyReadsEachFieldOnce()
+    {
+        cloner.setGwtCopyMode(GwtCopyMode.SINGLE_PASS);
+        CountingGetters first = new CountingGetters();
+        CountingGetters second = new CountingGetters();
+        first.value = 1;
+        first.next = second;
+        second.value = 2;
+        second.next = first;
+        second.list = new SubLinkedList<Integer>();
+        second.list.add(3);
+        
+        CountingGetters gwtClone = cloner.copyForGwtRpcIfNeeded(first);
+        
+        Assert.assertEquals(3, first.reads);
+        Assert.assertEquals(3, second.reads);
+        Assert.assertNotSame(first, gwtClone);
+        Assert.assertEquals(Integer.valueOf(1), gwtClone.value);
+        Assert.assertNotSame(second, gwtClone.next);
+        Assert.assertEquals(Integer.valueOf(2), gwtClone.next.value);
+        Assert.assertEquals(LinkedList.class, gwtClone.next.list.getClass());
+        Assert.assertEquals(second.list, gwtClone.next.list);
+        Assert.assertSame(gwtClone, gwtClone.next.next);
+        
+        first.reads = 0;
+        second.list = null;
+        
+        Assert.assertSame(first, cloner.copyForGwtRpcIfNeeded(first));
+        Assert.assertEquals(3, first.reads);
+    }
+    
+    @ReflexivelyClonable
+    public static class TreeNode {
+        @Clone public TreeNode left;
+        @Clone public TreeNode right;
+        @Clone public LinkedList<Integer> list;
+        @DoNotClone public String secret;
+        public void setLeft (TreeNode left)
+        {
+            this.left = left;
+        }
+        public TreeNode getLeft ()
+        {
+            return left;
+        }
+        public void setRight (TreeNode right)
+        {
+            this.right = right;
+        }
+        public TreeNode getRight ()
+        {
+            return right;
+        }
+        public void setList (LinkedList<Integer> list)
+        {
+            this.list = list;
+        }
+        public LinkedList<Integer> getList ()
+        {
+            return list;
+        }
+        public void setSecret (String secret)
+        {
+            this.secret = secret;
+        }
+        public String getSecret ()
+        {
+            return secret;
+        }
+    }
+    @Test
+    public void partialGwtCopySharesUntouchedSubgraphs()
+    {
+        cloner.setGwtCopyMode(GwtCopyMode.PARTIAL);
+        TreeNode root = new TreeNode();
+        TreeNode left = new TreeNode();
+        TreeNode leftLeft = new TreeNode();
+        TreeNode right = new TreeNode();
+        TreeNode rightRight = new TreeNode();
+        LinkedList<Integer> lazyList = new SubLinkedList<Integer>();
+        lazyList.add(1);
+        lazyList.add(2);
+        root.left = left;
+        root.right = right;
+        left.left = leftLeft;
+        right.left = leftLeft;
+        right.right = rightRight;
+        rightRight.list = lazyList;
+        
+        Assert.assertSame(left, cloner.copyForGwtRpcIfNeeded(left));
+        
+        TreeNode gwtClone = cloner.copyForGwtRpcIfNeeded(root);
+        
+        Assert.assertNotSame(root, gwtClone);
+        Assert.assertSame(left, gwtClone.left);
+        Assert.assertNotSame(right, gwtClone.right);
+        Assert.assertSame(leftLeft, gwtClone.right.left);
+        Assert.assertNotSame(rightRight, gwtClone.right.right);
+        Assert.assertEquals(LinkedList.class, gwtClone.right.right.list.getClass());
+        Assert.assertEquals(lazyList, gwtClone.right.right.list);
+        
+        Assert.assertSame(left, root.left);
+        Assert.assertSame(right, root.right);
+        Assert.assertSame(leftLeft, left.left);
+        Assert.assertSame(leftLeft, right.left);
+        Assert.assertSame(rightRight, right.right);
+        Assert.assertSame(lazyList, rightRight.list);
+        Assert.assertEquals(Arrays.asList(1, 2), lazyList);
+    }
+    
+    @Test
+    public void partialGwtCopyCopiesCycles()
+    {
+        cloner.setGwtCopyMode(GwtCopyMode.PARTIAL);
+        TreeNode root = new TreeNode();
+        TreeNode inCycle = new TreeNode();
+        TreeNode hasSecret = new TreeNode();
+        TreeNode untouched = new TreeNode();
+        root.left = inCycle;
+        root.right = untouched;
+        inCycle.left = root;
+        inCycle.right = hasSecret;
+        hasSecret.secret = "password";
+        
+        TreeNode gwtClone = cloner.copyForGwtRpcIfNeeded(root);
+        
+        Assert.assertNotSame(root, gwtClone);
+        Assert.assertSame(untouched, gwtClone.right);
+        Assert.assertNotSame(inCycle, gwtClone.left);
+        Assert.assertSame(gwtClone, gwtClone.left.left);
+        Assert.assertNotSame(hasSecret, gwtClone.left.right);
+        Assert.assertNull(gwtClone.left.right.secret);
+        
+        Assert.assertSame(inCycle, root.left);
+        Assert.assertSame(untouched, root.right);
+        Assert.assertSame(root, inCycle.left);
+        Assert.assertSame(hasSecret, inCycle.right);
+        Assert.assertEquals("password", hasSecret.secret);
+    }
+    
+    @ReflexivelyClonable
+    public static class HiddenSubgraphs {
+        @Clone public Integer shown;
+        @DoNotClone public CountingGetters hidden;
+        @Clone(ProjectionA.class) public CountingGetters onlyOnA;
+        public int reads;
+        public void setShown (Integer shown)
+        {
+            this.shown = shown;
+        }
+        public Integer getShown ()
+        {
+            return shown;
+        }
+        public void setHidden (CountingGetters hidden)
+        {
+            this.hidden = hidden;
+        }
+        public CountingGetters getHidden ()
+        {
+            reads++;
+            return hidden;
+        }
+        public void setOnlyOnA (CountingGetters onlyOnA)
+        {
+            this.onlyOnA = onlyOnA;
+        }
+        public CountingGetters getOnlyOnA ()
+        {
+            reads++;
+            return onlyOnA;
+        }
+    }
+    @Test
+    public void discardedFieldsAreNotRead()
+    {
+        HiddenSubgraphs orig = new HiddenSubgraphs();
+        orig.shown = 4;
+        orig.hidden = new CountingGetters();
+        orig.onlyOnA = new CountingGetters();
+        
+        HiddenSubgraphs deepClone = cloner.deepClone(orig, ProjectionB.class);
+        
+        Assert.assertEquals(Integer.valueOf(4), deepClone.shown);
+        Assert.assertNull(deepClone.hidden);
+        Assert.assertNull(deepClone.onlyOnA);
+        Assert.assertEquals(0, orig.reads);
+        Assert.assertEquals(0, orig.hidden.reads);
+        Assert.assertEquals(0, orig.onlyOnA.reads);
+        
+        deepClone = cloner.deepClone(orig, ProjectionA.class);
+        
+        Assert.assertNull(deepClone.hidden);
+        Assert.assertNotSame(orig.onlyOnA, deepClone.onlyOnA);
+        Assert.assertEquals(1, orig.reads);
+        Assert.assertEquals(0, orig.hidden.reads);
+    }
+    
+    @ReflexivelyClonable
+    public static class DontCareFields {
+        @Clone(ProjectionA.class) public TreeNode node;
+        @Clone(ProjectionA.class) public LinkedList<Integer> list;
+        @DoNotClone public String secret;
+        public void setNode (TreeNode node)
+        {
+            this.node = node;
+        }
+        public TreeNode getNode ()
+        {
+            return node;
+        }
+        public void setList (LinkedList<Integer> list)
+        {
+            this.list = list;
+        }
+        public LinkedList<Integer> getList ()
+        {
+            return list;
+        }
+        public void setSecret (String secret)
+        {
+            this.secret = secret;
+        }
+        public String getSecret ()
+        {
+            return secret;
+        }
+    }
+    @Test
+    public void dontCareFieldsFollowThePolicy()
+    {
+        DontCareFields orig = new DontCareFields();
+        orig.node = new TreeNode();
+        orig.list = new LinkedList<Integer>(Arrays.asList(1, 2));
+        
+        Assert.assertEquals(DontCarePolicy.DROP, cloner.getDontCarePolicy());
+        DontCareFields deepClone = cloner.deepClone(orig, ProjectionB.class);
+        Assert.assertNull(deepClone.node);
+        Assert.assertNull(deepClone.list);
+        
+        deepClone = cloner.deepClone(orig, ProjectionB.class, DontCarePolicy.SHARE);
+        Assert.assertSame(orig.node, deepClone.node);
+        Assert.assertSame(orig.list, deepClone.list);
+        
+        deepClone = cloner.deepClone(orig, ProjectionB.class, DontCarePolicy.COPY);
+        Assert.assertNotSame(orig.node, deepClone.node);
+        Assert.assertNotSame(orig.list, deepClone.list);
+        Assert.assertEquals(orig.list, deepClone.list);
+        
+        cloner.setDontCarePolicy(DontCarePolicy.SHARE);
+        deepClone = cloner.deepClone(orig, ProjectionB.class);
+        Assert.assertSame(orig.node, deepClone.node);
+        
+        /* Fields cloned for the projection are not affected */
+        deepClone = cloner.deepClone(orig, ProjectionA.class);
+        Assert.assertNotSame(orig.node, deepClone.node);
+        Assert.assertNotSame(orig.list, deepClone.list);
+    }
+    @Test
+    public void gwtCopiesOnlyShareDontCareFieldsThatNeedNoCopy()
+    {
+        DontCareFields orig = new DontCareFields();
+        orig.node = new TreeNode();
+        orig.list = new SubLinkedList<Integer>();
+        orig.list.add(1);
+        orig.secret = "secret";
+        
+        DontCareFields gwtClone = cloner.copyForGwtRpcIfNeeded(orig, ProjectionB.class, DontCarePolicy.SHARE);
+        Assert.assertNotSame(orig, gwtClone);
+        Assert.assertNull(gwtClone.secret);
+        Assert.assertSame(orig.node, gwtClone.node);
+        Assert.assertNotSame(orig.list, gwtClone.list);
+        Assert.assertEquals(LinkedList.class, gwtClone.list.getClass());
+        Assert.assertEquals(orig.list, gwtClone.list);
+        
+        gwtClone = cloner.copyForGwtRpcIfNeeded(orig, ProjectionB.class, DontCarePolicy.DROP);
+        Assert.assertNull(gwtClone.node);
+        Assert.assertNull(gwtClone.list);
+        
+        /* A value that needs a copy forces one whatever the policy */
+        orig.secret = null;
+        Assert.assertNotSame(orig, cloner.copyForGwtRpcIfNeeded(orig, ProjectionB.class, DontCarePolicy.DROP));
+        orig.list = new LinkedList<Integer>();
+        Assert.assertSame(orig, cloner.copyForGwtRpcIfNeeded(orig, ProjectionB.class, DontCarePolicy.SHARE));
+    }
+    @ReflexivelyClonable
+    public static class CountingTreeNode extends TreeNode {
+        public int reads;
+        @Override
+        public TreeNode getLeft ()
+        {
+            reads++;
+            return super.getLeft();
+        }
+    }
+    @ReflexivelyClonable
+    public static class DontCareFieldsList {
+        @Clone public LinkedList<DontCareFields> all;
+        public void setAll (LinkedList<DontCareFields> all)
+        {
+            this.all = all;
+        }
+        public LinkedList<DontCareFields> getAll ()
+        {
+            return all;
+        }
+    }
+    private DontCareFields dontCareFields (TreeNode node)
+    {
+        DontCareFields fields = new DontCareFields();
+        fields.node = node;
+        fields.secret = "secret";
+        return fields;
+    }
+    @Test
+    public void gwtCopiesCheckWhatDontCareFieldsShareOnlyOnce()
+    {
+        CountingTreeNode shared = new CountingTreeNode();
+        shared.left = new TreeNode();
+        DontCareFieldsList orig = new DontCareFieldsList();
+        orig.all = new LinkedList<DontCareFields>();
+        orig.all.add(dontCareFields(shared));
+        DontCareFieldsList gwtClone = cloner.copyForGwtRpcIfNeeded(orig, ProjectionB.class, DontCarePolicy.SHARE);
+        Assert.assertSame(shared, gwtClone.all.get(0).node);
+        int reads = shared.reads;
+        
+        /* However many fields share it */
+        shared.reads = 0;
+        for (int i = 1; i < 10; i++)
+        {
+            orig.all.add(dontCareFields(shared));
+        }
+        gwtClone = cloner.copyForGwtRpcIfNeeded(orig, ProjectionB.class, DontCarePolicy.SHARE);
+        for (DontCareFields fields : gwtClone.all)
+        {
+            Assert.assertSame(shared, fields.node);
+        }
+        Assert.assertEquals(reads, shared.reads);
+        
+        /* What a check that found a copy was needed went through is checked again */
+        TreeNode bad = new TreeNode();
+        bad.list = new SubLinkedList<Integer>();
+        TreeNode parent = new TreeNode();
+        parent.left = new TreeNode();
+        parent.right = bad;
+        orig.all.clear();
+        orig.all.add(dontCareFields(parent));
+        orig.all.add(dontCareFields(parent.left));
+        orig.all.add(dontCareFields(bad));
+        gwtClone = cloner.copyForGwtRpcIfNeeded(orig, ProjectionB.class, DontCarePolicy.SHARE);
+        Assert.assertNotSame(parent, gwtClone.all.get(0).node);
+        Assert.assertEquals(LinkedList.class, gwtClone.all.get(2).node.list.getClass());
+    }
+    
+    @ReflexivelyClonable
+    public static final class TreeLeaf {
+        @Clone public Integer value;
+        @Clone public Date date;
+        public void setValue (Integer value)
+        {
+            this.value = value;
+        }
+        public Integer getValue ()
+        {
+            return value;
+        }
+        public void setDate (Date date)
+        {
+            this.date = date;
+        }
+        public Date getDate ()
+        {
+            return date;
+        }
+    }
+    @ReflexivelyClonable
+    public static final class TreeBranch {
+        @Clone public TreeLeaf left;
+        @Clone public TreeLeaf right;
+        @Clone public List<TreeLeaf> leaves;
+        @Clone public TreeLeaf[] array;
+        public void setLeft (TreeLeaf left)
+        {
+            this.left = left;
+        }
+        public TreeLeaf getLeft ()
+        {
+            return left;
+        }
+        public void setRight (TreeLeaf right)
+        {
+            this.right = right;
+        }
+        public TreeLeaf getRight ()
+        {
+            return right;
+        }
+        public void setLeaves (List<TreeLeaf> leaves)
+        {
+            this.leaves = leaves;
+        }
+        public List<TreeLeaf> getLeaves ()
+        {
+            return leaves;
+        }
+        public void setArray (TreeLeaf[] array)
+        {
+            this.array = array;
+        }
+        public TreeLeaf[] getArray ()
+        {
+            return array;
+        }
+    }
+    @Test
+    public void treeClonesOfAcyclicTypesDontTrackIdentities()
+    {
+        TreeLeaf leaf = new TreeLeaf();
+        leaf.value = 3;
+        leaf.date = new Date(5);
+        TreeBranch orig = new TreeBranch();
+        orig.left = leaf;
+        orig.right = leaf;
+        orig.leaves = new LinkedList<TreeLeaf>(Arrays.asList(leaf));
+        orig.array = new TreeLeaf[] { leaf };
+        
+        TreeBranch deepClone = cloner.deepClone(orig);
+        Assert.assertSame(deepClone.left, deepClone.right);
+        Assert.assertSame(deepClone.left, deepClone.leaves.get(0));
+        Assert.assertSame(deepClone.left, deepClone.array[0]);
+        
+        /* The promise of a tree was broken, so the leaf is cloned once per path */
+        TreeBranch treeClone = cloner.deepCloneTree(orig);
+        Assert.assertNotSame(leaf, treeClone.left);
+        Assert.assertNotSame(treeClone.left, treeClone.right);
+        Assert.assertNotSame(treeClone.left, treeClone.leaves.get(0));
+        Assert.assertNotSame(treeClone.left, treeClone.array[0]);
+        Assert.assertEquals(Integer.valueOf(3), treeClone.right.value);
+        Assert.assertEquals(new Date(5), treeClone.leaves.get(0).date);
+        Assert.assertEquals(Integer.valueOf(3), treeClone.array[0].value);
+    }
+    @Test
+    public void treeClonesOfPossiblyCyclicTypesTrackIdentities()
+    {
+        TreeNode orig = new TreeNode();
+        orig.left = new TreeNode();
+        orig.right = orig.left;
+        orig.left.left = orig;
+        
+        TreeNode treeClone = cloner.deepCloneTree(orig);
+        
+        Assert.assertNotSame(orig, treeClone);
+        Assert.assertSame(treeClone.left, treeClone.right);
+        Assert.assertSame(treeClone, treeClone.left.left);
+    }
+    @Test
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    public void treeClonesTrackIdentitiesOnceARawTypeLetsAnythingIn()
+    {
+        TreeLeaf leaf = new TreeLeaf();
+        leaf.value = 3;
+        TreeBranch orig = new TreeBranch();
+        orig.leaves = new LinkedList<TreeLeaf>(Arrays.asList(leaf));
+        /* A branch among the leaves, which leads back to itself */
+        ((List)orig.leaves).add(orig);
+        
+        TreeBranch treeClone = cloner.deepCloneTree(orig);
+        Assert.assertNotSame(orig, treeClone);
+        Assert.assertEquals(2, treeClone.leaves.size());
+        Assert.assertEquals(Integer.valueOf(3), treeClone.leaves.get(0).value);
+        Assert.assertSame(treeClone, ((List)treeClone.leaves).get(1));
+        
+        /* Immutable elements lead nowhere */
+        ((List)orig.leaves).set(1, "not a leaf");
+        orig.left = leaf;
+        orig.right = leaf;
+        treeClone = cloner.deepCloneTree(orig);
+        Assert.assertEquals("not a leaf", ((List)treeClone.leaves).get(1));
+        Assert.assertNotSame(treeClone.left, treeClone.right);
+    }
+    
+    @ReflexivelyClonable
+    public static final class NeverCopiedForGwt {
+        @Clone public int number;
+        @Clone public NeverCopiedForGwt next;
+        @DoNotClone(ProjectionA.class) public int pin;
+        public int reads;
+        public void setNumber (int number)
+        {
+            this.number = number;
+        }
+        public int getNumber ()
+        {
+            reads++;
+            return number;
+        }
+        public void setNext (NeverCopiedForGwt next)
+        {
+            this.next = next;
+        }
+        public NeverCopiedForGwt getNext ()
+        {
+            reads++;
+            return next;
+        }
+        public void setPin (int pin)
+        {
+            this.pin = pin;
+        }
+        public int getPin ()
+        {
+            reads++;
+            return pin;
+        }
+    }
+    @ReflexivelyClonable
+    public static class AnythingHolder {
+        @Clone public Object anything;
+        @DoNotClone public String secret;
+        public void setAnything (Object anything)
+        {
+            this.anything = anything;
+        }
+        public Object getAnything ()
+        {
+            return anything;
+        }
+        public void setSecret (String secret)
+        {
+            this.secret = secret;
+        }
+        public String getSecret ()
+        {
+            return secret;
+        }
+    }
+    @Test
+    public void gwtChecksAreSkippedForTypesThatNeverNeedACopy()
+    {
+        NeverCopiedForGwt orig = new NeverCopiedForGwt();
+        orig.number = 4;
+        orig.pin = 1234;
+        orig.next = new NeverCopiedForGwt();
+        orig.next.next = orig;
+        
+        Assert.assertSame(orig, cloner.copyForGwtRpcIfNeeded(orig, ProjectionB.class));
+        Assert.assertEquals(0, orig.reads);
+        
+        /* A primitive that must not be cloned can't be null, so a copy is always needed */
+        NeverCopiedForGwt gwtClone = cloner.copyForGwtRpcIfNeeded(orig, ProjectionA.class);
+        Assert.assertNotSame(orig, gwtClone);
+        Assert.assertEquals(4, gwtClone.number);
+        Assert.assertEquals(0, gwtClone.pin);
+        Assert.assertNotSame(orig, cloner.copyForGwtRpcIfNeeded(orig));
+        
+        AnythingHolder holder = new AnythingHolder();
+        holder.anything = orig;
+        orig.reads = 0;
+        Assert.assertSame(holder, cloner.copyForGwtRpcIfNeeded(holder, ProjectionB.class));
+        Assert.assertEquals(0, orig.reads);
+        
+        holder.secret = "secret";
+        cloner.setGwtCopyMode(GwtCopyMode.PARTIAL);
+        AnythingHolder partialClone = cloner.copyForGwtRpcIfNeeded(holder, ProjectionB.class);
+        Assert.assertNotSame(holder, partialClone);
+        Assert.assertNull(partialClone.secret);
+        Assert.assertSame(orig, partialClone.anything);
+        Assert.assertEquals(0, orig.reads);
+    }
+    
+    @ReflexivelyClonable
+    public static class HashedNode {
+        @Clone public int value;
+        @Clone public HashedNode next;
+        @Clone public HashSet<Object> set;
+        public void setValue (int value)
+        {
+            this.value = value;
+        }
+        public int getValue ()
+        {
+            return value;
+        }
+        public void setNext (HashedNode next)
+        {
+            this.next = next;
+        }
+        public HashedNode getNext ()
+        {
+            return next;
+        }
+        public void setSet (HashSet<Object> set)
+        {
+            this.set = set;
+        }
+        public HashSet<Object> getSet ()
+        {
+            return set;
+        }
+        @Override
+        public int hashCode ()
+        {
+            return value;
+        }
+        @Override
+        public boolean equals (Object obj)
+        {
+            return obj instanceof HashedNode && ((HashedNode)obj).value == value;
+        }
+    }
+    @Test
+    public void parallelClonesPreserveSharingAndCycles()
+    {
+        Assert.assertNull(cloner.deepCloneParallel(null));
+        Assert.assertEquals("leaf", cloner.deepCloneParallel("leaf"));
+        
+        ClassE shared = new ClassE();
+        shared.y = new LinkedList<Integer>(Arrays.asList(1, 2));
+        ClassE[] orig = new ClassE[1000];
+        for (int i = 0; i < orig.length; i++)
+        {
+            orig[i] = new ClassE();
+            orig[i].y = new LinkedList<Integer>(Arrays.asList(i));
+        }
+        for (int i = 0; i < orig.length; i++)
+        {
+            orig[i].x = new ClassE[]{shared, orig[(i + 1) % orig.length], null};
+        }
+        orig[0].x[2] = orig[0];
+        
+        ClassE[] clone = cloner.deepCloneParallel(orig);
+        
+        Assert.assertNotSame(orig, clone);
+        Assert.assertEquals(orig.length, clone.length);
+        ClassE sharedClone = clone[0].x[0];
+        Assert.assertNotSame(shared, sharedClone);
+        Assert.assertEquals(shared.y, sharedClone.y);
+        for (int i = 0; i < orig.length; i++)
+        {
+            Assert.assertNotSame(orig[i], clone[i]);
+            Assert.assertSame(sharedClone, clone[i].x[0]);
+            Assert.assertSame(clone[(i + 1) % orig.length], clone[i].x[1]);
+            Assert.assertEquals(orig[i].y, clone[i].y);
+        }
+        Assert.assertSame(clone[0], clone[0].x[2]);
+        Assert.assertNull(clone[1].x[2]);
+    }
+    @Test
+    public void parallelClonesFillSetsOnceTheirElementsAreCloned()
+    {
+        HashedNode orig = new HashedNode();
+        orig.set = new HashSet<Object>();
+        HashSet<Object> inner = new HashSet<Object>();
+        for (int i = 1; i <= 100; i++)
+        {
+            HashedNode node = new HashedNode();
+            node.value = i;
+            node.next = orig;
+            orig.set.add(node);
+            inner.add(node);
+        }
+        orig.set.add(inner);
+        
+        HashedNode clone = cloner.deepCloneParallel(orig);
+        
+        Assert.assertEquals(orig.set, clone.set);
+        Assert.assertEquals(101, clone.set.size());
+        Object innerClone = null;
+        for (Object element : clone.set)
+        {
+            Assert.assertTrue(clone.set.contains(element));
+            if (element instanceof HashedNode)
+            {
+                Assert.assertSame(clone, ((HashedNode)element).next);
+            }
+            else
+            {
+                innerClone = element;
+            }
+        }
+        Assert.assertNotSame(inner, innerClone);
+        Assert.assertEquals(inner, innerClone);
+    }
+    @Test
+    public void batchClonesShareOnlyIfAsked()
+    {
+        ClassE shared = new ClassE();
+        ClassE e1 = new ClassE();
+        e1.x = new ClassE[]{shared};
+        ClassE e2 = new ClassE();
+        e2.x = new ClassE[]{shared};
+        List<ClassE> orig = Arrays.asList(e1, null, e2);
+        
+        List<ClassE> clones = cloner.deepCloneAll(orig);
+        Assert.assertEquals(3, clones.size());
+        Assert.assertNull(clones.get(1));
+        Assert.assertNotSame(e1, clones.get(0));
+        Assert.assertNotSame(e2, clones.get(2));
+        Assert.assertNotSame(shared, clones.get(0).x[0]);
+        Assert.assertNotSame(clones.get(0).x[0], clones.get(2).x[0]);
+        
+        clones = cloner.deepCloneAll(orig, null, true);
+        Assert.assertNull(clones.get(1));
+        Assert.assertNotSame(shared, clones.get(0).x[0]);
+        Assert.assertSame(clones.get(0).x[0], clones.get(2).x[0]);
+    }
+    @Test
+    public void batchCopiesForGwtShareOnlyIfAsked()
+    {
+        SubLinkedList<Integer> lazyList = new SubLinkedList<Integer>();
+        ClassE e1 = new ClassE();
+        e1.y = lazyList;
+        ClassE e2 = new ClassE();
+        e2.y = lazyList;
+        ClassE e3 = new ClassE();
+        e3.y = new LinkedList<Integer>();
+        List<ClassE> orig = Arrays.asList(e1, e2, null, e3);
+        
+        List<ClassE> copies = cloner.copyForGwtRpcIfNeededAll(orig);
+        Assert.assertEquals(4, copies.size());
+        Assert.assertNotSame(e1, copies.get(0));
+        Assert.assertNotSame(e2, copies.get(1));
+        Assert.assertEquals(LinkedList.class, copies.get(0).y.getClass());
+        Assert.assertNotSame(copies.get(0).y, copies.get(1).y);
+        Assert.assertNull(copies.get(2));
+        Assert.assertSame(e3, copies.get(3));
+        
+        copies = cloner.copyForGwtRpcIfNeededAll(orig, null, true);
+        Assert.assertNotSame(e1, copies.get(0));
+        Assert.assertEquals(LinkedList.class, copies.get(0).y.getClass());
+        Assert.assertSame(copies.get(0).y, copies.get(1).y);
+        Assert.assertSame(e3, copies.get(3));
+    }
+    @Test
+    public void sessionsPreserveIdentitiesAcrossCalls()
+    {
+        ClassE shared = new ClassE();
+        ClassE e1 = new ClassE();
+        e1.x = new ClassE[]{shared};
+        ClassE e2 = new ClassE();
+        e2.x = new ClassE[]{shared};
+        
+        CloningSession session = cloner.openSession();
+        ClassE clone1 = session.deepClone(e1);
+        ClassE clone2 = session.deepClone(e2);
+        Assert.assertNotSame(shared, clone1.x[0]);
+        Assert.assertSame(clone1.x[0], clone2.x[0]);
+        Assert.assertSame(clone1, session.deepClone(e1));
+        Assert.assertSame(clone2.x[0], session.deepClone(shared));
+        Assert.assertNull(session.deepClone(null));
+        
+        session.reset();
+        ClassE clone3 = session.deepClone(e1);
+        Assert.assertNotSame(clone1, clone3);
+        Assert.assertNotSame(clone1.x[0], clone3.x[0]);
+        
+        session.close();
+        session.close();
+        try
+        {
+            session.deepClone(e1);
+            Assert.fail();
+        }
+        catch (IllegalStateException e)
+        {
+        }
+    }
+    @Test
+    public void sessionsCopyForGwtOnlyOnce()
+    {
+        SubLinkedList<Integer> lazyList = new SubLinkedList<Integer>();
+        ClassE e1 = new ClassE();
+        e1.y = lazyList;
+        ClassE e2 = new ClassE();
+        e2.x = new ClassE[]{e1};
+        ClassE e3 = new ClassE();
+        e3.y = new LinkedList<Integer>();
+        
+        CloningSession session = cloner.openSession();
+        ClassE copy1 = session.copyForGwtRpcIfNeeded(e1);
+        Assert.assertNotSame(e1, copy1);
+        Assert.assertEquals(LinkedList.class, copy1.y.getClass());
+        ClassE copy2 = session.copyForGwtRpcIfNeeded(e2);
+        Assert.assertNotSame(e2, copy2);
+        Assert.assertSame(copy1, copy2.x[0]);
+        Assert.assertSame(copy1, session.copyForGwtRpcIfNeeded(e1));
+        Assert.assertSame(e3, session.copyForGwtRpcIfNeeded(e3));
+        Assert.assertSame(e3, session.copyForGwtRpcIfNeeded(e3));
+        
+        /* Deep clones are tracked apart from copies */
+        Assert.assertNotSame(copy1, session.deepClone(e1));
+        session.close();
+    }
+    @Test
+    public void sessionsKeepSharedObjectsSharedWhateverTheVerdictOfTheirRoots()
+    {
+        NeverCopiedForGwt leaf = new NeverCopiedForGwt();
+        NeverCopiedForGwt never = new NeverCopiedForGwt();
+        never.next = leaf;
+        AnythingHolder maybe = new AnythingHolder();
+        maybe.anything = leaf;
+        maybe.secret = "secret";
+        
+        CloningSession session = cloner.openSession();
+        AnythingHolder maybeCopy = session.copyForGwtRpcIfNeeded(maybe, ProjectionB.class);
+        Assert.assertNotSame(maybe, maybeCopy);
+        NeverCopiedForGwt neverCopy = session.copyForGwtRpcIfNeeded(never, ProjectionB.class);
+        Assert.assertSame(maybeCopy.anything, neverCopy.next);
+        session.close();
+    }
+    @Test
+    public void cachedCopiesAreRemadeOnlyForInvalidatedObjectsAndTheirAncestors()
+    {
+        ClassE a = new ClassE();
+        a.y = new SubLinkedList<Integer>();
+        ClassE b = new ClassE();
+        b.y = new LinkedList<Integer>();
+        ClassE root = new ClassE();
+        root.x = new ClassE[]{a, b};
+        ClassE plain = new ClassE();
+        plain.y = new LinkedList<Integer>();
+        
+        CloneCache cache = new CloneCache();
+        cloner.setCloneCache(cache);
+        ClassE copy1 = cloner.copyForGwtRpcIfNeeded(root);
+        Assert.assertNotSame(root, copy1);
+        Assert.assertEquals(LinkedList.class, copy1.x[0].y.getClass());
+        Assert.assertSame(copy1, cloner.copyForGwtRpcIfNeeded(root));
+        Assert.assertSame(copy1.x[0], cloner.copyForGwtRpcIfNeeded(a));
+        Assert.assertSame(plain, cloner.copyForGwtRpcIfNeeded(plain));
+        Assert.assertSame(plain, cloner.copyForGwtRpcIfNeeded(plain));
+        
+        a.y.add(5);
+        cache.invalidate(a.y);
+        ClassE copy2 = cloner.copyForGwtRpcIfNeeded(root);
+        Assert.assertNotSame(copy1, copy2);
+        Assert.assertNotSame(copy1.x, copy2.x);
+        Assert.assertNotSame(copy1.x[0], copy2.x[0]);
+        Assert.assertEquals(Arrays.asList(5), copy2.x[0].y);
+        Assert.assertTrue(copy1.x[0].y.isEmpty());
+        Assert.assertSame(copy1.x[1], copy2.x[1]);
+        
+        /* Other projections and policies are cached apart */
+        Assert.assertNotSame(copy2, cloner.copyForGwtRpcIfNeeded(root, null, DontCarePolicy.SHARE));
+        
+        cache.clear();
+        Assert.assertEquals(0, cache.size());
+        Assert.assertNotSame(copy2, cloner.copyForGwtRpcIfNeeded(root));
+        
+        cloner.setCloneCache(null);
+        ClassE uncached = cloner.copyForGwtRpcIfNeeded(root);
+        Assert.assertNotSame(uncached, cloner.copyForGwtRpcIfNeeded(root));
+    }
+    @Test
+    public void invalidatingADescendantDropsCachedRootsThatNeededNoCopy()
+    {
+        ClassE child = new ClassE();
+        child.y = new LinkedList<Integer>();
+        ClassE root = new ClassE();
+        root.x = new ClassE[]{child};
+        ClassE copiedRoot = new ClassE();
+        ClassE other = new ClassE();
+        other.y = new SubLinkedList<Integer>();
+        copiedRoot.x = new ClassE[]{other, child};
+        
+        CloneCache cache = new CloneCache();
+        cloner.setCloneCache(cache);
+        Assert.assertSame(root, cloner.copyForGwtRpcIfNeeded(root));
+        ClassE copy = cloner.copyForGwtRpcIfNeeded(copiedRoot);
+        Assert.assertSame(copy, cloner.copyForGwtRpcIfNeeded(copiedRoot));
+        
+        child.y = new SubLinkedList<Integer>();
+        cache.invalidate(child);
+        ClassE rootCopy = cloner.copyForGwtRpcIfNeeded(root);
+        Assert.assertNotSame(root, rootCopy);
+        Assert.assertEquals(LinkedList.class, rootCopy.x[0].y.getClass());
+        ClassE recopy = cloner.copyForGwtRpcIfNeeded(copiedRoot);
+        Assert.assertNotSame(copy, recopy);
+        Assert.assertSame(rootCopy.x[0], recopy.x[1]);
+        cloner.setCloneCache(null);
+    }
+    @Test
+    public void cachedCopiesAreHandedOutWhileOthersAreMade() throws Exception
+    {
+        final ClassE root = new ClassE();
+        root.y = new SubLinkedList<Integer>();
+        final CloneCache cache = new CloneCache();
+        cloner.setCloneCache(cache);
+        final ClassE copy = cloner.copyForGwtRpcIfNeeded(root);
+        final Object[] found = new Object[1];
+        Thread reader = new Thread() {
+            @Override
+            public void run ()
+            {
+                found[0] = cloner.copyForGwtRpcIfNeeded(root);
+            }
+        };
+        /* As if another thread were making a copy */
+        synchronized (cache)
+        {
+            reader.start();
+            reader.join(10000);
+            Assert.assertFalse(reader.isAlive());
+        }
+        Assert.assertSame(copy, found[0]);
+        cloner.setCloneCache(null);
+    }
+    @Test
+    public void boundedClonesTruncateDeepAndNumerousObjects()
+    {
+        HashedNode head = new HashedNode();
+        HashedNode node = head;
+        for (int i = 1; i < 4; i++)
+        {
+            node.next = new HashedNode();
+            node = node.next;
+            node.value = i;
+        }
+        List<String> cutPoints = new ArrayList<String>();
+        HashedNode clone = cloner.deepCloneBounded(head, null, new CloningLimits(2, CloningLimits.UNLIMITED, CloningLimits.UNLIMITED, LimitPolicy.TRUNCATE), cutPoints);
+        Assert.assertEquals(2, clone.next.next.value);
+        Assert.assertNull(clone.next.next.next);
+        Assert.assertEquals(Arrays.asList("HashedNode.next.next.next"), cutPoints);
+        
+        ClassE e1 = new ClassE();
+        ClassE root = new ClassE();
+        root.x = new ClassE[]{e1, new ClassE(), e1, new ClassE()};
+        cutPoints.clear();
+        ClassE clonedRoot = cloner.deepCloneBounded(root, null, new CloningLimits(CloningLimits.UNLIMITED, 3, CloningLimits.UNLIMITED, LimitPolicy.TRUNCATE), cutPoints);
+        Assert.assertEquals(4, clonedRoot.x.length);
+        Assert.assertNotNull(clonedRoot.x[0]);
+        Assert.assertNull(clonedRoot.x[1]);
+        Assert.assertSame(clonedRoot.x[0], clonedRoot.x[2]);
+        Assert.assertNull(clonedRoot.x[3]);
+        Assert.assertEquals(Arrays.asList("ClassE.x[1]", "ClassE.x[3]"), cutPoints);
+        
+        HashedNode withSet = new HashedNode();
+        withSet.set = new HashSet<Object>();
+        withSet.set.add(new HashedNode());
+        withSet.set.add(head.next);
+        clone = cloner.deepCloneBounded(withSet, null, new CloningLimits(1, CloningLimits.UNLIMITED, CloningLimits.UNLIMITED, LimitPolicy.TRUNCATE));
+        Assert.assertTrue(clone.set.isEmpty());
+        clone = cloner.deepCloneBounded(withSet, null, new CloningLimits(2, CloningLimits.UNLIMITED, CloningLimits.UNLIMITED, LimitPolicy.TRUNCATE));
+        Assert.assertEquals(2, clone.set.size());
+    }
+    @Test
+    public void boundedClonesCheckCollectionSizes()
+    {
+        ClassE root = new ClassE();
+        root.y = new LinkedList<Integer>(Arrays.asList(1, 2, 3, 4));
+        CloningLimits limits = new CloningLimits(CloningLimits.UNLIMITED, CloningLimits.UNLIMITED, 3, LimitPolicy.TRUNCATE);
+        Assert.assertNull(cloner.deepCloneBounded(root, null, limits).y);
+        Assert.assertNull(cloner.deepCloneBounded(root.y, null, limits));
+        root.y.remove(0);
+        Assert.assertEquals(root.y, cloner.deepCloneBounded(root, null, limits).y);
+        
+        root.x = new ClassE[4];
+        try
+        {
+            cloner.deepCloneBounded(root, null, new CloningLimits(CloningLimits.UNLIMITED, CloningLimits.UNLIMITED, 3, LimitPolicy.FAIL));
+            Assert.fail();
+        }
+        catch (CloningError e)
+        {
+            Assert.assertTrue(e.getMessage(), e.getMessage().endsWith("ClassE.x"));
+        }
+    }
+    @Test
+    public void cloneJobsCloneAsDeepCloneDoes()
+    {
+        ClassE shared = new ClassE();
+        shared.y = new LinkedList<Integer>(Arrays.asList(1, 2));
+        ClassE root = new ClassE();
+        root.x = new ClassE[]{shared, new ClassE(), shared, root};
+        
+        CloneJob<ClassE> job = cloner.startDeepClone(root);
+        Assert.assertFalse(job.isDone());
+        try
+        {
+            job.getClone();
+            Assert.fail();
+        }
+        catch (IllegalStateException e)
+        {
+        }
+        int steps = 0;
+        while (!job.step(1))
+        {
+            steps++;
+        }
+        Assert.assertTrue(steps > 2);
+        ClassE clone = job.getClone();
+        Assert.assertNotSame(root, clone);
+        Assert.assertNotSame(shared, clone.x[0]);
+        Assert.assertSame(clone.x[0], clone.x[2]);
+        Assert.assertSame(clone, clone.x[3]);
+        Assert.assertEquals(shared.y, clone.x[0].y);
+        Assert.assertTrue(job.step(1));
+        Assert.assertSame(clone, job.finishNow());
+        
+        Assert.assertNull(cloner.startDeepClone(null).getClone());
+        Assert.assertEquals("s", cloner.startDeepClone("s").getClone());
+        
+        job = cloner.startDeepClone(root);
+        job.step(2);
+        job.cancel();
+        Assert.assertFalse(job.isDone());
+        try
+        {
+            job.step(1);
+            Assert.fail();
+        }
+        catch (IllegalStateException e)
+        {
+        }
+    }
+    @Test
+    public void clonesIntoEarlierClonesReuseTheirObjects()
+    {
+        ClassA a = new ClassA();
+        a.field1 = 1;
+        a.field3 = new Date(1000);
+        a.field4 = "four";
+        a.field5 = new int[]{5, 6};
+        ClassB b = new ClassB();
+        b.field1 = new LinkedList<Integer>(Arrays.asList(1, 2));
+        b.field3 = a;
+        
+        ClassB destination = cloner.deepClone(b);
+        ClassA oldA = destination.field3;
+        Date oldDate = oldA.field3;
+        int[] oldArray = oldA.field5;
+        LinkedList<Integer> oldList = destination.field1;
+        
+        a.field1 = 2;
+        a.field3 = new Date(2000);
+        a.field5 = new int[]{7, 8};
+        b.field1.add(3);
+        ClassB clone = cloner.deepCloneInto(b, destination);
+        Assert.assertSame(destination, clone);
+        Assert.assertSame(oldA, clone.field3);
+        Assert.assertSame(oldDate, clone.field3.field3);
+        Assert.assertSame(oldArray, clone.field3.field5);
+        Assert.assertSame(oldList, clone.field1);
+        Assert.assertEquals(2, clone.field3.field1);
+        Assert.assertEquals(new Date(2000), clone.field3.field3);
+        Assert.assertArrayEquals(new int[]{7, 8}, clone.field3.field5);
+        Assert.assertEquals(Arrays.asList(1, 2, 3), clone.field1);
+        Assert.assertEquals("four", clone.field3.field4);
+        
+        /* Where shapes differ, new objects are made */
+        a.field5 = new int[]{9};
+        a.field3 = null;
+        clone = cloner.deepCloneInto(b, destination);
+        Assert.assertSame(oldA, clone.field3);
+        Assert.assertNotSame(oldArray, clone.field3.field5);
+        Assert.assertArrayEquals(new int[]{9}, clone.field3.field5);
+        Assert.assertNull(clone.field3.field3);
+        
+        Assert.assertNotSame(destination, cloner.deepCloneInto(b, new ClassB()).field3);
+        Assert.assertNotSame(b, cloner.deepCloneInto(b, null));
+        try
+        {
+            cloner.deepCloneInto(b, b);
+            Assert.fail();
+        }
+        catch (IllegalArgumentException e)
+        {
+        }
+    }
+    @Test
+    public void clonesIntoEarlierClonesReuseEachObjectOnce()
+    {
+        ClassE shared = new ClassE();
+        ClassE root = new ClassE();
+        root.x = new ClassE[]{shared, new ClassE(), shared};
+        ClassE destination = cloner.deepClone(root);
+        Assert.assertSame(destination.x[0], destination.x[2]);
+        
+        ClassE second = new ClassE();
+        root.x = new ClassE[]{second, shared, second};
+        ClassE clone = cloner.deepCloneInto(root, destination);
+        Assert.assertSame(destination, clone);
+        Assert.assertNotSame(clone.x[0], clone.x[1]);
+        Assert.assertSame(clone.x[0], clone.x[2]);
+        Assert.assertNotSame(second, clone.x[0]);
+        Assert.assertNotSame(shared, clone.x[1]);
+        
+        /* The destination of a cycle */
+        root.x = new ClassE[]{root};
+        destination = cloner.deepClone(root);
+        clone = cloner.deepCloneInto(root, destination);
+        Assert.assertSame(destination, clone);
+        Assert.assertSame(clone, clone.x[0]);
+    }
+    @ReflexivelyClonable
+    public static class ReusedAcrossProjections {
+        @Clone(ProjectionA.class) @DoNotClone(ProjectionB.class) public int onA;
+        @Clone(ProjectionB.class) @DoNotClone(ProjectionA.class) public String onB;
+        @Clone(ProjectionA.class) public ClassE dontCareOnB;
+        public int getOnA () { return onA; }
+        public void setOnA (int onA) { this.onA = onA; }
+        public String getOnB () { return onB; }
+        public void setOnB (String onB) { this.onB = onB; }
+        public ClassE getDontCareOnB () { return dontCareOnB; }
+        public void setDontCareOnB (ClassE dontCareOnB) { this.dontCareOnB = dontCareOnB; }
+    }
+    @Test
+    public void clonesIntoEarlierClonesResetFieldsTheProjectionLeavesOut()
+    {
+        ReusedAcrossProjections source = new ReusedAcrossProjections();
+        source.onA = 1;
+        source.onB = "b";
+        source.dontCareOnB = new ClassE();
+        ReusedAcrossProjections destination = cloner.deepClone(source, ProjectionA.class);
+        Assert.assertEquals(1, destination.onA);
+        Assert.assertNull(destination.onB);
+        Assert.assertNotNull(destination.dontCareOnB);
+        
+        /* Nothing the clone for ProjectionA filled in is left over */
+        ReusedAcrossProjections clone = cloner.deepCloneInto(source, destination, ProjectionB.class);
+        Assert.assertSame(destination, clone);
+        Assert.assertEquals(0, clone.onA);
+        Assert.assertEquals("b", clone.onB);
+        Assert.assertNull(clone.dontCareOnB);
+        
+        clone = cloner.deepCloneInto(source, destination, ProjectionA.class);
+        Assert.assertSame(destination, clone);
+        Assert.assertEquals(1, clone.onA);
+        Assert.assertNull(clone.onB);
+        Assert.assertNotNull(clone.dontCareOnB);
+    }
+    @ReflexivelyClonable
+    public static class TrackedEntity {
+        @CopyFromClient public int count;
+        @CopyFromClient public String name;
+        @CopyFromClient public Date when;
+        @CopyFromClient public LinkedList<Integer> tags;
+        @CopyFromClient public CopyableB ref;
+        public final List<String> written = new ArrayList<String>();
+        public void setCount (int count)
+        {
+            written.add("count");
+            this.count = count;
+        }
+        public int getCount ()
+        {
+            return count;
+        }
+        public void setName (String name)
+        {
+            written.add("name");
+            this.name = name;
+        }
+        public String getName ()
+        {
+            return name;
+        }
+        public void setWhen (Date when)
+        {
+            written.add("when");
+            this.when = when;
+        }
+        public Date getWhen ()
+        {
+            return when;
+        }
+        public void setTags (LinkedList<Integer> tags)
+        {
+            written.add("tags");
+            this.tags = tags;
+        }
+        public LinkedList<Integer> getTags ()
+        {
+            return tags;
+        }
+        public void setRef (CopyableB ref)
+        {
+            written.add("ref");
+            this.ref = ref;
+        }
+        public CopyableB getRef ()
+        {
+            return ref;
+        }
+    }
+    private TrackedEntity trackedEntity (CopyableB ref)
+    {
+        TrackedEntity entity = new TrackedEntity();
+        entity.count = 3;
+        entity.name = new String("name");
+        entity.when = new Date(1000);
+        entity.tags = new SubLinkedList<Integer>();
+        entity.tags.add(1);
+        entity.ref = ref;
+        return entity;
+    }
+    @Test
+    public void changedFieldsOnlyAreCopiedFromClient()
+    {
+        CopyableB ref = new CopyableB();
+        TrackedEntity dest = trackedEntity(ref);
+        TrackedEntity source = trackedEntity(ref);
+        source.tags = new LinkedList<Integer>(source.tags);
+        
+        Assert.assertTrue(cloner.shallowCopyChangedFieldsFromClient(dest, source, ChangeDetection.EQUALS).isEmpty());
+        Assert.assertTrue(dest.written.isEmpty());
+        
+        /* Immutable values are compared by value even so, the rest by identity */
+        Set<String> changed = cloner.shallowCopyChangedFieldsFromClient(dest, source, ChangeDetection.IDENTITY);
+        Assert.assertEquals(Arrays.asList("when", "tags"), new ArrayList<String>(changed));
+        Assert.assertEquals(Arrays.asList("when", "tags"), dest.written);
+        Assert.assertSame(source.tags, dest.tags);
+        
+        dest = trackedEntity(ref);
+        source.count = 4;
+        source.ref = new CopyableB();
+        source.name = null;
+        changed = cloner.shallowCopyChangedFieldsFromClient(dest, source, ChangeDetection.EQUALS);
+        Assert.assertEquals(Arrays.asList("count", "name", "ref"), new ArrayList<String>(changed));
+        Assert.assertEquals(4, dest.count);
+        Assert.assertNull(dest.name);
+        Assert.assertSame(source.ref, dest.ref);
+        
+        /* Dates within the same second are the same */
+        cloner.setChangeComparator(Date.class, new Comparator<Date>() {
+            public int compare (Date o1, Date o2)
+            {
+                return (int)(o1.getTime() / 1000 - o2.getTime() / 1000);
+            }
+        });
+        dest = trackedEntity(ref);
+        source = trackedEntity(ref);
+        source.when = new Date(1999);
+        Assert.assertTrue(cloner.shallowCopyChangedFieldsFromClient(dest, source, ChangeDetection.EQUALS).isEmpty());
+        source.when = new Date(2000);
+        Assert.assertEquals(Collections.singleton("when"), cloner.shallowCopyChangedFieldsFromClient(dest, source, ChangeDetection.EQUALS));
+        cloner.setChangeComparator(Date.class, null);
+        source.when = new Date(2001);
+        Assert.assertEquals(Collections.singleton("when"), cloner.shallowCopyChangedFieldsFromClient(dest, source, ChangeDetection.EQUALS));
+    }
+    @ReflexivelyClonable
+    public static class MergedOrder {
+        @CopyFromClient public String note;
+        @CopyFromClient public LinkedList<MergedLine> lines;
+        @CopyFromClient public HashSet<String> tags;
+        @CopyFromClient(ProjectionA.class) public MergedCustomer customer;
+        public String getNote () { return note; }
+        public void setNote (String note) { this.note = note; }
+        public LinkedList<MergedLine> getLines () { return lines; }
+        public void setLines (LinkedList<MergedLine> lines) { this.lines = lines; }
+        public HashSet<String> getTags () { return tags; }
+        public void setTags (HashSet<String> tags) { this.tags = tags; }
+        public MergedCustomer getCustomer () { return customer; }
+        public void setCustomer (MergedCustomer customer) { this.customer = customer; }
+    }
+    @ReflexivelyClonable
+    public static class MergedLine {
+        @MergeKey public Integer id;
+        @CopyFromClient public int quantity;
+        @CopyFromClient public MergedOrder order;
+        public Integer getId () { return id; }
+        public void setId (Integer id) { this.id = id; }
+        public int getQuantity () { return quantity; }
+        public void setQuantity (int quantity) { this.quantity = quantity; }
+        public MergedOrder getOrder () { return order; }
+        public void setOrder (MergedOrder order) { this.order = order; }
+    }
+    @ReflexivelyClonable
+    public static class MergedCustomer {
+        @MergeKey public String id;
+        @CopyFromClient public String name;
+        public String getId () { return id; }
+        public void setId (String id) { this.id = id; }
+        public String getName () { return name; }
+        public void setName (String name) { this.name = name; }
+    }
+    private MergedOrder mergedOrder (String customerId, int... lineIds)
+    {
+        MergedOrder order = new MergedOrder();
+        order.note = "note";
+        order.lines = new LinkedList<MergedLine>();
+        for (int id : lineIds)
+        {
+            MergedLine line = new MergedLine();
+            line.id = id;
+            line.quantity = id;
+            line.order = order;
+            order.lines.add(line);
+        }
+        order.tags = new HashSet<String>(Arrays.asList("a", "b"));
+        order.customer = new MergedCustomer();
+        order.customer.id = customerId;
+        order.customer.name = "name";
+        return order;
+    }
+    @Test
+    public void collectionsAreMergedByKeyFromClient()
+    {
+        MergedOrder server = mergedOrder("c", 1, 2, 3);
+        List<MergedLine> serverLines = server.lines;
+        MergedLine line1 = server.lines.get(0);
+        MergedLine line3 = server.lines.get(2);
+        HashSet<String> serverTags = server.tags;
+        String tagA = null;
+        for (String tag : server.tags)
+        {
+            if (tag.equals("a"))
+            {
+                tagA = tag;
+            }
+        }
+        
+        MergedOrder client = mergedOrder("c", 3, 4, 1);
+        client.note = "changed";
+        client.lines.get(0).quantity = 30;
+        client.lines.get(2).quantity = 10;
+        MergedLine line4 = client.lines.get(1);
+        client.tags = new HashSet<String>(Arrays.asList(new String("a"), "c"));
+        
+        cloner.deepCopyFieldsFromClient(server, client);
+        
+        Assert.assertEquals("changed", server.note);
+        Assert.assertSame(serverLines, server.lines);
+        Assert.assertEquals(Arrays.asList(line3, line4, line1), server.lines);
+        Assert.assertSame(line3, server.lines.get(0));
+        Assert.assertSame(line1, server.lines.get(2));
+        Assert.assertEquals(30, line3.quantity);
+        Assert.assertEquals(10, line1.quantity);
+        /* Back references, from matched and added lines alike, lead to the server's order */
+        Assert.assertSame(server, line1.order);
+        Assert.assertSame(server, line3.order);
+        Assert.assertSame(server, line4.order);
+        
+        Assert.assertSame(serverTags, server.tags);
+        Assert.assertEquals(new HashSet<String>(Arrays.asList("a", "c")), server.tags);
+        Assert.assertTrue(server.tags.contains(tagA));
+        for (String tag : server.tags)
+        {
+            if (tag.equals("a"))
+            {
+                Assert.assertSame(tagA, tag);
+            }
+        }
+        
+        /* The customer is only copied under projection A */
+        MergedCustomer customer = server.customer;
+        client.customer.name = "changed";
+        cloner.deepCopyFieldsFromClient(server, client);
+        Assert.assertEquals("name", customer.name);
+        cloner.deepCopyFieldsFromClient(server, client, ProjectionA.class);
+        Assert.assertSame(customer, server.customer);
+        Assert.assertEquals("changed", customer.name);
+        
+        /* A customer with another key replaces it */
+        client.customer.id = "d";
+        cloner.deepCopyFieldsFromClient(server, client, ProjectionA.class);
+        Assert.assertSame(client.customer, server.customer);
+    }
+    @Test
+    public void unchangedListsAreLeftAloneWhenMergedFromClient()
+    {
+        MergedOrder server = mergedOrder("c", 1, 2);
+        server.lines = new LinkedList<MergedLine>(server.lines) {
+            private static final long serialVersionUID = 1L;
+            @Override
+            public void clear ()
+            {
+                throw new UnsupportedOperationException();
+            }
+        };
+        MergedOrder client = mergedOrder("c", 1, 2);
+        client.lines.get(1).quantity = 20;
+        
+        cloner.deepCopyFieldsFromClient(server, client);
+        Assert.assertEquals(1, server.lines.get(0).quantity);
+        Assert.assertEquals(20, server.lines.get(1).quantity);
+        
+        client.lines.removeLast();
+        try
+        {
+            cloner.deepCopyFieldsFromClient(server, client);
+            Assert.fail();
+        }
+        catch (CloningError e)
+        {
+            // expected
+        }
+    }
+    @ReflexivelyClonable
+    public static class MergedBasket {
+        @CopyFromClient public HashSet<MergedItem> items;
+        public HashSet<MergedItem> getItems () { return items; }
+        public void setItems (HashSet<MergedItem> items) { this.items = items; }
+    }
+    @ReflexivelyClonable
+    public static class MergedItem {
+        @MergeKey public long id;
+        @CopyFromClient public String name;
+        public long getId () { return id; }
+        public void setId (long id) { this.id = id; }
+        public String getName () { return name; }
+        public void setName (String name) { this.name = name; }
+        @Override
+        public int hashCode ()
+        {
+            return (int)id * 31 + (null == name ? 0 : name.hashCode());
+        }
+    }
+    private MergedItem mergedItem (long id, String name)
+    {
+        MergedItem item = new MergedItem();
+        item.id = id;
+        item.name = name;
+        return item;
+    }
+    @Test
+    public void elementsWithDuplicateKeysAreMergedFromClient()
+    {
+        /* Two unsaved lines, both with id 0 */
+        MergedOrder server = mergedOrder("c", 0, 0);
+        MergedLine first = server.lines.get(0);
+        MergedLine second = server.lines.get(1);
+        MergedOrder client = mergedOrder("c", 0, 0);
+        client.lines.get(1).quantity = 20;
+        cloner.deepCopyFieldsFromClient(server, client);
+        Assert.assertEquals(Arrays.asList(first, second), server.lines);
+        Assert.assertEquals(20, second.quantity);
+        
+        MergedBasket serverBasket = new MergedBasket();
+        serverBasket.items = new HashSet<MergedItem>(Arrays.asList(mergedItem(0, "a"), mergedItem(0, "b"), mergedItem(1, "c")));
+        IdentityTable<Object> serverItems = new IdentityTable<Object>();
+        for (MergedItem item : serverBasket.items)
+        {
+            serverItems.put(item, item);
+        }
+        MergedBasket clientBasket = new MergedBasket();
+        clientBasket.items = new HashSet<MergedItem>(Arrays.asList(mergedItem(0, "x"), mergedItem(0, "y"), mergedItem(1, "z")));
+        cloner.deepCopyFieldsFromClient(serverBasket, clientBasket);
+        /* No server item is dropped, and no client item added */
+        Assert.assertEquals(3, serverBasket.items.size());
+        HashSet<String> names = new HashSet<String>();
+        for (MergedItem item : serverBasket.items)
+        {
+            Assert.assertSame(item, serverItems.get(item));
+            /* The items were hashed with their merged names */
+            Assert.assertTrue(serverBasket.items.contains(item));
+            names.add(item.name);
+        }
+        Assert.assertEquals(new HashSet<String>(Arrays.asList("x", "y", "z")), names);
+    }
+    @ReflexivelyClonable
+    public static class DeltaOrder implements Serializable {
+        private static final long serialVersionUID = 1L;
+        @Clone public String note;
+        @Clone public LinkedList<DeltaLine> lines;
+        @Clone public HashSet<String> tags;
+        @Clone public DeltaCustomer customer;
+        @Clone(ProjectionA.class) public String secret;
+        public String getNote () { return note; }
+        public void setNote (String note) { this.note = note; }
+        public LinkedList<DeltaLine> getLines () { return lines; }
+        public void setLines (LinkedList<DeltaLine> lines) { this.lines = lines; }
+        public HashSet<String> getTags () { return tags; }
+        public void setTags (HashSet<String> tags) { this.tags = tags; }
+        public DeltaCustomer getCustomer () { return customer; }
+        public void setCustomer (DeltaCustomer customer) { this.customer = customer; }
+        public String getSecret () { return secret; }
+        public void setSecret (String secret) { this.secret = secret; }
+    }
+    @ReflexivelyClonable
+    public static class DeltaLine implements Serializable {
+        private static final long serialVersionUID = 1L;
+        @MergeKey @Clone public Integer id;
+        @Clone public int quantity;
+        @Clone public DeltaOrder order;
+        public Integer getId () { return id; }
+        public void setId (Integer id) { this.id = id; }
+        public int getQuantity () { return quantity; }
+        public void setQuantity (int quantity) { this.quantity = quantity; }
+        public DeltaOrder getOrder () { return order; }
+        public void setOrder (DeltaOrder order) { this.order = order; }
+    }
+    @ReflexivelyClonable
+    public static class DeltaCustomer implements Serializable {
+        private static final long serialVersionUID = 1L;
+        @MergeKey @Clone public String id;
+        @Clone public String name;
+        public String getId () { return id; }
+        public void setId (String id) { this.id = id; }
+        public String getName () { return name; }
+        public void setName (String name) { this.name = name; }
+    }
+    private DeltaOrder deltaOrder (int... lineIds)
+    {
+        DeltaOrder order = new DeltaOrder();
+        order.note = "note";
+        order.lines = new LinkedList<DeltaLine>();
+        for (int id : lineIds)
+        {
+            order.lines.add(deltaLine(order, id));
+        }
+        order.tags = new HashSet<String>(Arrays.asList("a", "b"));
+        order.customer = new DeltaCustomer();
+        order.customer.id = "c";
+        order.customer.name = "name";
+        order.secret = "secret";
+        return order;
+    }
+    private DeltaLine deltaLine (DeltaOrder order, int id)
+    {
+        DeltaLine line = new DeltaLine();
+        line.id = id;
+        line.quantity = id;
+        line.order = order;
+        return line;
+    }
+    @Test
+    public void deltaBringsCloneUpToDate() throws Exception
+    {
+        DeltaOrder order = deltaOrder(1, 2, 3, 4, 5);
+        DeltaOrder previous = cloner.deepClone(order);
+        Assert.assertTrue(cloner.computeDelta(previous, order).isEmpty());
+        DeltaLine line1 = previous.lines.get(0);
+        DeltaLine line3 = previous.lines.get(2);
+        DeltaLine line5 = previous.lines.get(4);
+        DeltaCustomer customer = previous.customer;
+        
+        order.note = "changed";
+        order.lines.get(2).quantity = 30;
+        order.lines.remove(1);
+        order.lines.add(2, deltaLine(order, 6));
+        order.tags.remove("b");
+        order.tags.add("c");
+        order.customer.name = "changed";
+        order.secret = "changed";
+        
+        GraphDelta delta = cloner.computeDelta(previous, order);
+        /* The note, the secret, a quantity, one splice of the lines, the tags, the name, and the new line's order */
+        Assert.assertEquals(delta.toString(), 7, delta.size());
+        
+        /* The delta holds nothing of the earlier clone, so it can be sent on its own */
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        ObjectOutputStream out = new ObjectOutputStream(bytes);
+        out.writeObject(delta);
+        out.close();
+        delta = (GraphDelta)new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray())).readObject();
+        
+        cloner.applyDelta(previous, delta);
+        Assert.assertTrue(cloner.computeDelta(previous, order).isEmpty());
+        Assert.assertEquals("changed", previous.note);
+        Assert.assertEquals("changed", previous.secret);
+        Assert.assertSame(customer, previous.customer);
+        Assert.assertEquals("changed", customer.name);
+        Assert.assertEquals(new HashSet<String>(Arrays.asList("a", "c")), previous.tags);
+        Assert.assertEquals(5, previous.lines.size());
+        Assert.assertSame(line1, previous.lines.get(0));
+        Assert.assertSame(line3, previous.lines.get(1));
+        Assert.assertSame(line5, previous.lines.get(4));
+        Assert.assertEquals(30, line3.quantity);
+        DeltaLine line6 = previous.lines.get(2);
+        Assert.assertEquals(Integer.valueOf(6), line6.id);
+        Assert.assertNotSame(order.lines.get(2), line6);
+        Assert.assertSame(previous, line6.order);
+        
+        /* Another customer is sent anew */
+        order.customer = new DeltaCustomer();
+        order.customer.id = "d";
+        delta = cloner.computeDelta(previous, order);
+        Assert.assertEquals(1, delta.size());
+        cloner.applyDelta(previous, delta);
+        Assert.assertEquals("d", previous.customer.id);
+        Assert.assertNotSame(order.customer, previous.customer);
+        
+        /* Only what the projection clones is compared */
+        DeltaOrder projected = cloner.deepClone(order, ProjectionB.class);
+        Assert.assertNull(projected.secret);
+        order.secret = "changed again";
+        Assert.assertTrue(cloner.computeDelta(projected, order, ProjectionB.class).isEmpty());
+        projected = cloner.deepClone(order, ProjectionA.class);
+        order.secret = "changed once more";
+        delta = cloner.computeDelta(projected, order, ProjectionA.class);
+        Assert.assertEquals(1, delta.size());
+        cloner.applyDelta(projected, delta);
+        Assert.assertEquals("changed once more", projected.secret);
+    }
+    @ReflexivelyClonable
+    public static class DeltaBasket implements Serializable {
+        private static final long serialVersionUID = 1L;
+        @Clone public HashSet<DeltaLine> lines;
+        public HashSet<DeltaLine> getLines () { return lines; }
+        public void setLines (HashSet<DeltaLine> lines) { this.lines = lines; }
+    }
+    @Test
+    public void deltaReplacesCollectionsWithDuplicateKeys()
+    {
+        /* Two unsaved lines, both with id 0 */
+        DeltaOrder order = deltaOrder(0, 0);
+        order.lines.get(1).quantity = 1;
+        DeltaOrder previous = cloner.deepClone(order);
+        cloner.applyDelta(previous, cloner.computeDelta(previous, order));
+        Assert.assertEquals(2, previous.lines.size());
+        Assert.assertEquals(0, previous.lines.get(0).quantity);
+        Assert.assertEquals(1, previous.lines.get(1).quantity);
+        Assert.assertSame(previous, previous.lines.get(1).order);
+        
+        DeltaBasket basket = new DeltaBasket();
+        basket.lines = new HashSet<DeltaLine>(order.lines);
+        DeltaBasket previousBasket = cloner.deepClone(basket);
+        cloner.applyDelta(previousBasket, cloner.computeDelta(previousBasket, basket));
+        Assert.assertEquals(2, previousBasket.lines.size());
+        int quantities = 0;
+        for (DeltaLine line : previousBasket.lines)
+        {
+            Assert.assertEquals(Integer.valueOf(0), line.id);
+            quantities += line.quantity;
+        }
+        Assert.assertEquals(1, quantities);
+    }
+    @Test
+    public void graphsAreComparedAsTheirClones()
+    {
+        DeltaOrder order = deltaOrder(1, 2, 3);
+        DeltaOrder clone = cloner.deepClone(order);
+        Assert.assertTrue(cloner.deepEquals(order, clone));
+        Assert.assertEquals(cloner.deepHash(order), cloner.deepHash(clone));
+        Assert.assertTrue(cloner.deepEquals(null, null));
+        Assert.assertFalse(cloner.deepEquals(order, null));
+        
+        /* Sets are compared whatever order they hold their elements in */
+        HashSet<String> tags = new HashSet<String>();
+        for (int i = 0; i < 100; i++)
+        {
+            tags.add("tag" + i);
+        }
+        order.tags = tags;
+        clone.tags = new HashSet<String>(1000);
+        List<String> reversed = new ArrayList<String>(tags);
+        Collections.reverse(reversed);
+        clone.tags.addAll(reversed);
+        Assert.assertTrue(cloner.deepEquals(order, clone));
+        Assert.assertEquals(cloner.deepHash(order), cloner.deepHash(clone));
+        
+        clone.lines.get(2).quantity = 30;
+        Assert.assertFalse(cloner.deepEquals(order, clone));
+        Assert.assertFalse(cloner.deepHash(order) == cloner.deepHash(clone));
+        clone.lines.get(2).quantity = 3;
+        
+        /* The same shape, but wired differently: the last line refers to the clone */
+        clone.lines.get(2).order = cloner.deepClone(order);
+        Assert.assertFalse(cloner.deepEquals(order, clone));
+        clone.lines.get(2).order = clone;
+        Assert.assertTrue(cloner.deepEquals(order, clone));
+        
+        /* Only fields that the projection clones count */
+        clone.secret = "changed";
+        Assert.assertFalse(cloner.deepEquals(order, clone));
+        Assert.assertFalse(cloner.deepEquals(order, clone, ProjectionA.class));
+        Assert.assertTrue(cloner.deepEquals(order, clone, ProjectionB.class));
+        Assert.assertEquals(cloner.deepHash(order, ProjectionB.class), cloner.deepHash(clone, ProjectionB.class));
+        
+        /* Enums hash by name, so the hash doesn't change from one run to the next */
+        Assert.assertEquals(cloner.deepHash(HashedEnum.ONE), cloner.deepHash(HashedEnum.ONE));
+        Assert.assertEquals(31 * HashedEnum.class.getName().hashCode() + "ONE".hashCode(), cloner.deepHash(HashedEnum.ONE));
+    }
+    @Test
+    public void setsWithDuplicateKeysAreCompared()
+    {
+        /* Two unsaved lines, both with id 0 */
+        DeltaOrder order = deltaOrder(0, 0);
+        order.lines.get(1).quantity = 1;
+        DeltaBasket basket = new DeltaBasket();
+        basket.lines = new HashSet<DeltaLine>(order.lines);
+        Assert.assertTrue(cloner.deepEquals(basket, basket));
+        DeltaBasket clone = cloner.deepClone(basket);
+        Assert.assertTrue(cloner.deepEquals(basket, clone));
+        Assert.assertTrue(cloner.deepEquals(clone, basket));
+        Assert.assertEquals(cloner.deepHash(basket), cloner.deepHash(clone));
+        
+        for (DeltaLine line : clone.lines)
+        {
+            line.quantity += 10;
+        }
+        Assert.assertFalse(cloner.deepEquals(basket, clone));
+    }
+    public static enum HashedEnum { ONE, TWO }
 }